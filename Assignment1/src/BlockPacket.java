@@ -0,0 +1,183 @@
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * A packet of the bulk mode of the FileSender and FileReceiver. In bulk mode
+ * the file is cut into blocks of BLOCK_SIZE bytes, each sent in a packet
+ * tagged with its index, so that blocks can be written at their place however
+ * they arrive.
+ *
+ * <pre>
+ * | type (4) | index (4) | data |
+ * </pre>
+ *
+ * The sender starts with an INFO packet, whose index is the pass number 0 and
+ * whose data holds the size of the file followed by the name to save it under.
+ * After each pass over the blocks it sends a DONE packet carrying the number
+ * of the pass. The receiver answers both with a MISSING packet echoing the
+ * pass number, whose data holds the number of ranges of blocks still missing
+ * followed by the first and one past the last index of each range. A MISSING
+ * packet without ranges means the file is complete.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class BlockPacket {
+
+	/* Static Variables */
+	// All sizes and offsets are in bytes
+	public static final int		PACKET_SIZE		= 1000;
+	private static final int	TYPE_OFFSET		= 0;
+	private static final int	INDEX_OFFSET	= 4;
+	public static final int		HEADER_SIZE		= 8;
+	public static final int		BLOCK_SIZE		= PACKET_SIZE - HEADER_SIZE;
+	private static final int	RANGE_SIZE		= 8;
+	public static final int		MAX_RANGES		= (BLOCK_SIZE - 4) / RANGE_SIZE;
+
+	// Packet types
+	public static final int		INFO			= 0;
+	public static final int		DATA			= 1;
+	public static final int		DONE			= 2;
+	public static final int		MISSING			= 3;
+
+	/* Data Attributes */
+	private ByteBuffer			_buffer;
+	private DatagramPacket		_packet;
+
+	/* Accessors and Modifiers */
+	public ByteBuffer getBuffer() {
+		return _buffer;
+	}
+
+	public void setBuffer(ByteBuffer buffer) {
+		_buffer = buffer;
+	}
+
+	public DatagramPacket getPacket() {
+		return _packet;
+	}
+
+	public void setPacket(DatagramPacket packet) {
+		_packet = packet;
+	}
+
+	public int getType() {
+		return getBuffer().getInt(TYPE_OFFSET);
+	}
+
+	public int getIndex() {
+		return getBuffer().getInt(INDEX_OFFSET);
+	}
+
+	public int getDataLength() {
+		return getPacket().getLength() - HEADER_SIZE;
+	}
+
+	/**
+	 * Constructor. The same packet is reused for every datagram sent or
+	 * received.
+	 */
+	public BlockPacket() {
+		byte[] bytes = new byte[PACKET_SIZE];
+		setBuffer(ByteBuffer.wrap(bytes));
+		setPacket(new DatagramPacket(bytes, PACKET_SIZE));
+	}
+
+	/**
+	 * Checks if the datagram last received is long enough to be a packet of
+	 * the bulk mode
+	 *
+	 * @return true if the datagram holds at least a header
+	 */
+	public boolean isValid() {
+		return getPacket().getLength() >= HEADER_SIZE;
+	}
+
+	/**
+	 * Prepares the packet to receive a datagram
+	 */
+	public void prepareReceive() {
+		getPacket().setLength(PACKET_SIZE);
+	}
+
+	/**
+	 * Writes the header of the packet. The data is then written into the
+	 * buffer from HEADER_SIZE on.
+	 *
+	 * @param type
+	 *            type of the packet
+	 * @param index
+	 *            index of the block, or pass number of a control packet
+	 * @param dataLength
+	 *            length of the data to send in bytes
+	 */
+	public void setHeader(int type, int index, int dataLength) {
+		getBuffer().putInt(TYPE_OFFSET, type);
+		getBuffer().putInt(INDEX_OFFSET, index);
+		getPacket().setLength(HEADER_SIZE + dataLength);
+	}
+
+	/**
+	 * Makes the packet an INFO packet announcing the file
+	 *
+	 * @param fileSize
+	 *            size of the file in bytes
+	 * @param filename
+	 *            name to save the file under, at most BLOCK_SIZE - 8 bytes
+	 */
+	public void makeInfo(long fileSize, byte[] filename) {
+		getBuffer().putLong(HEADER_SIZE, fileSize);
+		System.arraycopy(filename, 0, getBuffer().array(), HEADER_SIZE + 8,
+				filename.length);
+		setHeader(INFO, 0, 8 + filename.length);
+	}
+
+	public long getFileSize() {
+		return getBuffer().getLong(HEADER_SIZE);
+	}
+
+	public String getFilename() {
+		return new String(getBuffer().array(), HEADER_SIZE + 8,
+				getDataLength() - 8);
+	}
+
+	/**
+	 * Makes the packet a MISSING packet listing ranges of blocks not received
+	 *
+	 * @param pass
+	 *            pass number of the packet answered
+	 * @param ranges
+	 *            array holding the first and one past the last index of each
+	 *            range
+	 * @param rangeCount
+	 *            number of ranges, at most MAX_RANGES
+	 */
+	public void makeMissing(int pass, int[] ranges, int rangeCount) {
+		assert (rangeCount <= MAX_RANGES);
+		getBuffer().putInt(HEADER_SIZE, rangeCount);
+		for (int i = 0; i < rangeCount * 2; i++) {
+			getBuffer().putInt(HEADER_SIZE + 4 + i * 4, ranges[i]);
+		}
+		setHeader(MISSING, pass, 4 + rangeCount * RANGE_SIZE);
+	}
+
+	/**
+	 * Reads the ranges of a MISSING packet
+	 *
+	 * @param ranges
+	 *            array of at least MAX_RANGES * 2 to read the ranges into
+	 * @return number of ranges read, or -1 if the packet is malformed
+	 */
+	public int getMissing(int[] ranges) {
+		int rangeCount = getBuffer().getInt(HEADER_SIZE);
+		if (rangeCount < 0 || rangeCount > MAX_RANGES
+				|| getDataLength() < 4 + rangeCount * RANGE_SIZE) {
+			return -1;
+		}
+		for (int i = 0; i < rangeCount * 2; i++) {
+			ranges[i] = getBuffer().getInt(HEADER_SIZE + 4 + i * 4);
+		}
+		return rangeCount;
+	}
+}
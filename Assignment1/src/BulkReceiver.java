@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.BitSet;
+
+/**
+ *
+ * This class receives a file in the bulk mode of the FileReceiver. Blocks are
+ * written at their offset in the file as they arrive, in any order, and a
+ * bitmap keeps track of the blocks received. Each time the sender finishes a
+ * pass over the blocks, it is answered with the ranges of blocks still
+ * missing, up to as many as fit in a packet.
+ *
+ * Once the file is complete it is closed, but the receiver lingers until the
+ * sender has been quiet for LINGER_DELAY, answering again in case the sender
+ * did not receive the answer that ended the transfer.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class BulkReceiver {
+
+	/* Static Variables */
+	private static final boolean	DEBUG_MODE		= false;
+	// Time without any packet from the sender before exiting in msec
+	private static final int		LINGER_DELAY	= 1000;
+
+	/* Data Attributes */
+	private DatagramSocket			_socket;
+	private BlockPacket				_packet;
+	private RandomAccessFile		_fileWriter;
+	private int						_blockCount;
+	// Blocks received, one bit per block
+	private BitSet					_received;
+	private int[]					_ranges;
+	private boolean					_complete;
+
+	/* Accessors and Modifiers */
+	public DatagramSocket getSocket() {
+		return _socket;
+	}
+
+	public void setSocket(DatagramSocket socket) {
+		_socket = socket;
+	}
+
+	public BlockPacket getPacket() {
+		return _packet;
+	}
+
+	public void setPacket(BlockPacket packet) {
+		_packet = packet;
+	}
+
+	public RandomAccessFile getFileWriter() {
+		return _fileWriter;
+	}
+
+	public void setFileWriter(RandomAccessFile fileWriter) {
+		_fileWriter = fileWriter;
+	}
+
+	public int getBlockCount() {
+		return _blockCount;
+	}
+
+	public void setBlockCount(int blockCount) {
+		_blockCount = blockCount;
+	}
+
+	public BitSet getReceived() {
+		return _received;
+	}
+
+	public void setReceived(BitSet received) {
+		_received = received;
+	}
+
+	public int[] getRanges() {
+		return _ranges;
+	}
+
+	public void setRanges(int[] ranges) {
+		_ranges = ranges;
+	}
+
+	public boolean isComplete() {
+		return _complete;
+	}
+
+	public void setComplete(boolean complete) {
+		_complete = complete;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param socket
+	 *            socket to receive on
+	 */
+	public BulkReceiver(DatagramSocket socket) {
+		setSocket(socket);
+		setPacket(new BlockPacket());
+		setRanges(new int[BlockPacket.MAX_RANGES * 2]);
+		setComplete(false);
+	}
+
+	/**
+	 * Method to execute receiving of the file
+	 */
+	public void run() {
+		BlockPacket packet = getPacket();
+
+		try {
+			while (true) {
+				packet.prepareReceive();
+				try {
+					getSocket().receive(packet.getPacket());
+				} catch (SocketTimeoutException e) {
+					// Sender has stopped asking
+					return;
+				}
+				if (!packet.isValid()) {
+					continue;
+				}
+
+				switch (packet.getType()) {
+				case BlockPacket.INFO:
+					if (getFileWriter() == null) {
+						openFile(packet.getFilename(), packet.getFileSize());
+					}
+					sendMissing();
+					break;
+				case BlockPacket.DATA:
+					writeBlock();
+					break;
+				case BlockPacket.DONE:
+					if (getFileWriter() != null) {
+						sendMissing();
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(3);
+		}
+	}
+
+	/**
+	 * Creates the file to save the blocks into
+	 *
+	 * @param filename
+	 *            name to save the file under
+	 * @param fileSize
+	 *            size of the file in bytes
+	 */
+	private void openFile(String filename, long fileSize) {
+		try {
+			setFileWriter(new RandomAccessFile(filename, "rw"));
+			getFileWriter().setLength(fileSize);
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(2);
+		}
+		setBlockCount((int) ((fileSize + BlockPacket.BLOCK_SIZE - 1)
+				/ BlockPacket.BLOCK_SIZE));
+		setReceived(new BitSet(getBlockCount()));
+	}
+
+	/**
+	 * Writes the block held by the packet at its offset in the file, unless
+	 * it has been received before
+	 */
+	private void writeBlock() {
+		BlockPacket packet = getPacket();
+		int index = packet.getIndex();
+		if (isComplete() || getFileWriter() == null || index < 0
+				|| index >= getBlockCount() || getReceived().get(index)) {
+			return;
+		}
+
+		try {
+			getFileWriter().seek((long) index * BlockPacket.BLOCK_SIZE);
+			getFileWriter().write(packet.getBuffer().array(),
+					BlockPacket.HEADER_SIZE, packet.getDataLength());
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(4);
+		}
+		getReceived().set(index);
+	}
+
+	/**
+	 * Answers the control packet held by the packet with the ranges of blocks
+	 * still missing. Once there are none the file is closed, and the receiver
+	 * starts to linger.
+	 *
+	 * @throws IOException
+	 *             if the answer cannot be sent
+	 */
+	private void sendMissing() throws IOException {
+		BlockPacket packet = getPacket();
+		int pass = packet.getIndex();
+		SocketAddress sender = packet.getPacket().getSocketAddress();
+
+		int rangeCount = 0;
+		int index = getReceived().nextClearBit(0);
+		while (index < getBlockCount() && rangeCount < BlockPacket.MAX_RANGES) {
+			int end = getReceived().nextSetBit(index);
+			if (end < 0) {
+				end = getBlockCount();
+			}
+			getRanges()[rangeCount * 2] = index;
+			getRanges()[rangeCount * 2 + 1] = end;
+			rangeCount++;
+			index = getReceived().nextClearBit(end);
+		}
+		if (DEBUG_MODE) {
+			System.out.println("Pass " + pass + ": " + rangeCount
+					+ " ranges missing");
+		}
+
+		if (rangeCount == 0 && !isComplete()) {
+			setComplete(true);
+			getFileWriter().close();
+			getSocket().setSoTimeout(LINGER_DELAY);
+		}
+
+		packet.makeMissing(pass, getRanges(), rangeCount);
+		packet.getPacket().setSocketAddress(sender);
+		getSocket().send(packet.getPacket());
+	}
+}
@@ -0,0 +1,300 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+
+/**
+ *
+ * This class sends a file in the bulk mode of the FileSender, for links where
+ * waiting for acknowledgements would waste most of the capacity.
+ *
+ * The whole file is first blasted as blocks at the paced rate without waiting
+ * for anything. The receiver then answers with the ranges of blocks it is
+ * missing, and only those are blasted again, pass after pass, until the
+ * receiver has every block. The only packets waited for are the answers of
+ * the receiver, one per pass, and those are asked for again if they do not
+ * arrive within REPLY_TIMEOUT.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class BulkSender {
+
+	/* Static Variables */
+	private static final boolean	DEBUG_MODE		= false;
+	// Time to wait for an answer of the receiver in msec
+	private static final int		REPLY_TIMEOUT	= 1000;
+	// Number of times a packet is sent without an answer before giving up
+	private static final int		MAX_ATTEMPTS	= 10;
+
+	/* Data Attributes */
+	private DatagramSocket			_socket;
+	private InetAddress				_hostAddress;
+	private int						_hostPortNum;
+	private File					_fileToSend;
+	private String					_targetFilename;
+	private TokenBucket				_pacer;
+	private BlockPacket				_packet;
+	private int						_pass;
+	// Ranges of blocks still missing at the receiver, as first and one past
+	// the last index of each range
+	private int[]					_ranges;
+	private int						_rangeCount;
+
+	/* Accessors and Modifiers */
+	public DatagramSocket getSocket() {
+		return _socket;
+	}
+
+	public void setSocket(DatagramSocket socket) {
+		_socket = socket;
+	}
+
+	public InetAddress getHostAddress() {
+		return _hostAddress;
+	}
+
+	public void setHostAddress(InetAddress hostAddress) {
+		_hostAddress = hostAddress;
+	}
+
+	public int getHostPortNum() {
+		return _hostPortNum;
+	}
+
+	public void setHostPortNum(int hostPortNum) {
+		_hostPortNum = hostPortNum;
+	}
+
+	public File getFileToSend() {
+		return _fileToSend;
+	}
+
+	public void setFileToSend(File file) {
+		_fileToSend = file;
+	}
+
+	public String getTargetFilename() {
+		return _targetFilename;
+	}
+
+	public void setTargetFilename(String filename) {
+		_targetFilename = filename;
+	}
+
+	public TokenBucket getPacer() {
+		return _pacer;
+	}
+
+	public void setPacer(TokenBucket pacer) {
+		_pacer = pacer;
+	}
+
+	public BlockPacket getPacket() {
+		return _packet;
+	}
+
+	public void setPacket(BlockPacket packet) {
+		_packet = packet;
+	}
+
+	public int getPass() {
+		return _pass;
+	}
+
+	public void setPass(int pass) {
+		_pass = pass;
+	}
+
+	public int[] getRanges() {
+		return _ranges;
+	}
+
+	public void setRanges(int[] ranges) {
+		_ranges = ranges;
+	}
+
+	public int getRangeCount() {
+		return _rangeCount;
+	}
+
+	public void setRangeCount(int rangeCount) {
+		_rangeCount = rangeCount;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param socket
+	 *            socket to send from
+	 * @param hostAddress
+	 *            address of the host
+	 * @param hostPortNum
+	 *            port number of the host
+	 * @param fileToSend
+	 *            file to be sent
+	 * @param rcvFileName
+	 *            filename to be used to store the file on the host's end
+	 * @param pacer
+	 *            pacer of the blocks sent
+	 */
+	public BulkSender(DatagramSocket socket, InetAddress hostAddress,
+			int hostPortNum, File fileToSend, String rcvFileName,
+			TokenBucket pacer) {
+		setSocket(socket);
+		setHostAddress(hostAddress);
+		setHostPortNum(hostPortNum);
+		setFileToSend(fileToSend);
+		setTargetFilename(rcvFileName);
+		setPacer(pacer);
+		setPacket(new BlockPacket());
+		setPass(0);
+		setRanges(new int[BlockPacket.MAX_RANGES * 2]);
+		setRangeCount(0);
+	}
+
+	/**
+	 * Method to execute sending of the file. The INFO packet is answered with
+	 * every block missing, so the first pass blasts the whole file.
+	 */
+	public void run() {
+		RandomAccessFile fileReader = null;
+
+		try {
+
+			fileReader = new RandomAccessFile(getFileToSend(), "r");
+			getSocket().setSoTimeout(REPLY_TIMEOUT);
+
+			getPacket().makeInfo(fileReader.length(),
+					getTargetFilename().getBytes());
+			request();
+
+			while (getRangeCount() > 0) {
+				for (int i = 0; i < getRangeCount(); i++) {
+					sendBlocks(fileReader, getRanges()[i * 2],
+							getRanges()[i * 2 + 1]);
+				}
+				_pass++;
+				getPacket().setHeader(BlockPacket.DONE, getPass(), 0);
+				request();
+			}
+
+			fileReader.close();
+
+		} catch (FileNotFoundException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(2);
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(3);
+		}
+	}
+
+	/**
+	 * Sends a range of blocks of the file at the paced rate
+	 *
+	 * @param fileReader
+	 *            file to read the blocks from. Should already be opened.
+	 * @param first
+	 *            index of the first block to send
+	 * @param end
+	 *            one past the index of the last block to send
+	 */
+	private void sendBlocks(RandomAccessFile fileReader, int first, int end) {
+		BlockPacket packet = getPacket();
+
+		for (int index = first; index < end; index++) {
+			int lengthRead = 0;
+			try {
+				fileReader.seek((long) index * BlockPacket.BLOCK_SIZE);
+				lengthRead = fileReader.read(packet.getBuffer().array(),
+						BlockPacket.HEADER_SIZE, BlockPacket.BLOCK_SIZE);
+			} catch (IOException e) {
+				if (DEBUG_MODE) {
+					e.printStackTrace();
+				}
+				System.exit(4);
+			}
+			if (lengthRead <= 0) {
+				return;
+			}
+			packet.setHeader(BlockPacket.DATA, index, lengthRead);
+			sendPacket();
+		}
+	}
+
+	/**
+	 * Sends the control packet held by the packet until the receiver answers
+	 * it with the ranges of blocks it is missing. Answers to earlier passes
+	 * and other stray packets are ignored.
+	 */
+	private void request() {
+		BlockPacket packet = getPacket();
+		byte[] request = new byte[packet.getPacket().getLength()];
+		System.arraycopy(packet.getBuffer().array(), 0, request, 0,
+				request.length);
+
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			System.arraycopy(request, 0, packet.getBuffer().array(), 0,
+					request.length);
+			packet.getPacket().setLength(request.length);
+			sendPacket();
+
+			try {
+				while (true) {
+					packet.prepareReceive();
+					getSocket().receive(packet.getPacket());
+					if (packet.isValid()
+							&& packet.getType() == BlockPacket.MISSING
+							&& packet.getIndex() == getPass()) {
+						int rangeCount = packet.getMissing(getRanges());
+						if (rangeCount >= 0) {
+							setRangeCount(rangeCount);
+							if (DEBUG_MODE) {
+								System.out.println("Pass " + getPass() + ": "
+										+ rangeCount + " ranges missing");
+							}
+							return;
+						}
+					}
+				}
+			} catch (SocketTimeoutException e) {
+				// Request or answer lost, ask again
+			} catch (IOException e) {
+				if (DEBUG_MODE) {
+					e.printStackTrace();
+				}
+				System.exit(8);
+			}
+		}
+
+		System.out.println("Receiver is not responding");
+		System.exit(10);
+	}
+
+	/**
+	 * Method to send the packet to the host, once the pacer allows it
+	 */
+	private void sendPacket() {
+		try {
+
+			getPacer().acquire(getPacket().getPacket().getLength());
+			getPacket().getPacket().setAddress(getHostAddress());
+			getPacket().getPacket().setPort(getHostPortNum());
+			getSocket().send(getPacket().getPacket());
+
+		} catch (Exception e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(8);
+		}
+	}
+}
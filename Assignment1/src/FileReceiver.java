@@ -134,6 +134,15 @@ class FileReceiver {
 		}
 	}
 
+	/**
+	 * Method to execute receiving of a file sent in bulk mode, whose blocks
+	 * may arrive in any order and are asked for again until all have arrived
+	 */
+	public void runBulk() {
+		BulkReceiver receiver = new BulkReceiver(getSocket());
+		receiver.run();
+	}
+
 	/**
 	 * Method to write data from byte buffer into file on local directory
 	 * 
@@ -180,17 +189,24 @@ class FileReceiver {
 	 * </pre>
 	 * 
 	 * @param args
-	 *            Array of Strings. Should contain port to listen on
+	 *            Array of Strings. Should contain port to listen on, optionally
+	 *            followed by --bulk to receive in bulk mode.
 	 */
 	public static void main(String[] args) {
 
-		// check if the number of command line argument is 1
-		if (args.length != 1) {
-			System.out.println("Usage: java FileReceiver port");
+		// check if the number of command line argument is 1, or 2 for bulk
+		// mode
+		boolean bulk = args.length == 2 && args[1].equals("--bulk");
+		if (args.length != 1 && !bulk) {
+			System.out.println("Usage: java FileReceiver port [--bulk]");
 			System.exit(1);
 		}
 
 		FileReceiver fr = new FileReceiver(args[0]);
-		fr.run();
+		if (bulk) {
+			fr.runBulk();
+		} else {
+			fr.run();
+		}
 	}
 }
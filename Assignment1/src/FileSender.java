@@ -27,8 +27,11 @@ import java.net.UnknownHostException;
 class FileSender {
 
 	/* Static Variables */
-	private static final boolean	DEBUG_MODE	= false;
-	private static final int		BUFFER_SIZE	= 1000;
+	private static final boolean	DEBUG_MODE		= false;
+	private static final int		BUFFER_SIZE		= 1000;
+	// Rate used when none is given in bytes per second, which is that of
+	// one full packet every 10 msec
+	private static final long		DEFAULT_RATE	= BUFFER_SIZE * 100;
 
 	/* Data Attributes */
 	private DatagramSocket			_socket;
@@ -38,6 +41,7 @@ class FileSender {
 	private int						_hostPortNum;
 	private InetAddress				_hostAddress;
 	private byte[]					_buffer;
+	private TokenBucket				_pacer;
 
 	/* Accessors and Modifiers */
 	public DatagramSocket getSocket() {
@@ -100,6 +104,14 @@ class FileSender {
 		_buffer = buffer;
 	}
 
+	public TokenBucket getPacer() {
+		return _pacer;
+	}
+
+	public void setPacer(TokenBucket pacer) {
+		_pacer = pacer;
+	}
+
 	/**
 	 * Constructor
 	 * 
@@ -112,9 +124,11 @@ class FileSender {
 	 * @param rcvFileName
 	 *            String containing filename to be used to store the file on the
 	 *            host's end
+	 * @param rate
+	 *            rate to pace the packets at in bytes per second
 	 */
 	public FileSender(String fileToOpen, String host, String port,
-			String rcvFileName) {
+			String rcvFileName, long rate) {
 
 		try {
 
@@ -143,6 +157,7 @@ class FileSender {
 		setHostPortNum(port);
 		setTargetFilename(rcvFileName);
 		setBuffer(new byte[BUFFER_SIZE]);
+		setPacer(new TokenBucket(rate, BUFFER_SIZE));
 	}
 
 	/**
@@ -185,6 +200,18 @@ class FileSender {
 		}
 	}
 
+	/**
+	 * Method to execute sending of data in bulk mode, where every block is
+	 * tagged with its index and blocks lost are sent again until the host has
+	 * them all
+	 */
+	public void runBulk() {
+		BulkSender sender = new BulkSender(getSocket(), getHostAddress(),
+				getHostPortNum(), getFileToSend(), getTargetFilename(),
+				getPacer());
+		sender.run();
+	}
+
 	/**
 	 * Sends the filename as the first packet to the host.
 	 */
@@ -227,7 +254,7 @@ class FileSender {
 	}
 
 	/**
-	 * Method to send a packet to the host
+	 * Method to send a packet to the host, once the pacer allows it
 	 */
 	private void sendPacket(int length) {
 
@@ -235,13 +262,9 @@ class FileSender {
 				length, getHostAddress(), getHostPortNum());
 		try {
 
+			getPacer().acquire(length);
 			getSocket().send(packet);
-			Thread.sleep(10);
 
-		} catch (InterruptedException e) {
-			if (DEBUG_MODE) {
-				e.printStackTrace();
-			}
 		} catch (Exception e) {
 			if (DEBUG_MODE) {
 				e.printStackTrace();
@@ -282,26 +305,54 @@ class FileSender {
 	 * 7: Host name / IP Address cannot be resolved
 	 * 8: Failed to send packet
 	 * 9: Program not executed with correct arguments
+	 * 10: Host stopped answering in bulk mode
 	 * </pre>
 	 * 
 	 * @param args
 	 *            Array of Strings. Should contain filename of file to be sent,
 	 *            recipient host name, host port number and intended filename to
-	 *            be saved on host.
+	 *            be saved on host, optionally followed by --rate and the
+	 *            rate to send at in bytes per second, optionally followed by
+	 *            K, M or G for 10^3, 10^6 or 10^9 bytes, such as 200M, and by
+	 *            --bulk to send in bulk mode.
 	 */
 	public static void main(String[] args) {
 
-		// check if the number of command line argument is 4
-		if (args.length != 4) {
+		// check if the number of command line argument is 4, followed by
+		// options
+		long rate = DEFAULT_RATE;
+		boolean bulk = false;
+		try {
+			if (args.length < 4) {
+				throw new IllegalArgumentException();
+			}
+			for (int i = 4; i < args.length; i++) {
+				if (args[i].equals("--rate") && i + 1 < args.length) {
+					rate = TokenBucket.parseRate(args[++i]);
+				} else if (args[i].equals("--bulk")) {
+					bulk = true;
+				} else {
+					throw new IllegalArgumentException();
+				}
+			}
+		} catch (IllegalArgumentException e) {
 			System.out.println("Usage: java FileSender <path/filename> "
-					+ "<rcvHostName> <rcvPort> <rcvFileName>");
+					+ "<rcvHostName> <rcvPort> <rcvFileName> [--rate <rate>] "
+					+ "[--bulk]\n"
+					+ "  rate in bytes/s, K/M/G = 10^3/10^6/10^9, "
+					+ "e.g. 200M for 200 MB/s");
 			System.exit(9);
 		}
 
 		try {
 
-			FileSender fs = new FileSender(args[0], args[1], args[2], args[3]);
-			fs.run();
+			FileSender fs = new FileSender(args[0], args[1], args[2], args[3],
+					rate);
+			if (bulk) {
+				fs.runBulk();
+			} else {
+				fs.run();
+			}
 
 		} catch (NullPointerException e) {
 			if (DEBUG_MODE) {
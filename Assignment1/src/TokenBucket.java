@@ -0,0 +1,178 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * This class paces the packets of the FileSender at a target rate, so that
+ * they are spread evenly over time instead of being sent in bursts.
+ *
+ * The bucket fills with tokens at the target rate, one token per byte, up to
+ * a capacity of one packet. Sending a packet takes as many tokens as it has
+ * bytes, and waits for the bucket to refill when it runs short. Time is kept
+ * in nanoseconds, so that rates far above one packet per millisecond are
+ * paced as evenly as slower ones.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class TokenBucket {
+
+	/* Static Variables */
+	private static final long	NANOS_PER_SEC	= TimeUnit.SECONDS.toNanos(1);
+	// Waits shorter than this are spun rather than parked in nsec, as the
+	// thread may oversleep by about as much when parked
+	private static final long	SPIN_THRESHOLD	= TimeUnit.MICROSECONDS
+														.toNanos(100);
+
+	/* Data Attributes */
+	// Target rate in bytes per second
+	private long				_rate;
+	// Largest number of tokens the bucket can hold in bytes
+	private long				_capacity;
+	// Tokens in the bucket in bytes, negative while paying off a packet
+	private double				_tokens;
+	// Time the bucket was last refilled in nsec
+	private long				_lastRefill;
+
+	/* Accessors and Modifiers */
+	public long getRate() {
+		return _rate;
+	}
+
+	public void setRate(long rate) {
+		_rate = rate;
+	}
+
+	public long getCapacity() {
+		return _capacity;
+	}
+
+	public void setCapacity(long capacity) {
+		_capacity = capacity;
+	}
+
+	public double getTokens() {
+		return _tokens;
+	}
+
+	public void setTokens(double tokens) {
+		_tokens = tokens;
+	}
+
+	public long getLastRefill() {
+		return _lastRefill;
+	}
+
+	public void setLastRefill(long lastRefill) {
+		_lastRefill = lastRefill;
+	}
+
+	/**
+	 * Constructor. The bucket starts full.
+	 *
+	 * @param rate
+	 *            target rate in bytes per second
+	 * @param capacity
+	 *            largest burst allowed in bytes
+	 */
+	public TokenBucket(long rate, long capacity) {
+		assert (rate > 0 && capacity > 0);
+		setRate(rate);
+		setCapacity(capacity);
+		setTokens(capacity);
+		setLastRefill(System.nanoTime());
+	}
+
+	/**
+	 * Takes tokens for a packet from the bucket, waiting until the bucket has
+	 * refilled enough to keep the target rate. A packet larger than the
+	 * tokens left is let through once the bucket has refilled to empty, and
+	 * the next packet waits for the difference.
+	 *
+	 * @param length
+	 *            length of the packet about to be sent in bytes
+	 */
+	public void acquire(int length) {
+		refill();
+		if (getTokens() < 0) {
+			waitNanos((long) (-getTokens() * NANOS_PER_SEC / getRate()));
+			refill();
+		}
+		_tokens -= length;
+	}
+
+	/**
+	 * Parses a rate given as a number of bytes per second, optionally
+	 * followed by K, M or G for thousands, millions or billions of bytes
+	 * (decimal, 10^3/10^6/10^9, not 2^10/2^20/2^30). "200M" is thus 200 MB/s,
+	 * or 1.6 Gbit/s.
+	 *
+	 * @param rate
+	 *            String containing the rate, such as "200M"
+	 * @return rate in bytes per second
+	 * @throws IllegalArgumentException
+	 *             if the rate is not a positive number of bytes per second
+	 */
+	public static long parseRate(String rate) {
+		long multiplier = 1;
+		String digits = rate;
+		switch (rate.isEmpty() ? ' ' : Character.toUpperCase(rate.charAt(rate
+				.length() - 1))) {
+		case 'K':
+			multiplier = 1000L;
+			break;
+		case 'M':
+			multiplier = 1000L * 1000;
+			break;
+		case 'G':
+			multiplier = 1000L * 1000 * 1000;
+			break;
+		default:
+			break;
+		}
+		if (multiplier != 1) {
+			digits = rate.substring(0, rate.length() - 1);
+		}
+
+		try {
+			long result = Long.parseLong(digits);
+			if (result <= 0 || result > Long.MAX_VALUE / multiplier) {
+				throw new IllegalArgumentException("Invalid rate: " + rate);
+			}
+			return result * multiplier;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid rate: " + rate);
+		}
+	}
+
+	/**
+	 * Adds the tokens earned since the last refill, up to the capacity of
+	 * the bucket
+	 */
+	private void refill() {
+		long now = System.nanoTime();
+		double earned = (double) (now - getLastRefill()) * getRate()
+				/ NANOS_PER_SEC;
+		setTokens(Math.min(getTokens() + earned, getCapacity()));
+		setLastRefill(now);
+	}
+
+	/**
+	 * Waits for the given time. Long waits park the thread until shortly
+	 * before the deadline, and the rest is spun out for accuracy.
+	 *
+	 * @param nanos
+	 *            time to wait in nsec
+	 */
+	private static void waitNanos(long nanos) {
+		long deadline = System.nanoTime() + nanos;
+		long remaining = nanos;
+		while (remaining > SPIN_THRESHOLD) {
+			LockSupport.parkNanos(remaining - SPIN_THRESHOLD);
+			remaining = deadline - System.nanoTime();
+		}
+		while (deadline - System.nanoTime() > 0) {
+			Thread.yield();
+		}
+	}
+}
@@ -0,0 +1,23 @@
+import java.nio.channels.DatagramChannel;
+
+/**
+ *
+ * Receives the events of a channel registered with an EventLoop. Handlers are
+ * only ever called on the thread of the loop, so they need no locking of
+ * their own.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public interface ChannelHandler {
+
+	/**
+	 * Called when datagrams are waiting to be received on the channel. The
+	 * handler should receive until the channel has no datagram left, as it is
+	 * not called again for datagrams that were already waiting.
+	 *
+	 * @param channel
+	 *            channel that has datagrams waiting
+	 */
+	void channelReadable(DatagramChannel channel);
+}
@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ *
+ * The checksum algorithms a transfer can use to detect corrupted segments.
+ * The algorithm is chosen by the sender for the whole transfer and its id is
+ * carried in the flags of every segment, so that the receiver checks and
+ * answers each segment with the same algorithm.
+ *
+ * CRC32C is computed by java.util.zip.CRC32C where the JVM provides it (Java 9
+ * onwards), which uses the CRC32C instructions of the processor. Older JVMs
+ * fall back to a table driven implementation.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public enum ChecksumType {
+
+	// Reversed polynomials, low order term in the top bit
+	CRC32(0, 0xEDB88320), CRC32C(1, 0x82F63B78);
+
+	/* Constants */
+	private static final String	JDK_CRC32C	= "java.util.zip.CRC32C";
+	// Constructor of JDK_CRC32C, or null if the JVM does not provide it
+	private static final Constructor<? extends Checksum>	JDK_CRC32C_CONSTRUCTOR	= findJdkCrc32c();
+	// Size of the buffer files are read through in bytes
+	private static final int	READ_SIZE	= 1 << 16;
+
+	/* Member Variables */
+	private final int			_id;
+	private final int			_polynomial;
+
+	/* Constructors */
+	private ChecksumType(int id, int polynomial) {
+		_id = id;
+		_polynomial = polynomial;
+	}
+
+	/* Accessors */
+
+	public int getId() {
+		return _id;
+	}
+
+	public int getPolynomial() {
+		return _polynomial;
+	}
+
+	/* Public methods */
+
+	/**
+	 * Creates a new instance of the algorithm. Instances are not thread safe.
+	 *
+	 * @return a checksum that has not been updated yet
+	 */
+	public Checksum newChecksum() {
+		switch (this) {
+			case CRC32C:
+				if (JDK_CRC32C_CONSTRUCTOR != null) {
+					try {
+						return JDK_CRC32C_CONSTRUCTOR.newInstance();
+					} catch (ReflectiveOperationException e) {
+						// Falls back to the table driven implementation
+					}
+				}
+				return new Crc32c();
+			default:
+				return new CRC32();
+		}
+	}
+
+	/**
+	 * Adds a range of a file to a checksum, reading it through a buffer of
+	 * READ_SIZE without moving the position of the channel
+	 *
+	 * @param checksum
+	 *            checksum to update
+	 * @param channel
+	 *            channel of the file to read
+	 * @param position
+	 *            offset of the first byte of the range in the file
+	 * @param length
+	 *            length of the range in bytes
+	 * @return false if the file ends before the range does
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static boolean update(Checksum checksum, FileChannel channel,
+			long position, long length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+		long end = position + length;
+		while (position < end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(READ_SIZE, end - position));
+			int lengthRead = channel.read(buffer, position);
+			if (lengthRead <= 0) {
+				return false;
+			}
+			checksum.update(buffer.array(), 0, lengthRead);
+			position += lengthRead;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the algorithm with the given id
+	 *
+	 * @param id
+	 *            id carried in the flags of a segment
+	 * @return the algorithm, or null if there is none with that id
+	 */
+	public static ChecksumType fromId(int id) {
+		for (ChecksumType type : values()) {
+			if (type.getId() == id) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the algorithm with the given name, ignoring case
+	 *
+	 * @param name
+	 *            name of the algorithm, such as "crc32c"
+	 * @return the algorithm
+	 * @throws IllegalArgumentException
+	 *             if there is no algorithm with that name
+	 */
+	public static ChecksumType parse(String name) {
+		return valueOf(name.toUpperCase());
+	}
+
+	/* Private methods */
+
+	/**
+	 * Looks up the constructor of the CRC32C implementation of the JVM, once
+	 * for all instances
+	 *
+	 * @return the constructor, or null if the JVM does not provide one
+	 */
+	private static Constructor<? extends Checksum> findJdkCrc32c() {
+		try {
+			return Class.forName(JDK_CRC32C).asSubclass(Checksum.class)
+					.getConstructor();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/**
+ *
+ * The codecs the payload of a data segment can be compressed with. The codec
+ * is chosen by the sender for the whole transfer, but each segment is only
+ * sent compressed if that makes it smaller, so its id is carried in the flags
+ * of every segment, NONE for a segment sent as it is.
+ *
+ * Ids up to 3 fit in the flags, leaving room for faster codecs than Deflate.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public enum CompressionType {
+
+	NONE(0), DEFLATE(1);
+
+	/* Member Variables */
+	private final int	_id;
+
+	/* Constructors */
+	private CompressionType(int id) {
+		_id = id;
+	}
+
+	/* Accessors */
+
+	public int getId() {
+		return _id;
+	}
+
+	/* Public methods */
+
+	/**
+	 * Finds the codec with the given id
+	 *
+	 * @param id
+	 *            id carried in the flags of a segment
+	 * @return the codec, or null if there is none with that id
+	 */
+	public static CompressionType fromId(int id) {
+		for (CompressionType type : values()) {
+			if (type.getId() == id) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the codec with the given name, ignoring case
+	 *
+	 * @param name
+	 *            name of the codec, such as "deflate"
+	 * @return the codec
+	 * @throws IllegalArgumentException
+	 *             if there is no codec with that name
+	 */
+	public static CompressionType parse(String name) {
+		return valueOf(name.toUpperCase());
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ *
+ * Decides how many segments a sender may have in flight, based on the ACKs
+ * and losses it observes. The sender never has more segments in flight than
+ * the smaller of this window and its own window.
+ *
+ * Losses caused by corruption are reported separately from the losses seen
+ * by the sender, so that a controller need not back off for a link that is
+ * merely noisy. Delay based controllers are also given the one-way delay of
+ * the segments acknowledged.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public interface CongestionController {
+
+	/**
+	 * Gets the congestion window
+	 *
+	 * @return number of segments that may be in flight, at least 1
+	 */
+	int getWindow();
+
+	/**
+	 * Called when an ACK acknowledges segments for the first time
+	 *
+	 * @param ackedCount
+	 *            number of segments newly acknowledged
+	 */
+	void onAck(int ackedCount);
+
+	/**
+	 * Called with the one-way delay of a segment acknowledged for the first
+	 * time, if it was only transmitted once
+	 *
+	 * @param delay
+	 *            one-way delay in usec, relative to an unknown offset between
+	 *            the clocks of sender and receiver
+	 */
+	void onDelay(int delay);
+
+	/**
+	 * Called when a segment timed out and is about to be retransmitted
+	 *
+	 * @param sendTime
+	 *            time the segment was last sent in nsec, as given by nanoTime
+	 */
+	void onLoss(long sendTime);
+
+	/**
+	 * Called when the receiver reports having discarded corrupted segments
+	 * that it could not rebuild from parity
+	 *
+	 * @param corruptedCount
+	 *            number of corrupted segments reported since the last call
+	 */
+	void onCorruption(int corruptedCount);
+}
@@ -0,0 +1,45 @@
+/**
+ *
+ * The congestion control algorithms a sender can use.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public enum CongestionType {
+
+	NONE, RENO, LEDBAT;
+
+	/* Public methods */
+
+	/**
+	 * Creates a new controller running the algorithm
+	 *
+	 * @param maxWindow
+	 *            window of the sender in segments, which the congestion
+	 *            window never exceeds
+	 * @return a controller for a new transfer
+	 */
+	public CongestionController newController(int maxWindow) {
+		switch (this) {
+			case RENO:
+				return new RenoController(maxWindow);
+			case LEDBAT:
+				return new LedbatController(maxWindow);
+			default:
+				return new FixedWindowController(maxWindow);
+		}
+	}
+
+	/**
+	 * Finds the algorithm with the given name, ignoring case
+	 *
+	 * @param name
+	 *            name of the algorithm, such as "reno"
+	 * @return the algorithm
+	 * @throws IllegalArgumentException
+	 *             if there is no algorithm with that name
+	 */
+	public static CongestionType parse(String name) {
+		return valueOf(name.toUpperCase());
+	}
+}
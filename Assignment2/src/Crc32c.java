@@ -0,0 +1,85 @@
+import java.util.zip.Checksum;
+
+/**
+ *
+ * Table driven CRC32C (Castagnoli) for JVMs that do not provide
+ * java.util.zip.CRC32C. Four bytes are processed per step using four lookup
+ * tables (slicing-by-4).
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public class Crc32c implements Checksum {
+
+	/* Constants */
+	// Reversed Castagnoli polynomial
+	private static final int		POLYNOMIAL	= 0x82F63B78;
+	private static final int[][]	TABLES		= makeTables();
+
+	/* Member Variables */
+	private int						_crc;
+
+	/* Constructors */
+	public Crc32c() {
+		reset();
+	}
+
+	/* Public methods */
+
+	@Override
+	public void update(int b) {
+		_crc = (_crc >>> 8) ^ TABLES[0][(_crc ^ b) & 0xFF];
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		int[] t0 = TABLES[0];
+		int[] t1 = TABLES[1];
+		int[] t2 = TABLES[2];
+		int[] t3 = TABLES[3];
+		int crc = _crc;
+		int end = off + len;
+
+		while (end - off >= 4) {
+			crc ^= (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8
+					| (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+			crc = t3[crc & 0xFF] ^ t2[(crc >>> 8) & 0xFF]
+					^ t1[(crc >>> 16) & 0xFF] ^ t0[crc >>> 24];
+			off += 4;
+		}
+		while (off < end) {
+			crc = (crc >>> 8) ^ t0[(crc ^ b[off++]) & 0xFF];
+		}
+		_crc = crc;
+	}
+
+	@Override
+	public long getValue() {
+		return ~_crc & 0xFFFFFFFFL;
+	}
+
+	@Override
+	public void reset() {
+		_crc = 0xFFFFFFFF;
+	}
+
+	/* Private methods */
+
+	private static int[][] makeTables() {
+		int[][] tables = new int[4][256];
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = (crc >>> 1) ^ ((crc & 1) != 0 ? POLYNOMIAL : 0);
+			}
+			tables[0][i] = crc;
+		}
+		for (int i = 0; i < 256; i++) {
+			for (int t = 1; t < 4; t++) {
+				int prev = tables[t - 1][i];
+				tables[t][i] = (prev >>> 8) ^ tables[0][prev & 0xFF];
+			}
+		}
+		return tables;
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ *
+ * Combines the checksums of two consecutive runs of bytes into the checksum
+ * of both, without the bytes themselves, for the CRCs of ChecksumType. The
+ * CRC of the first run is carried past as many zero bytes as the second run
+ * holds, which is a linear map over GF(2), and added to the CRC of the
+ * second run; the pre and post conditioning of the CRCs cancel out.
+ *
+ * The map for a given length is a 32x32 bit matrix, computed once by
+ * repeated squaring, so that combining with a run of that length costs one
+ * matrix product of at most 32 XORs.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class CrcCombiner {
+
+	/* Constants */
+	private static final int	BITS	= 32;
+
+	/* Member Variables */
+	// Image of each bit of a CRC carried past the run, by bit
+	private int[]				_operator;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param type
+	 *            algorithm of the checksums combined
+	 * @param length
+	 *            length in bytes of the second of the runs combined
+	 */
+	public CrcCombiner(ChecksumType type, long length) {
+		setOperator(zeroOperator(type.getPolynomial(), length));
+	}
+
+	/* Accessors and Modifiers */
+
+	public int[] getOperator() {
+		return _operator;
+	}
+
+	public void setOperator(int[] operator) {
+		_operator = operator;
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Combines the checksums of two consecutive runs of bytes, the second of
+	 * the length of the combiner
+	 *
+	 * @param first
+	 *            checksum of the first run
+	 * @param second
+	 *            checksum of the second run
+	 * @return checksum of the first run followed by the second
+	 */
+	public int combine(int first, int second) {
+		return times(getOperator(), first) ^ second;
+	}
+
+	/**
+	 * Combines the checksums of two consecutive runs of bytes
+	 *
+	 * @param type
+	 *            algorithm of the checksums
+	 * @param first
+	 *            checksum of the first run
+	 * @param second
+	 *            checksum of the second run
+	 * @param length
+	 *            length of the second run in bytes
+	 * @return checksum of the first run followed by the second
+	 */
+	public static int combine(ChecksumType type, int first, int second,
+			long length) {
+		return new CrcCombiner(type, length).combine(first, second);
+	}
+
+	/* Private Methods */
+
+	/**
+	 * Computes the map carrying a CRC past a run of zero bytes
+	 *
+	 * @param polynomial
+	 *            reversed polynomial of the CRC
+	 * @param length
+	 *            number of zero bytes
+	 * @return the map, by bit
+	 */
+	private static int[] zeroOperator(int polynomial, long length) {
+		// Map for a single zero bit: shift right, folding in the polynomial
+		int[] power = new int[BITS];
+		power[0] = polynomial;
+		for (int i = 1; i < BITS; i++) {
+			power[i] = 1 << (i - 1);
+		}
+		// Map for a single zero byte
+		for (int i = 0; i < 3; i++) {
+			power = multiply(power, power);
+		}
+
+		int[] result = new int[BITS];
+		for (int i = 0; i < BITS; i++) {
+			result[i] = 1 << i;
+		}
+		while (length != 0) {
+			if ((length & 1) != 0) {
+				result = multiply(power, result);
+			}
+			length >>>= 1;
+			if (length != 0) {
+				power = multiply(power, power);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Applies a map to a vector of bits
+	 */
+	private static int times(int[] operator, int vector) {
+		int result = 0;
+		for (int i = 0; vector != 0; i++, vector >>>= 1) {
+			if ((vector & 1) != 0) {
+				result ^= operator[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Composes two maps, applying second then first
+	 */
+	private static int[] multiply(int[] first, int[] second) {
+		int[] result = new int[BITS];
+		for (int i = 0; i < BITS; i++) {
+			result[i] = times(first, second[i]);
+		}
+		return result;
+	}
+}
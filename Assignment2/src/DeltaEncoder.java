@@ -0,0 +1,583 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.Checksum;
+
+/**
+ *
+ * Encodes the contents of a stream as a delta against the basis held by the
+ * receiver. The signatures of the blocks of the basis are collected from the
+ * ACKs of the signature requests of the stream, a chunk of MAX_SIGNATURES
+ * blocks per request, and indexed by their weak checksum. The stripe is then
+ * scanned with a rolling checksum: wherever the window matches a block on
+ * both its weak and its strong checksum, the block is copied from the basis,
+ * and the bytes between matches are sent as literals.
+ *
+ * A run of consecutive blocks is sent as a single copy, and the block
+ * following the last one copied is tried first, so that an unchanged region
+ * of the file costs a few bytes whatever its length.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class DeltaEncoder {
+
+	/* Constants */
+	// Smallest number of bytes of the file held in memory while scanning
+	private static final int	MIN_WINDOW_SIZE	= 1 << 20;
+
+	/* Member Variables */
+	private int					_blockSize;
+	private int					_blockCount;
+	// Weak and strong checksum of each block of the basis
+	private int[]				_weakSignatures;
+	private int[]				_strongSignatures;
+	// Chunks of signatures received, and next chunk to request in this pass
+	private BitSet				_receivedChunks;
+	private int					_nextChunk;
+	// Blocks by weak checksum, chained through _hashNext
+	private int[]				_hashHeads;
+	private int[]				_hashNext;
+	private Checksum			_strongChecksum;
+	private RollingChecksum		_rollingChecksum;
+	private FileChannel			_fileChannel;
+	// Bytes of the file being scanned, from _windowPosition in the file
+	private byte[]				_window;
+	private long				_windowPosition;
+	private int					_windowEnd;
+	// Bytes of the stream sent as literals and copied from the basis
+	private long				_literalBytes;
+	private long				_copiedBytes;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param basisLength
+	 *            length of the basis offered by the receiver
+	 * @param blockSize
+	 *            size of the blocks the receiver cuts the basis into
+	 * @param checksumType
+	 *            algorithm of the strong checksum of the blocks
+	 */
+	public DeltaEncoder(long basisLength, int blockSize,
+			ChecksumType checksumType) {
+		setBlockSize(blockSize);
+		setBlockCount((int) Math.min(basisLength / blockSize,
+				Integer.MAX_VALUE));
+		setWeakSignatures(new int[getBlockCount()]);
+		setStrongSignatures(new int[getBlockCount()]);
+		setReceivedChunks(new BitSet(getChunkCount()));
+		setNextChunk(0);
+		setStrongChecksum(checksumType.newChecksum());
+		setRollingChecksum(new RollingChecksum());
+		setWindow(new byte[Math.max(MIN_WINDOW_SIZE,
+				2 * (blockSize + UDPSegment.MAX_SEGMENT_SIZE))]);
+	}
+
+	/* Accessors and Modifiers */
+
+	public int getBlockSize() {
+		return _blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		_blockSize = blockSize;
+	}
+
+	public int getBlockCount() {
+		return _blockCount;
+	}
+
+	public void setBlockCount(int blockCount) {
+		_blockCount = blockCount;
+	}
+
+	public int getChunkCount() {
+		return (getBlockCount() + UDPSegment.MAX_SIGNATURES - 1)
+				/ UDPSegment.MAX_SIGNATURES;
+	}
+
+	public int[] getWeakSignatures() {
+		return _weakSignatures;
+	}
+
+	public void setWeakSignatures(int[] weakSignatures) {
+		_weakSignatures = weakSignatures;
+	}
+
+	public int[] getStrongSignatures() {
+		return _strongSignatures;
+	}
+
+	public void setStrongSignatures(int[] strongSignatures) {
+		_strongSignatures = strongSignatures;
+	}
+
+	public BitSet getReceivedChunks() {
+		return _receivedChunks;
+	}
+
+	public void setReceivedChunks(BitSet receivedChunks) {
+		_receivedChunks = receivedChunks;
+	}
+
+	public int getNextChunk() {
+		return _nextChunk;
+	}
+
+	public void setNextChunk(int nextChunk) {
+		_nextChunk = nextChunk;
+	}
+
+	public int[] getHashHeads() {
+		return _hashHeads;
+	}
+
+	public void setHashHeads(int[] hashHeads) {
+		_hashHeads = hashHeads;
+	}
+
+	public int[] getHashNext() {
+		return _hashNext;
+	}
+
+	public void setHashNext(int[] hashNext) {
+		_hashNext = hashNext;
+	}
+
+	public Checksum getStrongChecksum() {
+		return _strongChecksum;
+	}
+
+	public void setStrongChecksum(Checksum strongChecksum) {
+		_strongChecksum = strongChecksum;
+	}
+
+	public RollingChecksum getRollingChecksum() {
+		return _rollingChecksum;
+	}
+
+	public void setRollingChecksum(RollingChecksum rollingChecksum) {
+		_rollingChecksum = rollingChecksum;
+	}
+
+	public FileChannel getFileChannel() {
+		return _fileChannel;
+	}
+
+	public void setFileChannel(FileChannel fileChannel) {
+		_fileChannel = fileChannel;
+	}
+
+	public byte[] getWindow() {
+		return _window;
+	}
+
+	public void setWindow(byte[] window) {
+		_window = window;
+	}
+
+	public long getWindowPosition() {
+		return _windowPosition;
+	}
+
+	public void setWindowPosition(long windowPosition) {
+		_windowPosition = windowPosition;
+	}
+
+	public int getWindowEnd() {
+		return _windowEnd;
+	}
+
+	public void setWindowEnd(int windowEnd) {
+		_windowEnd = windowEnd;
+	}
+
+	public long getLiteralBytes() {
+		return _literalBytes;
+	}
+
+	public void setLiteralBytes(long literalBytes) {
+		_literalBytes = literalBytes;
+	}
+
+	public long getCopiedBytes() {
+		return _copiedBytes;
+	}
+
+	public void setCopiedBytes(long copiedBytes) {
+		_copiedBytes = copiedBytes;
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Checks if the basis has any block to copy
+	 *
+	 * @return true if the basis holds at least one whole block
+	 */
+	public boolean hasBlocks() {
+		return getBlockCount() > 0;
+	}
+
+	/**
+	 * Checks if a chunk of signatures is still to be requested in this pass
+	 *
+	 * @return true if nextRequest has a chunk to return
+	 */
+	public boolean hasRequest() {
+		setNextChunk(getReceivedChunks().nextClearBit(getNextChunk()));
+		return getNextChunk() < getChunkCount();
+	}
+
+	/**
+	 * Gets the next chunk of signatures to request in this pass
+	 *
+	 * @precondition hasRequest must have returned true
+	 * @return index of the first block of the chunk
+	 */
+	public int nextRequest() {
+		int chunk = getNextChunk();
+		setNextChunk(chunk + 1);
+		return chunk * UDPSegment.MAX_SIGNATURES;
+	}
+
+	/**
+	 * Starts a new pass over the chunks of signatures, requesting again those
+	 * whose ACK was lost
+	 */
+	public void newPass() {
+		setNextChunk(0);
+	}
+
+	/**
+	 * Checks if the signatures of every block have been received
+	 *
+	 * @return true if every chunk has been received
+	 */
+	public boolean hasAllSignatures() {
+		return getReceivedChunks().cardinality() == getChunkCount();
+	}
+
+	/**
+	 * Takes the signatures carried by the ACK of a signature request. Chunks
+	 * already received, and chunks not holding the signatures of every block
+	 * they should, are ignored.
+	 *
+	 * @param ACK
+	 *            valid ACK flagged as carrying signatures
+	 */
+	public void putSignatures(UDPSegment ACK) {
+		int firstBlock = ACK.getFirstBlock();
+		if (firstBlock < 0 || firstBlock >= getBlockCount()
+				|| firstBlock % UDPSegment.MAX_SIGNATURES != 0) {
+			return;
+		}
+		int chunk = firstBlock / UDPSegment.MAX_SIGNATURES;
+		int count = Math.min(UDPSegment.MAX_SIGNATURES, getBlockCount()
+				- firstBlock);
+		if (getReceivedChunks().get(chunk) || ACK.getSignatureCount() != count) {
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			getWeakSignatures()[firstBlock + i] = ACK.getWeakSignature(i);
+			getStrongSignatures()[firstBlock + i] = ACK.getStrongSignature(i);
+		}
+		getReceivedChunks().set(chunk);
+	}
+
+	/**
+	 * Indexes the blocks of the basis by their weak checksum, once all of
+	 * their signatures have been received. Blocks sharing a weak checksum are
+	 * chained in increasing order.
+	 */
+	public void index() {
+		int[] heads = new int[Integer.highestOneBit(Math.max(
+				getBlockCount(), 1)) * 2];
+		int[] next = new int[getBlockCount()];
+		Arrays.fill(heads, -1);
+		for (int block = getBlockCount() - 1; block >= 0; block--) {
+			int bucket = bucketOf(getWeakSignatures()[block], heads.length);
+			next[block] = heads[bucket];
+			heads[bucket] = block;
+		}
+		setHashHeads(heads);
+		setHashNext(next);
+	}
+
+	/**
+	 * Opens the file to be scanned
+	 *
+	 * @param file
+	 *            file being sent
+	 * @throws IOException
+	 *             if the file could not be opened
+	 */
+	public void open(File file) throws IOException {
+		setFileChannel(FileChannel.open(file.toPath(),
+				StandardOpenOption.READ));
+		setWindowPosition(0);
+		setWindowEnd(0);
+	}
+
+	/**
+	 * Closes the file being scanned
+	 *
+	 * @throws IOException
+	 *             if the file could not be closed
+	 */
+	public void close() throws IOException {
+		if (getFileChannel() != null) {
+			getFileChannel().close();
+			setFileChannel(null);
+		}
+	}
+
+	/**
+	 * Fills a delta segment with the operations that rebuild the file from a
+	 * position on, until the segment is full or the end is reached. The bytes
+	 * covered are added to the checksum of the stream in the order of the
+	 * file.
+	 *
+	 * @precondition index must have been called and the file opened
+	 * @param seg
+	 *            segment started with startDelta at position
+	 * @param position
+	 *            position in the file of the first byte to cover
+	 * @param end
+	 *            position in the file past the last byte of the stream
+	 * @param capacity
+	 *            largest data length of the segment
+	 * @param digest
+	 *            checksum of the stream
+	 * @return number of bytes of the file covered by the segment
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	public int encode(UDPSegment seg, long position, long end, int capacity,
+			Checksum digest) throws IOException {
+		int blockSize = getBlockSize();
+		RollingChecksum rolling = getRollingChecksum();
+		long literalStart = position;
+		long scan = position;
+		// Run of blocks matched but not yet put in the segment
+		int copyFirst = -1;
+		int copyCount = 0;
+		boolean rolled = false;
+
+		while (scan < end) {
+			int literal = (int) (scan - literalStart);
+			int used = seg.getDataLen()
+					+ (copyCount > 0 ? UDPSegment.copySize() : 0);
+			int block = -1;
+			if (end - scan >= blockSize) {
+				fill(literalStart, scan, blockSize);
+				int start = (int) (scan - getWindowPosition());
+				if (rolled) {
+					rolling.roll(getWindow()[start - 1],
+							getWindow()[start + blockSize - 1]);
+				} else {
+					rolling.reset(getWindow(), start, blockSize);
+				}
+				block = find(rolling.getValue(), start, copyCount > 0 ? copyFirst
+						+ copyCount : -1);
+			} else {
+				fill(literalStart, scan, 1);
+			}
+
+			if (block >= 0) {
+				if (literal == 0 && copyCount > 0
+						&& block == copyFirst + copyCount) {
+					copyCount++;
+				} else {
+					int needed = UDPSegment.copySize()
+							+ (literal > 0 ? UDPSegment.literalSize(literal) : 0);
+					if (used + needed > capacity) {
+						break;
+					}
+					flushCopy(seg, copyFirst, copyCount);
+					flushLiteral(seg, literalStart, literal, digest);
+					copyFirst = block;
+					copyCount = 1;
+				}
+				digest.update(getWindow(), (int) (scan - getWindowPosition()),
+						blockSize);
+				setCopiedBytes(getCopiedBytes() + blockSize);
+				scan += blockSize;
+				literalStart = scan;
+				rolled = false;
+			} else {
+				if (used + UDPSegment.literalSize(literal + 1) > capacity) {
+					break;
+				}
+				scan++;
+				rolled = true;
+			}
+		}
+
+		flushCopy(seg, copyFirst, copyCount);
+		flushLiteral(seg, literalStart, (int) (scan - literalStart), digest);
+		return (int) (scan - position);
+	}
+
+	/* Private Methods */
+
+	/**
+	 * Gets the bucket of the index holding a weak checksum
+	 *
+	 * @param weak
+	 *            weak checksum
+	 * @param bucketCount
+	 *            number of buckets, a power of 2
+	 * @return index of the bucket
+	 */
+	private static int bucketOf(int weak, int bucketCount) {
+		return (weak ^ (weak >>> 16)) & (bucketCount - 1);
+	}
+
+	/**
+	 * Looks for a block of the basis matching the window on both checksums.
+	 * The strong checksum of the window is only computed once a weak
+	 * checksum matches.
+	 *
+	 * @param weak
+	 *            weak checksum of the window
+	 * @param start
+	 *            offset of the window in the buffer
+	 * @param expected
+	 *            block tried first, -1 if none
+	 * @return index of the matching block, -1 if none matches
+	 */
+	private int find(int weak, int start, int expected) {
+		int[] weakSignatures = getWeakSignatures();
+		boolean strongComputed = false;
+		int strong = 0;
+
+		if (expected >= 0 && expected < getBlockCount()
+				&& weakSignatures[expected] == weak) {
+			strong = strongOf(start);
+			strongComputed = true;
+			if (getStrongSignatures()[expected] == strong) {
+				return expected;
+			}
+		}
+		int block = getHashHeads()[bucketOf(weak, getHashHeads().length)];
+		for (; block >= 0; block = getHashNext()[block]) {
+			if (weakSignatures[block] != weak) {
+				continue;
+			}
+			if (!strongComputed) {
+				strong = strongOf(start);
+				strongComputed = true;
+			}
+			if (getStrongSignatures()[block] == strong) {
+				return block;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Computes the strong checksum of the window
+	 *
+	 * @param start
+	 *            offset of the window in the buffer
+	 * @return the checksum
+	 */
+	private int strongOf(int start) {
+		getStrongChecksum().reset();
+		getStrongChecksum().update(getWindow(), start, getBlockSize());
+		return (int) getStrongChecksum().getValue();
+	}
+
+	/**
+	 * Makes sure the buffer holds the file from the pending literal, or the
+	 * byte before the scan position for the rolling checksum, to length bytes
+	 * past the scan position. Bytes before that are dropped to make room.
+	 *
+	 * @param literalStart
+	 *            position of the first byte of the pending literal
+	 * @param scan
+	 *            scan position
+	 * @param length
+	 *            number of bytes needed from the scan position
+	 * @throws IOException
+	 *             if the file could not be read or ends early
+	 */
+	private void fill(long literalStart, long scan, int length)
+			throws IOException {
+		long windowEnd = getWindowPosition() + getWindowEnd();
+		long keep = Math.max(Math.min(literalStart, scan - 1), 0);
+		if (keep >= getWindowPosition() && scan + length <= windowEnd) {
+			return;
+		}
+		if (keep < getWindowPosition() || keep > windowEnd) {
+			// Nothing held is of use
+			setWindowPosition(keep);
+			setWindowEnd(0);
+		} else {
+			int dropped = (int) (keep - getWindowPosition());
+			System.arraycopy(getWindow(), dropped, getWindow(), 0,
+					getWindowEnd() - dropped);
+			setWindowPosition(keep);
+			setWindowEnd(getWindowEnd() - dropped);
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(getWindow());
+		buffer.position(getWindowEnd());
+		while (getWindowPosition() + buffer.position() < scan + length
+				&& buffer.hasRemaining()) {
+			if (getFileChannel().read(buffer,
+					getWindowPosition() + buffer.position()) < 0) {
+				throw new IOException("File ends before position "
+						+ (scan + length));
+			}
+		}
+		setWindowEnd(buffer.position());
+	}
+
+	/**
+	 * Puts a run of matched blocks in a segment
+	 *
+	 * @param seg
+	 *            delta segment being filled
+	 * @param firstBlock
+	 *            first block of the run
+	 * @param count
+	 *            number of blocks, none if 0
+	 */
+	private void flushCopy(UDPSegment seg, int firstBlock, int count) {
+		if (count > 0) {
+			seg.putCopy(firstBlock, count);
+		}
+	}
+
+	/**
+	 * Puts the bytes between matches in a segment as a literal and adds them
+	 * to the checksum of the stream
+	 *
+	 * @param seg
+	 *            delta segment being filled
+	 * @param start
+	 *            position of the first byte
+	 * @param length
+	 *            number of bytes, none if 0
+	 * @param digest
+	 *            checksum of the stream
+	 */
+	private void flushLiteral(UDPSegment seg, long start, int length,
+			Checksum digest) {
+		if (length > 0) {
+			int offset = (int) (start - getWindowPosition());
+			seg.putLiteral(getWindow(), offset, length);
+			digest.update(getWindow(), offset, length);
+			setLiteralBytes(getLiteralBytes() + length);
+		}
+	}
+}
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Runs the transfers registered with it on a single thread. The loop waits on
+ * a Selector for datagrams to arrive on any of the registered channels, hands
+ * them to the ChannelHandler of the channel, and advances a TimingWheel in
+ * between so that retransmission and other timers fire on the same thread.
+ * Datagrams are also sent from that thread, by the handlers and the timers,
+ * so a channel is never used by two threads at once.
+ *
+ * Channels are non-blocking. A datagram that does not fit in the send buffer
+ * of the socket is dropped, in the same way as one lost by the network, and is
+ * recovered by the retransmission timer of its segment.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public class EventLoop {
+
+	/* Constants */
+	private static final boolean	DEBUG_MODE	= false;
+
+	/* Member Variables */
+	private Selector				_selector;
+	private TimingWheel				_wheel;
+	private int						_registeredCount;
+	private boolean					_stopped;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @throws IOException
+	 *             if the selector could not be opened
+	 */
+	public EventLoop() throws IOException {
+		setSelector(Selector.open());
+		setWheel(new TimingWheel());
+		setRegisteredCount(0);
+		setStopped(false);
+	}
+
+	/* Accessors and Modifiers */
+
+	public Selector getSelector() {
+		return _selector;
+	}
+
+	public void setSelector(Selector selector) {
+		_selector = selector;
+	}
+
+	public TimingWheel getWheel() {
+		return _wheel;
+	}
+
+	public void setWheel(TimingWheel wheel) {
+		_wheel = wheel;
+	}
+
+	public int getRegisteredCount() {
+		return _registeredCount;
+	}
+
+	public void setRegisteredCount(int registeredCount) {
+		_registeredCount = registeredCount;
+	}
+
+	public boolean isStopped() {
+		return _stopped;
+	}
+
+	public void setStopped(boolean stopped) {
+		_stopped = stopped;
+	}
+
+	/* Public methods */
+
+	/**
+	 * Makes a channel non-blocking and starts delivering its datagrams to a
+	 * handler
+	 *
+	 * @param channel
+	 *            channel to watch
+	 * @param handler
+	 *            handler to call when datagrams arrive on the channel
+	 * @throws IOException
+	 *             if the channel could not be registered
+	 */
+	public void register(DatagramChannel channel, ChannelHandler handler)
+			throws IOException {
+		channel.configureBlocking(false);
+		channel.register(getSelector(), SelectionKey.OP_READ, handler);
+		_registeredCount++;
+	}
+
+	/**
+	 * Stops delivering the datagrams of a channel. The loop returns once no
+	 * channel is left.
+	 *
+	 * @param channel
+	 *            channel registered with this loop
+	 */
+	public void deregister(DatagramChannel channel) {
+		SelectionKey key = channel.keyFor(getSelector());
+		if (key != null && key.isValid()) {
+			key.cancel();
+			_registeredCount--;
+		}
+	}
+
+	/**
+	 * Makes the loop return after the current round of events
+	 */
+	public void stop() {
+		setStopped(true);
+		getSelector().wakeup();
+	}
+
+	/**
+	 * Runs the loop on the calling thread until no channel is registered or
+	 * stop() has been called
+	 *
+	 * @throws IOException
+	 *             if the selector failed
+	 */
+	public void run() throws IOException {
+		while (getRegisteredCount() > 0 && !isStopped()) {
+			long wait = getWheel().advance(System.nanoTime());
+			if (getRegisteredCount() == 0 || isStopped()) {
+				break;
+			}
+			if (wait < 0) {
+				getSelector().select();
+			} else {
+				getSelector().select(Math.max(1,
+						TimeUnit.NANOSECONDS.toMillis(wait)));
+			}
+
+			// Timers set by the handlers count from the current time
+			getWheel().advance(System.nanoTime());
+			dispatch();
+		}
+	}
+
+	/**
+	 * Closes the selector. Channels are closed by their owners.
+	 */
+	public void close() {
+		try {
+			getSelector().close();
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/* Private methods */
+
+	/**
+	 * Calls the handler of every channel that has datagrams waiting. A
+	 * handler that throws is logged as an error.
+	 */
+	private void dispatch() {
+		Iterator<SelectionKey> keys = getSelector().selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			if (!key.isValid() || !key.isReadable()) {
+				continue;
+			}
+			try {
+				((ChannelHandler) key.attachment())
+						.channelReadable((DatagramChannel) key.channel());
+			} catch (RuntimeException e) {
+				// Other channels are still served, but the failure must not
+				// go unseen
+				Log.log(LogLevel.ERROR, "Channel handler failed", e);
+			}
+		}
+	}
+}
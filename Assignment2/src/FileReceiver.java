@@ -1,42 +1,94 @@
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
 
 /**
  * 
- * This class will receive a file from the sender and saves it in the same
- * director under the name specified by the sender.
+ * This class will receive files from senders and saves them in the root
+ * directory of the receiver under the names specified by the senders.
  * 
- * @input The class will be invoked with the port number to listen to.
+ * @input The class will be invoked with the port number to listen to,
+ *        optionally followed by the parameters of the transfer.
  * 
  * @assumption All inputs are correct. Filename from sender will always be under
  *             1000 bytes. Underlying transmission channel is perfect and all
  *             data will be received in good order.
  * 
+ *             Datagrams are handed to a ReceiverSession by the address they
+ *             come from, so that several senders can push files to the same
+ *             port at once. A session is opened by the first segment of its
+ *             first stream, up to the configured number of sessions at a
+ *             time; first segments beyond that are dropped, to be
+ *             retransmitted by their sender once a session has closed.
+ * 
+ *             Every stream is written straight to its own file, including
+ *             segments that arrive ahead of a missing segment, up to the
+ *             configured reorder memory ahead of the gap. Names holding '/'
+ *             are saved in the directories they name, which are created as
+ *             needed. Names are taken relative to the root, the working
+ *             directory unless another is configured, and a stream
+ *             announcing an absolute name or one leading out of the root
+ *             is dropped, so that a sender cannot write anywhere else. A file split into stripes is written by several
+ *             streams at once, each at its own offset, and is checked as a
+ *             whole once all of its stripes have arrived, from checksums
+ *             taken as the stripes are written (see ReceivedFile). A stream
+ *             announcing a file under the name of a file being written by
+ *             another transfer is dropped until that transfer is over.
+ *             A file left incomplete by an earlier run is resumed from the
+ *             progress journaled next to it rather than sent again.
+ *             A sender may also ask for a delta transfer, in which case an
+ *             existing copy of the file is used as basis and only the parts
+ *             the copy lacks are sent. Segments whose payload the sender
+ *             compressed are decompressed before being written.
+ *             Segments lost or corrupted on a stream with forward error
+ *             correction are rebuilt from its parity segments when they
+ *             suffice, without waiting for a retransmission.
+ *             Each ACK carries the cumulative ACK and the ranges of segments
+ *             received beyond it (SACK blocks) for one stream, so that a
+ *             selective repeat sender only has to retransmit the segments
+ *             actually lost, and a lost ACK is covered by the next one.
+ * 
+ *             In single mode the receiver exits once every session has
+ *             closed and every file is complete; in daemon mode it keeps
+ *             serving senders until it is stopped. A failure to write a
+ *             file, a file failing its integrity check or a failure to send
+ *             an ACK ends the receiver in single mode, but in daemon mode
+ *             only aborts the session it occurred in.
+ * 
+ *             All sessions run on one EventLoop, which receives the segments
+ *             and runs the linger timers on a single thread.
+ * 
  * @author Victor Hazali
  * 
  */
-class FileReceiver {
+class FileReceiver implements ChannelHandler {
 
 	/* Static Variables */
-	private static final boolean	DEBUG_MODE	= false;
+	private static final boolean	DEBUG_MODE			= false;
 
 	/* Member Variables */
-	private DatagramSocket			_socket;
-	private String					_filename;
-	private File					_file;
+	private DatagramChannel			_channel;
+	private EventLoop				_eventLoop;
 	private UDPSegment				_rcvdSegment;
-	private int						_currSeqNum;
-	private FileOutputStream		_fos;
-	private BufferedOutputStream	_fileWriter;
-	private InetAddress				_clientIpAdd;
-	private int						_clientPortNum;
+	// Sessions in progress or lingering, by address of their sender
+	private HashMap<SocketAddress, ReceiverSession>	_sessions;
+	// Files still being written, by name
+	private HashMap<String, ReceivedFile>	_files;
+	// Timestamp of the received segment on the clock of the receiver
+	private int						_receiveTime;
+	private TransferConfig			_config;
+	private int[]					_sackBlocks;
+	private int[]					_signatures;
+	// Shared by every stream to decompress segments
+	private SegmentCompressor		_decompressor;
+	private SegmentPool				_segmentPool;
+	private UDPSegment				_ackSegment;
 
 	/* Constructor */
 
@@ -45,47 +97,57 @@ class FileReceiver {
 	 * 
 	 * @param localPort
 	 *            port to listen on
+	 * @param config
+	 *            parameters of the transfer
 	 */
-	public FileReceiver(String localPort) {
+	public FileReceiver(String localPort, TransferConfig config) {
 		try {
-			setSocket(new DatagramSocket(Integer.parseInt(localPort)));
-			getSocket().setReuseAddress(true);
+			setEventLoop(new EventLoop());
+			setChannel(DatagramChannel.open());
+			getChannel().setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			getChannel().bind(
+					new InetSocketAddress(Integer.parseInt(localPort)));
+			getEventLoop().register(getChannel(), this);
 		} catch (NumberFormatException e) {
 			if (DEBUG_MODE) {
 				e.printStackTrace();
 			}
-		} catch (SocketException e) {
+		} catch (IOException e) {
 			if (DEBUG_MODE) {
 				e.printStackTrace();
 			}
 		}
-		setCurrSeqNum(0);
+		setConfig(config);
+		setSessions(new HashMap<SocketAddress, ReceiverSession>());
+		setFiles(new HashMap<String, ReceivedFile>());
+		setSackBlocks(new int[UDPSegment.MAX_SACK_BLOCKS * 2]);
+		setSignatures(new int[UDPSegment.MAX_SIGNATURES * 2]);
+		setDecompressor(new SegmentCompressor(CompressionType.NONE));
+		setSegmentPool(new SegmentPool(config.getSegmentSize(), false));
+		setRcvdSegment(getSegmentPool().acquire());
+		setAckSegment(new UDPSegment());
 	}
 
 	/* Accessors and Modifiers */
 
-	public DatagramSocket getSocket() {
-		return _socket;
+	public DatagramChannel getChannel() {
+		return _channel;
 	}
 
-	public void setSocket(DatagramSocket socket) {
-		_socket = socket;
+	public void setChannel(DatagramChannel channel) {
+		_channel = channel;
 	}
 
-	public String getFilename() {
-		return _filename;
+	public EventLoop getEventLoop() {
+		return _eventLoop;
 	}
 
-	public void setFilename(String filename) {
-		_filename = filename;
+	public void setEventLoop(EventLoop eventLoop) {
+		_eventLoop = eventLoop;
 	}
 
-	public File getFile() {
-		return _file;
-	}
-
-	public void setFile(File file) {
-		_file = file;
+	public TimingWheel getWheel() {
+		return getEventLoop().getWheel();
 	}
 
 	public UDPSegment getRcvdSegment() {
@@ -96,244 +158,345 @@ class FileReceiver {
 		_rcvdSegment = rcvdSegment;
 	}
 
-	public int getCurrSeqNum() {
-		return _currSeqNum;
+	public HashMap<SocketAddress, ReceiverSession> getSessions() {
+		return _sessions;
+	}
+
+	public void setSessions(HashMap<SocketAddress, ReceiverSession> sessions) {
+		_sessions = sessions;
+	}
+
+	public HashMap<String, ReceivedFile> getFiles() {
+		return _files;
+	}
+
+	public void setFiles(HashMap<String, ReceivedFile> files) {
+		_files = files;
+	}
+
+	public int getReceiveTime() {
+		return _receiveTime;
+	}
+
+	public void setReceiveTime(int receiveTime) {
+		_receiveTime = receiveTime;
+	}
+
+	public TransferConfig getConfig() {
+		return _config;
 	}
 
-	public void setCurrSeqNum(int currSeqNum) {
-		_currSeqNum = currSeqNum;
+	public void setConfig(TransferConfig config) {
+		_config = config;
 	}
 
-	public void incrementSeqNum() {
-		_currSeqNum++;
+	public int[] getSackBlocks() {
+		return _sackBlocks;
 	}
 
-	public FileOutputStream getFos() {
-		return _fos;
+	public void setSackBlocks(int[] sackBlocks) {
+		_sackBlocks = sackBlocks;
 	}
 
-	public void setFos(FileOutputStream fos) {
-		_fos = fos;
+	public int[] getSignatures() {
+		return _signatures;
 	}
 
-	public BufferedOutputStream getFileWriter() {
-		return _fileWriter;
+	public void setSignatures(int[] signatures) {
+		_signatures = signatures;
 	}
 
-	public void setFileWriter(BufferedOutputStream fileWriter) {
-		_fileWriter = fileWriter;
+	public SegmentCompressor getDecompressor() {
+		return _decompressor;
 	}
 
-	public InetAddress getClientIpAdd() {
-		return _clientIpAdd;
+	public void setDecompressor(SegmentCompressor decompressor) {
+		_decompressor = decompressor;
 	}
 
-	public void setClientIpAdd(InetAddress clientIpAdd) {
-		_clientIpAdd = clientIpAdd;
+	public SegmentPool getSegmentPool() {
+		return _segmentPool;
 	}
 
-	public int getClientPortNum() {
-		return _clientPortNum;
+	public void setSegmentPool(SegmentPool segmentPool) {
+		_segmentPool = segmentPool;
 	}
 
-	public void setClientPortNum(int clientPortNum) {
-		_clientPortNum = clientPortNum;
+	public UDPSegment getAckSegment() {
+		return _ackSegment;
+	}
+
+	public void setAckSegment(UDPSegment ackSegment) {
+		_ackSegment = ackSegment;
 	}
 
 	/* Public Methods */
 
 	/**
-	 * Method to execute receiving of data to be written to a file
+	 * Method to execute receiving of data to be written to files. Runs the
+	 * event loop until every session has closed, or for as long as the
+	 * process lives in daemon mode.
 	 */
 	public void run() {
-		receiveFilename();
-		openWriter();
-		receiveFile();
+		try {
+			getEventLoop().run();
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(3);
+		}
 		cleanup();
 	}
 
-	/* Private Methods */
-
 	/**
-	 * Receives the filename from sender. ACK is sent only if the segment is
-	 * valid and in order
+	 * Receives every segment waiting on the channel and hands it to the
+	 * session of its sender. A sender without a session gets one if the
+	 * segment opens a stream and the session limit has not been reached;
+	 * the session is only registered once that stream has opened. Other
+	 * segments from unknown senders are dropped.
 	 */
-	private void receiveFilename() {
-		DatagramPacket rcvdPacket = new DatagramPacket(
-				new byte[FileSender.MSS], FileSender.MSS);
-		while (true) {
-			try {
-				getSocket().receive(rcvdPacket);
-				setRcvdSegment(new UDPSegment(rcvdPacket));
-				if (DEBUG_MODE) {
-					System.out.println(new String(rcvdPacket.getData()));
-					System.out.println(getRcvdSegment().toString());
-				}
-				if (getRcvdSegment().isValid() && inOrder()) {
-					setClientIpAdd(rcvdPacket.getAddress());
-					setClientPortNum(rcvdPacket.getPort());
-					sendAck();
-					break;
-				}
-			} catch (IOException e) {
-				if (DEBUG_MODE) {
-					e.printStackTrace();
+	@Override
+	public void channelReadable(DatagramChannel channel) {
+		SocketAddress source;
+		while ((source = receiveSegment()) != null) {
+			UDPSegment rcvd = getRcvdSegment();
+			Log.log(LogLevel.DEBUG, rcvd.isParity()
+					? "Received parity {} of stream {}, flags {}, {} bytes"
+					: "Received segment {} of stream {}, flags {}, {} bytes",
+					rcvd.getSeqNum(), rcvd.getStreamId(), rcvd.getFlags(),
+					rcvd.getDataLen());
+			ReceiverSession session = getSessions().get(source);
+			if (session != null) {
+				session.receive(rcvd);
+			} else if (canOpenSession(rcvd)) {
+				session = new ReceiverSession(this, source);
+				session.receive(rcvd);
+				// Kept only if its first stream could be opened
+				if (!session.getStreams().isEmpty() && !session.isAborted()) {
+					getSessions().put(source, session);
 				}
 			}
 		}
 	}
 
 	/**
-	 * Checks if the received segment is in order
+	 * Gets the file a stream is to be written to, creating it if this is the
+	 * first of its streams to arrive, and claims the stripe of the stream
 	 * 
-	 * @return true if received segment's sequence number is 1 more than current
-	 *         sequence number. False otherwise.
+	 * @param first
+	 *            valid first segment of the stream, naming a file inside of
+	 *            the root
+	 * @return the file named by the segment, or null if a file of that name
+	 *         is being written by another transfer
+	 * @throws IOException
+	 *             if the file cannot be created or opened
 	 */
-	private boolean inOrder() {
-		return getRcvdSegment().getSeqNum() == getCurrSeqNum() + 1;
+	public ReceivedFile openFile(UDPSegment first) throws IOException {
+		String filename = resolveFilename(first.getFilename());
+		ReceivedFile file = getFiles().get(filename);
+		if (file == null) {
+			file = new ReceivedFile(filename, first.getFileSize(),
+					first.getChecksumType(), first.getStripeCount(),
+					first.isDelta());
+			getFiles().put(filename, file);
+		}
+		return file.claimStripe(first) ? file : null;
 	}
 
-	private void sendAck() {
-		if (DEBUG_MODE) {
-			System.out.println("Sending ACK for "
-					+ getRcvdSegment().getSeqNum());
-		}
-		getRcvdSegment().convertToAck();
-		byte[] payload = new byte[FileSender.MSS];
-		getRcvdSegment().makePayload(payload);
+	/**
+	 * Resolves a name given by a sender against the root of the receiver
+	 * 
+	 * @param filename
+	 *            name the sender asks the file to be saved under
+	 * @return normalized path of the file, or null if the name is absolute
+	 *         or leads out of the root
+	 */
+	public String resolveFilename(String filename) {
+		Path root = getConfig().getRoot();
+		Path path;
 		try {
-			getSocket().send(
-					new DatagramPacket(payload, getRcvdSegment().getLength(),
-							getClientIpAdd(), getClientPortNum()));
-		} catch (IOException e) {
-			if (DEBUG_MODE) {
-				e.printStackTrace();
-			}
-			System.exit(4);
+			path = Paths.get(filename);
+		} catch (InvalidPathException e) {
+			return null;
+		}
+		if (path.getRoot() != null) {
+			return null;
 		}
+		path = root.resolve(path).normalize();
+		if (!path.startsWith(root) || path.equals(root)) {
+			return null;
+		}
+		return path.toString();
 	}
 
 	/**
-	 * Opens a buffered output stream that writes to a file
+	 * Hands the stripe of a finished stream over to its file for checking.
+	 * A file is done with once its last stripe has been handed over, even if
+	 * it could not be closed.
 	 * 
-	 * @postcondition: writer must be opened successfully at the end of method
+	 * @param stream
+	 *            stream that has just finished
+	 * @return false if the file is complete and failed its integrity check
+	 * @throws IOException
+	 *             if the complete file cannot be closed
 	 */
-	private void openWriter() {
+	public boolean finishStripe(InboundStream stream) throws IOException {
+		ReceivedFile file = stream.getFile();
+		boolean checked = stream.isWrittenIntact();
+		stream.setFile(null);
+		stream.setWrittenDigest(null);
 		try {
-			setFos(new FileOutputStream(getFilename()));
-		} catch (FileNotFoundException e) {
-			if (DEBUG_MODE) {
-				e.printStackTrace();
+			return file.finishStripe(stream.getStripeOffset(),
+					stream.getDigestLength(), stream.getDigest(), checked);
+		} finally {
+			if (file.isComplete()) {
+				getFiles().remove(file.getFilename());
 			}
-			System.exit(2);
 		}
-		setFileWriter(new BufferedOutputStream(getFos()));
-
-		assert (getFileWriter() != null);
 	}
 
 	/**
-	 * Receives the contents of the file from the sender. If the segments
-	 * received are in order and valid, an ACK segment is sent to the sender and
-	 * the contents of the received segment is written
+	 * Gives up the stripe of a stream whose session has been aborted. Once no
+	 * stream is left writing the file, it is closed, to be resumed by a later
+	 * transfer.
+	 * 
+	 * @param stream
+	 *            stream of the session that has not finished
 	 */
-	private void receiveFile() {
-		DatagramPacket rcvdPacket = new DatagramPacket(
-				new byte[FileSender.MSS], FileSender.MSS);
-		do {
-			try {
-				getSocket().receive(rcvdPacket);
-				setRcvdSegment(new UDPSegment(rcvdPacket));
-				if (getRcvdSegment().isValid() && inOrder()) {
-					byte[] data = getRcvdSegment().getData();
-					int dataLen = getRcvdSegment().getDataLen();
-					sendAck();
-					writeToFile(data, dataLen);
-				}
-			} catch (IOException e) {
-				if (DEBUG_MODE) {
-					e.printStackTrace();
-				}
-				System.exit(3);
-			}
-		} while (hasDataToReceive(rcvdPacket));
+	public void abortStripe(InboundStream stream) {
+		ReceivedFile file = stream.getFile();
+		stream.setFile(null);
+		stream.setWrittenDigest(null);
+		file.releaseStripe(stream.getStripeOffset());
+		if (!file.isBeingWritten()) {
+			getFiles().remove(file.getFilename());
+			file.abort();
+		}
 	}
 
 	/**
-	 * Method to write data from byte buffer into file on local directory
+	 * Closes a session whose sender has stopped retransmitting, or that has
+	 * been aborted. Outside of daemon mode, the receiver stops once the last session has closed and
+	 * every file is complete.
 	 * 
-	 * @param data
-	 *            Output stream to be used. Should already be open for writing.
-	 * @param length
-	 *            Length of data to write into file
+	 * @param session
+	 *            session to close
 	 */
-	private void writeToFile(byte[] data, int length) {
-		if (length == 0) {
-			return;
+	public void closeSession(ReceiverSession session) {
+		if (Log.isEnabled(LogLevel.INFO)) {
+			Log.log(LogLevel.INFO, session.getSummary());
 		}
-		try {
-			getFileWriter().write(data, 0, length);
-		} catch (IOException e) {
-			if (DEBUG_MODE) {
-				e.printStackTrace();
-			}
-			System.exit(5);
+		if (getSessions().get(session.getClientAddress()) == session) {
+			getSessions().remove(session.getClientAddress());
+		}
+		if (!getConfig().isDaemon() && getSessions().isEmpty()
+				&& getFiles().isEmpty()) {
+			getEventLoop().deregister(getChannel());
 		}
 	}
 
+	/* Private Methods */
+
 	/**
-	 * Method to check if there are still data to be received. End of
-	 * transmission is represented by receiving an empty packet
+	 * Checks if a segment from a sender without a session may open one
 	 * 
-	 * @param received
-	 *            the last packet received
-	 * @return false if packet length = 0. True otherwise
+	 * @param seg
+	 *            segment received from the sender
+	 * @return true if the segment is the valid first segment of a stream,
+	 *         announcing a file that can be received inside of the root, and
+	 *         fewer sessions than the limit are open
 	 */
-	private boolean hasDataToReceive(DatagramPacket received) {
-		if (received.getLength() == 0) {
-			return false;
+	private boolean canOpenSession(UDPSegment seg) {
+		return getSessions().size() < getConfig().getMaxSessions()
+				&& seg.isValid() && seg.getSeqNum() == 1
+				&& seg.containsValidFileInfo()
+				&& resolveFilename(seg.getFilename()) != null;
+	}
+
+	/**
+	 * Receives the next datagram directly into the buffer of the received
+	 * segment
+	 * 
+	 * @return address the datagram was received from, or null if none was
+	 *         waiting
+	 */
+	private SocketAddress receiveSegment() {
+		try {
+			SocketAddress source = getRcvdSegment().receive(getChannel());
+			setReceiveTime(UDPSegment.currentTimestamp());
+			return source;
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(3);
+			return null;
 		}
-		return true;
 	}
 
 	private void cleanup() {
+		getEventLoop().close();
+		getDecompressor().end();
 		try {
-			getFileWriter().close();
-			getFos().close();
+			getChannel().close();
 		} catch (IOException e) {
 			if (DEBUG_MODE) {
 				e.printStackTrace();
 			}
-			System.exit(6);
 		}
-		getSocket().close();
 	}
 
 	/**
-	 * Main method that receives the file.
+	 * Main method that receives the files.
 	 * 
 	 * <pre>
 	 * Termination codes used and their meaning:
 	 * 1: Program not executed with correct arguments
 	 * 2: Failed to create new file 
-	 * 3: Failed to open socket to receive a datagram packet
+	 * 3: Failed to receive a datagram packet
 	 * 4: Failed to send ACK
 	 * 5: Failed to write to file.
-	 * 6: Failed to close writers
+	 * 6: Failed to close file
+	 * 7: File failed its integrity check
+	 * 8: Sender went silent before the end of its session
 	 * </pre>
 	 * 
+	 * In daemon mode, codes 2 and 4 to 8 abort the session of the failure
+	 * rather than end the receiver.
+	 * 
 	 * @param args
-	 *            Array of Strings. Should contain port to listen on
+	 *            Array of Strings. Should contain port to listen on,
+	 *            optionally followed by "--name value" options
 	 */
 	public static void main(String[] args) {
 
-		// check if the number of command line argument is 1
-		if (args.length != 1) {
-			System.out.println("Usage: java FileReceiver port");
+		// check if the number of command line argument is at least 1
+		if (args.length < 1) {
+			printUsage();
 			System.exit(1);
 		}
 
-		FileReceiver fr = new FileReceiver(args[0]);
+		TransferConfig config = null;
+		try {
+			config = TransferConfig.parse(args, 1);
+			Log.setLevel(config.getLogLevel());
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			printUsage();
+			System.exit(1);
+		}
+
+		FileReceiver fr = new FileReceiver(args[0], config);
 		fr.run();
 	}
+
+	private static void printUsage() {
+		System.out.println("Usage: java FileReceiver port "
+				+ "[--reorder-memory <bytes>] [--mode single|daemon] "
+				+ "[--max-sessions <count>] [--segment-size <bytes>] "
+				+ "[--ack-every <segments>] [--ack-delay <msec>] "
+				+ "[--root <directory>] "
+				+ "[--log-level debug|info|warn|error|off]");
+	}
 }
@@ -1,49 +1,85 @@
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.util.Timer;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 
 /**
  * 
- * This class will send a file to the desired host using the UDP protocol.
+ * This class will send a file, or every file of a directory tree, to the
+ * desired host using the UDP protocol.
  * 
  * @input The class will be invoked with path/filename, recipient host name,
  *        host's port, as well as a filename for the host to save the file
- *        under.
+ *        under. If the path names a directory, every file below it is sent,
+ *        and saved by the host under the given name as a directory.
  * 
  * @assumption All inputs are correct. Filename for host will always be under
  *             1000 bytes. Underlying transmission channel is perfect and all
  *             data will be received in good order.
  * 
+ *             Each file is sent as an OutboundStream of a single session, all
+ *             streams sharing one channel. Up to the configured number of
+ *             streams are in flight at once, their segments told apart by
+ *             their stream id, so a directory of many files costs no more
+ *             than one process and one socket.
+ * 
+ *             Segments are sent using selective repeat. Up to the configured
+ *             window size of segments of a stream may be unacknowledged at
+ *             any time, each with its own retransmission timer, whose timeout
+ *             is adapted to the measured round trip time. A window size of 1
+ *             gives the original stop-and-wait behaviour. The number of
+ *             segments in flight over all streams is limited by the
+ *             configured CongestionController.
+ * 
+ *             The transfer runs on an EventLoop: ACKs, new segments and
+ *             retransmissions are all handled by the thread of the loop, which
+ *             owns the channel and the timers.
+ * 
+ *             A single large file may instead be split into stripes, byte
+ *             ranges each sent by a session of its own, with its own channel,
+ *             event loop and thread, so that checksumming and sending the file
+ *             is spread over several cores. The receiver writes each stripe
+ *             at its offset and checks the whole file once all have arrived.
+ * 
  * @author Victor Hazali A0110741X
  * 
  */
-class FileSender {
+class FileSender implements ChannelHandler, Runnable {
 
 	/* Constants */
 	private static final boolean	DEBUG_MODE	= false;
-	// Max Segment Size in bytes
+	// Max Segment Size every receiver accepts in bytes, used by the first
+	// segment of every stream until a segment size has been settled
 	public static final int			MSS			= 1000;
-	// Sending delay in msec
-	private static final int		SEND_DELAY	= 0;
-	// Timeout delay in msec
-	private static final int		TO_DELAY	= 20;
 
 	/* Member Variables */
-	private File					_fileToSend;
 	private int						_hostPortNum;
-	private String					_targetFilename;
-	private DatagramSocket			_socket;
+	private DatagramChannel			_channel;
 	private InetAddress				_hostAddress;
-	private int						_currSeqNum;
-	private DatagramPacket			_rcvdPkt;
+	private InetSocketAddress		_target;
+	private TransferConfig			_config;
+	private EventLoop				_eventLoop;
+	// Streams yet to be started, in order of stream id
+	private ArrayDeque<OutboundStream>	_pendingStreams;
+	// Streams started and not done yet, null where a stream may be started
+	private OutboundStream[]		_streams;
+	private int						_streamCount;
+	// Segments of all streams sent and not acknowledged yet
+	private int						_inFlight;
+	private RttEstimator			_rttEstimator;
+	private CongestionController	_congestionController;
+	// Corrupted segments reported by the receiver so far
+	private int						_corruptedCount;
+	private SegmentPool				_segmentPool;
+	private UDPSegment				_ackSegment;
 
 	/* Constructors */
 
@@ -51,51 +87,76 @@ class FileSender {
 	 * Constructor
 	 * 
 	 * @param srcFile
-	 *            file path for source file
+	 *            file path for source file or directory
 	 * @param destPort
 	 *            port to send to
 	 * @param destFile
 	 *            file name to be used to store the file on the host's end
+	 * @param config
+	 *            parameters of the transfer
+	 */
+	public FileSender(String srcFile, String destPort, String destFile,
+			TransferConfig config) {
+		this(destPort, config);
+		try {
+			addStreams(new File(srcFile), destFile);
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(5);
+		}
+		setStreamCount(getPendingStreams().size());
+	}
+
+	/**
+	 * Constructor for a session without any streams yet
+	 * 
+	 * @param destPort
+	 *            port to send to
+	 * @param config
+	 *            parameters of the transfer
 	 */
-	public FileSender(String srcFile, String destPort, String destFile) {
-		setFileToSend(new File(srcFile));
+	private FileSender(String destPort, TransferConfig config) {
 		setHostPortNum(Integer.parseInt(destPort));
-		setTargetFilename(destFile);
-		setCurrSeqNum(1);	// First segment will start with sequence number of 1
-		setRcvdPkt(new DatagramPacket(new byte[MSS], MSS));
+		setConfig(config);
+		setPendingStreams(new ArrayDeque<OutboundStream>());
+		setStreams(new OutboundStream[config.getMaxStreams()]);
+		setInFlight(0);
+		setRttEstimator(new RttEstimator());
+		setCongestionController(config.getCongestionType().newController(
+				config.getWindowSize() * config.getMaxStreams()));
+		setCorruptedCount(0);
+		setSegmentPool(new SegmentPool(config.getSegmentSize(), false));
+		setAckSegment(new UDPSegment());
 
 		try {
-			setSocket(new DatagramSocket());
 			setHostAddress(InetAddress.getByName("localhost"));
-		} catch (SocketException e) {
+			setTarget(new InetSocketAddress(getHostAddress(), getHostPortNum()));
+			setEventLoop(new EventLoop());
+			setChannel(DatagramChannel.open());
+			getChannel().connect(getTarget());
+			getEventLoop().register(getChannel(), this);
+		} catch (UnknownHostException e) {
 			if (DEBUG_MODE) {
 				e.printStackTrace();
 			}
-			System.exit(2);
-		} catch (SecurityException e) {
+			System.exit(4);
+		} catch (IOException e) {
 			if (DEBUG_MODE) {
 				e.printStackTrace();
 			}
-			System.exit(3);
-		} catch (UnknownHostException e) {
+			System.exit(2);
+		} catch (SecurityException e) {
 			if (DEBUG_MODE) {
 				e.printStackTrace();
 			}
-			System.exit(4);
+			System.exit(3);
 		}
-
 	}
 
 	/* Accessors and Getters */
 
-	public File getFileToSend() {
-		return _fileToSend;
-	}
-
-	public void setFileToSend(File fileToSend) {
-		_fileToSend = fileToSend;
-	}
-
 	public int getHostPortNum() {
 		return _hostPortNum;
 	}
@@ -104,20 +165,12 @@ class FileSender {
 		_hostPortNum = hostPortNum;
 	}
 
-	public String getTargetFilename() {
-		return _targetFilename;
-	}
-
-	public void setTargetFilename(String targetFilename) {
-		_targetFilename = targetFilename;
-	}
-
-	public DatagramSocket getSocket() {
-		return _socket;
+	public DatagramChannel getChannel() {
+		return _channel;
 	}
 
-	public void setSocket(DatagramSocket socket) {
-		_socket = socket;
+	public void setChannel(DatagramChannel channel) {
+		_channel = channel;
 	}
 
 	public InetAddress getHostAddress() {
@@ -128,178 +181,393 @@ class FileSender {
 		_hostAddress = hostAddress;
 	}
 
-	public int getCurrSeqNum() {
-		return _currSeqNum;
+	public InetSocketAddress getTarget() {
+		return _target;
 	}
 
-	public void setCurrSeqNum(int currSeqNum) {
-		_currSeqNum = currSeqNum;
+	public void setTarget(InetSocketAddress target) {
+		_target = target;
 	}
 
-	public void incrementSeqNum() {
-		_currSeqNum++;
+	public EventLoop getEventLoop() {
+		return _eventLoop;
 	}
 
-	public DatagramPacket getRcvdPkt() {
-		return _rcvdPkt;
+	public void setEventLoop(EventLoop eventLoop) {
+		_eventLoop = eventLoop;
 	}
 
-	public void setRcvdPkt(DatagramPacket rcvdPkt) {
-		_rcvdPkt = rcvdPkt;
+	public TransferConfig getConfig() {
+		return _config;
 	}
 
-	/* Public Methods */
+	public void setConfig(TransferConfig config) {
+		_config = config;
+	}
 
-	public void run() {
-		sendFilename();
-		sendFileContents();
+	public ArrayDeque<OutboundStream> getPendingStreams() {
+		return _pendingStreams;
 	}
 
-	public void sendFilename() {
-		UDPSegment filename = new UDPSegment(getCurrSeqNum(),
-				UDPSegment.DATA_TYPE, getTargetFilename().getBytes(),
-				getTargetFilename().getBytes().length);
-		sendSegment(filename);
-		incrementSeqNum();
+	public void setPendingStreams(ArrayDeque<OutboundStream> pendingStreams) {
+		_pendingStreams = pendingStreams;
 	}
 
-	public void sendFileContents() {
-		UDPSegment toSend = new UDPSegment(getCurrSeqNum(),
-				UDPSegment.DATA_TYPE);
-		try {
+	public OutboundStream[] getStreams() {
+		return _streams;
+	}
 
-			// Opening file reader
-			FileInputStream fis = new FileInputStream(getFileToSend());
-			BufferedInputStream fileReader = new BufferedInputStream(fis);
+	public void setStreams(OutboundStream[] streams) {
+		_streams = streams;
+	}
 
-			// Reading first packet
-			int lengthRead = readFileContents(fileReader, toSend);
+	public int getStreamCount() {
+		return _streamCount;
+	}
 
-			// Sending and reading remaining packets
-			while (hasDataToSend(lengthRead)) {
+	public void setStreamCount(int streamCount) {
+		_streamCount = streamCount;
+	}
 
-				// Sending current packet
-				sendSegment(toSend);
+	public int getInFlight() {
+		return _inFlight;
+	}
 
-				// Received ACK for current packet
-				// and preparing to read next packet
-				incrementSeqNum();
-				toSend = new UDPSegment(getCurrSeqNum(), UDPSegment.DATA_TYPE);
+	public void setInFlight(int inFlight) {
+		_inFlight = inFlight;
+	}
 
-				// Reading next packet
-				lengthRead = readFileContents(fileReader, toSend);
-			}
+	public void addInFlight() {
+		_inFlight++;
+	}
+
+	public void removeInFlight() {
+		_inFlight--;
+	}
+
+	public TimingWheel getWheel() {
+		return getEventLoop().getWheel();
+	}
+
+	public RttEstimator getRttEstimator() {
+		return _rttEstimator;
+	}
+
+	public void setRttEstimator(RttEstimator rttEstimator) {
+		_rttEstimator = rttEstimator;
+	}
+
+	public CongestionController getCongestionController() {
+		return _congestionController;
+	}
+
+	public void setCongestionController(
+			CongestionController congestionController) {
+		_congestionController = congestionController;
+	}
+
+	public int getCorruptedCount() {
+		return _corruptedCount;
+	}
+
+	public void setCorruptedCount(int corruptedCount) {
+		_corruptedCount = corruptedCount;
+	}
 
-			sendFinalSegment();
+	public SegmentPool getSegmentPool() {
+		return _segmentPool;
+	}
+
+	public void setSegmentPool(SegmentPool segmentPool) {
+		_segmentPool = segmentPool;
+	}
 
-			fileReader.close();
-			fis.close();
-			getSocket().close();
-		} catch (FileNotFoundException e) {
+	public UDPSegment getAckSegment() {
+		return _ackSegment;
+	}
+
+	public void setAckSegment(UDPSegment ackSegment) {
+		_ackSegment = ackSegment;
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Sends a file split into stripes, each sent by a session of its own on a
+	 * thread of its own, and waits for all of them to finish. Each session
+	 * carries a single stream, its stripe; the receiver puts the stripes
+	 * together by filename. Stripes hold a whole number of segments of the
+	 * configured size, and there are no more stripes than segments.
+	 * 
+	 * @param srcFile
+	 *            file path for source file
+	 * @param destPort
+	 *            port to send to
+	 * @param destFile
+	 *            file name to be used to store the file on the host's end
+	 * @param config
+	 *            parameters of the transfer
+	 */
+	public static void sendStriped(String srcFile, String destPort,
+			String destFile, TransferConfig config) {
+		File file = new File(srcFile);
+		long fileSize = file.length();
+		int dataSize = config.getSegmentSize() - UDPSegment.HEADER_SIZE;
+		long segmentCount = (fileSize + dataSize - 1) / dataSize;
+		long segmentsPerStripe = Math.max(1,
+				(segmentCount + config.getStripeCount() - 1)
+						/ config.getStripeCount());
+		int stripeCount = (int) Math.max(1,
+				(segmentCount + segmentsPerStripe - 1) / segmentsPerStripe);
+		long stripeLength = segmentsPerStripe * dataSize;
+
+		Thread[] flows = new Thread[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			long offset = i * stripeLength;
+			FileSender flow = new FileSender(destPort, config);
+			flow.getPendingStreams().add(new OutboundStream(flow, i + 1, file,
+					destFile, offset, Math.min(stripeLength, fileSize - offset),
+					stripeCount));
+			flow.setStreamCount(1);
+			flows[i] = new Thread(flow, "stripe-" + (i + 1));
+			flows[i].start();
+		}
+
+		for (Thread flow : flows) {
+			try {
+				flow.join();
+			} catch (InterruptedException e) {
+				if (DEBUG_MODE) {
+					e.printStackTrace();
+				}
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Starts the first streams and then runs the event loop until every
+	 * stream is over
+	 */
+	@Override
+	public void run() {
+		advance();
+		try {
+			getEventLoop().run();
+		} catch (IOException e) {
 			if (DEBUG_MODE) {
 				e.printStackTrace();
 			}
-			System.exit(5);
+		}
+		getEventLoop().close();
+		try {
+			getChannel().close();
 		} catch (IOException e) {
 			if (DEBUG_MODE) {
 				e.printStackTrace();
 			}
-			System.exit(7);
 		}
 	}
 
 	/**
-	 * Reads the contents of the file to be sent and places it into the
-	 * UDPsegment data
-	 * 
-	 * @param fileReader
-	 *            InputStream to read from
-	 * @param seg
-	 *            UDP Segment to store the data
-	 * @return length of data read
+	 * Receives every ACK waiting on the channel, hands each to its stream and
+	 * then moves the session on with them
+	 */
+	@Override
+	public void channelReadable(DatagramChannel channel) {
+		while (receiveAck()) {
+			// Draining the channel
+		}
+		advance();
+	}
+
+	/**
+	 * Moves every stream on to its next stage, starts new streams in place of
+	 * those that are done, and then fills the congestion window with segments
+	 * taken from each stream in turn, so that all streams in flight share the
+	 * path evenly. Ends the session once every stream is done.
 	 */
-	private int readFileContents(BufferedInputStream fileReader, UDPSegment seg) {
-		int lengthRead = 0;
+	public void advance() {
+		OutboundStream[] streams = getStreams();
+		for (int i = 0; i < streams.length; i++) {
+			if (streams[i] != null) {
+				streams[i].update();
+			}
+			if (streams[i] != null && streams[i].isDone()) {
+				streams[i] = null;
+			}
+			if (streams[i] == null && !getPendingStreams().isEmpty()
+					&& hasSpace()) {
+				streams[i] = getPendingStreams().poll();
+				streams[i].start();
+			}
+		}
 
-		try {
-			byte[] buffer = new byte[UDPSegment.DATA_SIZE];
-			lengthRead = fileReader.read(buffer);
-			seg.setData((buffer));
-			seg.setDataLen(lengthRead);
-		} catch (IOException e) {
-			if (DEBUG_MODE) {
-				e.printStackTrace();
+		boolean sent = true;
+		while (sent) {
+			sent = false;
+			for (OutboundStream stream : streams) {
+				if (stream != null && stream.sendNextSegment()) {
+					sent = true;
+				}
 			}
-			System.exit(6);
 		}
-		return lengthRead;
+
+		if (getPendingStreams().isEmpty() && !hasActiveStreams()) {
+			finish();
+		}
 	}
 
 	/**
-	 * Checks if there is any data to send. This is decided by the amount of
-	 * bytes of data last read
+	 * Checks if another segment may be sent without exceeding the congestion
+	 * window shared by all streams
 	 * 
-	 * @param lengthRead
-	 *            amount of bytes of data last read
-	 * @return true if lengthRead >0, false otherwise.
+	 * @return true if fewer segments than the congestion window are in flight
 	 */
-	private boolean hasDataToSend(int lengthRead) {
-		return lengthRead > 0;
+	public boolean hasSpace() {
+		return getInFlight() < getCongestionController().getWindow();
 	}
 
+	/* Private Methods */
+
 	/**
-	 * Sends a specified UDP segment over the specified socket to the specified
-	 * IP address and port number
-	 * 
-	 * @precondition toSend must already have the payload, sequence number and
-	 *               type
+	 * Adds a stream for a file, or for every file below a directory. Files
+	 * below a directory are saved by the host under the target name, at the
+	 * same path relative to it.
 	 * 
-	 * @param toSend
-	 *            the UDP Segment to be sent
+	 * @param source
+	 *            file or directory to send
+	 * @param targetName
+	 *            name to save the file or directory under
+	 * @throws IOException
+	 *             if the directory could not be walked
 	 */
-	private void sendSegment(UDPSegment toSend) {
-
-		toSend.setChecksum(toSend.calculateChecksum());
-
-		Timer timer = new Timer();
-		timer.schedule(new TimeoutHandler(toSend, getSocket(),
-				getHostAddress(), getHostPortNum()), SEND_DELAY, TO_DELAY);
+	private void addStreams(File source, final String targetName)
+			throws IOException {
+		if (!source.isDirectory()) {
+			addStream(source, targetName);
+			return;
+		}
 
-		while (!toSend.isAck()) {
-			try {
-				getSocket().receive(getRcvdPkt());
-				UDPSegment ACK = new UDPSegment(getRcvdPkt());
-				System.out.println("ACK received: " + ACK.toString());
-				if (ACK.equals(toSend)) {
-					toSend.setAckRcvd(true);
-					if (DEBUG_MODE) {
-						System.out.println("segment " + toSend.getSeqNum()
-								+ "ACKed");
+		final Path root = source.toPath();
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file,
+					BasicFileAttributes attrs) {
+				if (attrs.isRegularFile()) {
+					StringBuilder name = new StringBuilder(targetName);
+					for (Path part : root.relativize(file)) {
+						name.append('/').append(part.toString());
 					}
+					addStream(file.toFile(), name.toString());
 				}
-			} catch (IOException e) {
-				if (DEBUG_MODE) {
-					e.printStackTrace();
-				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Adds a stream for a single file, numbering streams from 1
+	 * 
+	 * @param file
+	 *            file to send
+	 * @param targetName
+	 *            name to save the file under
+	 */
+	private void addStream(File file, String targetName) {
+		int streamId = getPendingStreams().size() + 1;
+		getPendingStreams().add(new OutboundStream(this, streamId, file,
+				targetName, 0, file.length(), 1));
+	}
+
+	/**
+	 * Checks if any stream has been started and is not done yet
+	 * 
+	 * @return true if a stream is in flight
+	 */
+	private boolean hasActiveStreams() {
+		for (OutboundStream stream : getStreams()) {
+			if (stream != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the stream in flight with the given id
+	 * 
+	 * @param streamId
+	 *            id of the stream
+	 * @return the stream, or null if it is not in flight
+	 */
+	private OutboundStream findStream(int streamId) {
+		for (OutboundStream stream : getStreams()) {
+			if (stream != null && stream.getStreamId() == streamId) {
+				return stream;
 			}
 		}
+		return null;
+	}
 
+	/**
+	 * Receives a single ACK from the host and hands it to its stream.
+	 * Corrupted ACKs and ACKs of streams no longer in flight are ignored,
+	 * though any corruption newly reported by the receiver is passed on to
+	 * the congestion controller.
+	 * 
+	 * @return false if no ACK was waiting on the channel, true otherwise
+	 */
+	private boolean receiveAck() {
+		try {
+			UDPSegment ACK = getAckSegment();
+			if (ACK.receive(getChannel()) == null) {
+				return false;
+			}
+			Log.log(LogLevel.DEBUG, "ACK received for stream {} up to {}",
+					ACK.getStreamId(), ACK.getSeqNum());
+			if (!ACK.isValid() || !ACK.isAck()) {
+				return true;
+			}
+
+			if (ACK.getCorruptedCount() > getCorruptedCount()) {
+				getCongestionController().onCorruption(
+						ACK.getCorruptedCount() - getCorruptedCount());
+				setCorruptedCount(ACK.getCorruptedCount());
+			}
+			OutboundStream stream = findStream(ACK.getStreamId());
+			if (stream != null) {
+				stream.handleAck(ACK, System.nanoTime());
+			}
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			return false;
+		}
+		return true;
 	}
 
-	private void sendFinalSegment() {
-		UDPSegment finalSegment = new UDPSegment(getCurrSeqNum(),
-				UDPSegment.DATA_TYPE, new byte[0], 0);
-		sendSegment(finalSegment);
+	/**
+	 * Ends the session and lets the event loop return
+	 */
+	private void finish() {
+		if (Log.isEnabled(LogLevel.DEBUG)) {
+			Log.log(LogLevel.DEBUG, getRttEstimator().toString());
+			Log.log(LogLevel.DEBUG, getCongestionController().toString());
+		}
+		getEventLoop().deregister(getChannel());
 	}
 
 	/**
-	 * Main method that sends the file.
+	 * Main method that sends the file or directory.
 	 * 
 	 * <pre>
 	 * Termination codes used and their meaning:
 	 * 0: Successful run
 	 * 1: wrong invocation of commands when running
-	 * 2: Socket failed to be opened/bound to specified port
+	 * 2: Channel or selector failed to be opened
 	 * 3: Security exception
 	 * 4: Failed to resolve host IP Address
 	 * 5: Failed to open file to be sent
@@ -308,24 +576,36 @@ class FileSender {
 	 * </pre>
 	 * 
 	 * @param args
-	 *            Array of Strings. Should contain filename of file to be sent,
-	 *            recipient host name, host port number and intended filename to
-	 *            be saved on host.
+	 *            Array of Strings. Should contain filename of file or
+	 *            directory to be sent, recipient host name, host port number
+	 *            and intended filename to be saved on host, optionally
+	 *            followed by transfer parameters.
 	 */
 	public static void main(String[] args) {
 
-		// check if the number of command line argument is 4
-		if (args.length != 3) {
-			System.out
-					.println("Usage: java FileSender <path/filename> <unreliNetPort> <rcvFileName>");
+		// check if the number of command line argument is at least 3
+		if (args.length < 3) {
+			printUsage();
 			System.exit(1);
 		}
 
 		try {
 
-			FileSender fs = new FileSender(args[0], args[1], args[2]);
-			fs.run();
+			TransferConfig config = TransferConfig.parse(args, 3);
+			Log.setLevel(config.getLogLevel());
+			if (config.getStripeCount() > 1
+					&& !new File(args[0]).isDirectory()) {
+				sendStriped(args[0], args[1], args[2], config);
+			} else {
+				FileSender fs = new FileSender(args[0], args[1], args[2],
+						config);
+				fs.run();
+			}
 
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			printUsage();
+			System.exit(1);
 		} catch (NullPointerException e) {
 			if (DEBUG_MODE) {
 				e.printStackTrace();
@@ -335,4 +615,15 @@ class FileSender {
 
 		System.exit(0);
 	}
+
+	private static void printUsage() {
+		System.out.println("Usage: java FileSender <path/filename|directory> "
+				+ "<unreliNetPort> <rcvFileName> [--window <segments>] "
+				+ "[--checksum crc32|crc32c] [--source stream|mapped] "
+				+ "[--congestion none|reno|ledbat] [--streams <count>] "
+				+ "[--stripes <count>] [--segment-size <bytes>] "
+				+ "[--delta on|off] [--compression none|deflate] "
+				+ "[--fec off|<segments>/<parity>] "
+				+ "[--log-level debug|info|warn|error|off]");
+	}
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+/**
+ *
+ * A congestion controller that always allows the whole window of the sender
+ * to be in flight, i.e. no congestion control.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public class FixedWindowController implements CongestionController {
+
+	/* Member Variables */
+	private int	_window;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param window
+	 *            number of segments that may be in flight
+	 */
+	public FixedWindowController(int window) {
+		_window = window;
+	}
+
+	/* Public methods */
+
+	@Override
+	public int getWindow() {
+		return _window;
+	}
+
+	@Override
+	public void onAck(int ackedCount) {
+	}
+
+	@Override
+	public void onDelay(int delay) {
+	}
+
+	@Override
+	public void onLoss(long sendTime) {
+	}
+
+	@Override
+	public void onCorruption(int corruptedCount) {
+	}
+
+	@Override
+	public String toString() {
+		return "Congestion window: " + getWindow() + " (fixed)\n";
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ *
+ * Arithmetic in GF(2^8), the field the parity of forward error correction is
+ * computed in. Addition is XOR; multiplication goes through a table of every
+ * product, so that multiplying a whole segment by a constant costs one
+ * lookup per byte.
+ *
+ * The parity of a group of data segments is a set of rows, row j holding the
+ * sum of every segment of the group multiplied by coefficient(j, i), i being
+ * the index of the segment in the group. The coefficients form a Cauchy
+ * matrix whose columns are scaled so that row 0 is all ones, making the
+ * first parity row the plain XOR of the group. Every square submatrix of a
+ * Cauchy matrix is invertible, and scaling columns keeps it so, hence any
+ * k segments of a group can be rebuilt from any k parity rows.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+final class GaloisField {
+
+	/* Constants */
+	// Largest number of parity rows per group, and of segments per group
+	public static final int			MAX_ROWS		= 16;
+	public static final int			MAX_GROUP_SIZE	= 256 - MAX_ROWS;
+	// x^8 + x^4 + x^3 + x^2 + 1, for which 2 generates the field
+	private static final int		POLYNOMIAL		= 0x11D;
+	private static final int[]		EXP				= new int[512];
+	private static final int[]		LOG				= new int[256];
+	// Product of every pair of elements, by first factor then second
+	private static final byte[][]	PRODUCTS		= new byte[256][256];
+
+	static {
+		int x = 1;
+		for (int i = 0; i < 255; i++) {
+			EXP[i] = x;
+			EXP[i + 255] = x;
+			LOG[x] = i;
+			x <<= 1;
+			if (x >= 256) {
+				x ^= POLYNOMIAL;
+			}
+		}
+		for (int a = 1; a < 256; a++) {
+			for (int b = 1; b < 256; b++) {
+				PRODUCTS[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+			}
+		}
+	}
+
+	/* Constructors */
+	private GaloisField() {
+	}
+
+	/* Public methods */
+
+	public static int multiply(int a, int b) {
+		return PRODUCTS[a][b] & 0xFF;
+	}
+
+	/**
+	 * Gets the multiplicative inverse of an element
+	 *
+	 * @param a
+	 *            element other than 0
+	 * @return the element whose product with a is 1
+	 */
+	public static int inverse(int a) {
+		assert (a != 0);
+		return EXP[255 - LOG[a]];
+	}
+
+	/**
+	 * Gets the coefficient a segment of a group is multiplied by in a row of
+	 * parity
+	 *
+	 * @param row
+	 *            index of the parity row, less than MAX_ROWS
+	 * @param index
+	 *            index of the segment in its group, less than MAX_GROUP_SIZE
+	 * @return the coefficient, 1 in row 0
+	 */
+	public static int coefficient(int row, int index) {
+		int y = MAX_ROWS + index;
+		return multiply(y, inverse(row ^ y));
+	}
+
+	/**
+	 * Adds a range of bytes multiplied by a constant to another range
+	 *
+	 * @param dst
+	 *            array holding the range added to
+	 * @param dstOffset
+	 *            offset of that range in dst
+	 * @param src
+	 *            array holding the range multiplied
+	 * @param srcOffset
+	 *            offset of that range in src
+	 * @param length
+	 *            length of both ranges
+	 * @param factor
+	 *            constant src is multiplied by
+	 */
+	public static void multiplyAdd(byte[] dst, int dstOffset, byte[] src,
+			int srcOffset, int length, int factor) {
+		if (factor == 1) {
+			for (int i = 0; i < length; i++) {
+				dst[dstOffset + i] ^= src[srcOffset + i];
+			}
+		} else if (factor != 0) {
+			byte[] products = PRODUCTS[factor];
+			for (int i = 0; i < length; i++) {
+				dst[dstOffset + i] ^= products[src[srcOffset + i] & 0xFF];
+			}
+		}
+	}
+
+	/**
+	 * Inverts a square matrix in place by Gauss-Jordan elimination
+	 *
+	 * @param matrix
+	 *            matrix to invert, by row then column
+	 * @return false if the matrix is singular, in which case it is left
+	 *         modified
+	 */
+	public static boolean invert(int[][] matrix) {
+		int size = matrix.length;
+		int[][] inverse = new int[size][size];
+		for (int i = 0; i < size; i++) {
+			inverse[i][i] = 1;
+		}
+
+		for (int column = 0; column < size; column++) {
+			int pivot = column;
+			while (pivot < size && matrix[pivot][column] == 0) {
+				pivot++;
+			}
+			if (pivot == size) {
+				return false;
+			}
+			swap(matrix, pivot, column);
+			swap(inverse, pivot, column);
+			int scale = inverse(matrix[column][column]);
+			for (int j = 0; j < size; j++) {
+				matrix[column][j] = multiply(matrix[column][j], scale);
+				inverse[column][j] = multiply(inverse[column][j], scale);
+			}
+			for (int row = 0; row < size; row++) {
+				int factor = matrix[row][column];
+				if (row == column || factor == 0) {
+					continue;
+				}
+				for (int j = 0; j < size; j++) {
+					matrix[row][j] ^= multiply(factor, matrix[column][j]);
+					inverse[row][j] ^= multiply(factor, inverse[column][j]);
+				}
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			System.arraycopy(inverse[i], 0, matrix[i], 0, size);
+		}
+		return true;
+	}
+
+	/* Private methods */
+
+	private static void swap(int[][] matrix, int a, int b) {
+		int[] row = matrix[a];
+		matrix[a] = matrix[b];
+		matrix[b] = row;
+	}
+}
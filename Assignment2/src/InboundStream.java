@@ -0,0 +1,754 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * One file, or one stripe of a file, being received within a session of the
+ * FileReceiver. A stream is opened by its first segment, which names the file,
+ * and keeps its own sequence numbers and reorder memory until its final
+ * segment has been received.
+ *
+ * Every segment is written straight to its place in the ReceivedFile,
+ * including segments that arrive ahead of a missing segment. Once the stream
+ * is over its reorder memory is given up; the stream itself is kept so that
+ * retransmissions can still be acknowledged.
+ *
+ * If the file holds part of the stripe from an earlier transfer, the stream
+ * offers the sender to resume after it. The segment following the first then
+ * carries the answer of the sender, and the data segments start at the
+ * offset it resumes from. The progress of the stream is recorded by the file
+ * as segments are received in order.
+ *
+ * The stripe is checksummed as it is written (see StripeDigest), so that
+ * once the stream is over it can be checked against the checksum carried by
+ * the final segment without reading it back from the file.
+ *
+ * Compressed segments are decompressed before being written, with the
+ * SegmentCompressor shared by the streams of the receiver.
+ *
+ * In a delta transfer against a basis, the stream answers requests for the
+ * signatures of the basis, and the contents arrive as delta segments, each
+ * carrying the position of the bytes it covers.
+ *
+ * A stream whose first segment announces forward error correction keeps the
+ * symbols of its data and delta segments in a ParityDecoder, which rebuilds
+ * the segments of a group that went missing once enough of its parity
+ * segments have arrived. The segments rebuilt are then received like any
+ * other.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class InboundStream {
+
+	/* Constants */
+	private static final boolean	DEBUG_MODE			= false;
+	// Sequence number of the segment holding the first bytes of the file
+	private static final int		FIRST_DATA_SEQ_NUM	= 2;
+	// Sequence number of the answer of the sender to a resume offer, which
+	// comes before the first bytes sent
+	private static final int		RESUME_SEQ_NUM		= 2;
+
+	/* Member Variables */
+	private int						_streamId;
+	private ReceivedFile			_file;
+	// Offset in the file of the first byte of the stream
+	private long					_stripeOffset;
+	// Size of the segments of the stream, settled with the sender
+	private int						_segmentSize;
+	private ChecksumType			_checksumType;
+	// Range of the stripe recorded by the file
+	private int						_range;
+	// Length and checksum of the part of the stripe offered to resume from
+	private long					_resumeOffset;
+	private int						_resumeDigest;
+	// Offset in the stripe of the bytes of the first data segment
+	private long					_resumeBase;
+	private int						_firstDataSeqNum;
+	// Basis offered for a delta transfer, 0 long if there is none
+	private long					_basisLength;
+	private int						_blockSize;
+	private int						_currSeqNum;
+	private int						_finalSeqNum;
+	// Length and checksum of the stream announced by its final segment
+	private long					_digestLength;
+	private int						_digest;
+	private ReassemblyBuffer		_outOfOrder;
+	private boolean					_finished;
+	// Data segments written to the file, each counted once
+	private int						_dataCount;
+	// Segments received in order since the last ACK, and the sequence number
+	// and one-way delay of the oldest of them
+	private int						_unackedCount;
+	private int						_unackedSeqNum;
+	private int						_unackedDelay;
+	private WheelTask				_ackTimer;
+	private SegmentCompressor		_decompressor;
+	// Whether the data segments are protected by parity segments
+	private boolean					_fec;
+	private ParityDecoder			_parityDecoder;
+	private StripeDigest			_writtenDigest;
+
+	/* Constructors */
+
+	/**
+	 * Constructor. The stream offers to resume from the range of its stripe
+	 * already in the file, if any.
+	 *
+	 * @param first
+	 *            valid first segment of the stream
+	 * @param file
+	 *            file announced by the first segment
+	 * @param segmentSize
+	 *            size of the segments of the stream accepted by the receiver
+	 * @param reorderCapacity
+	 *            number of segments accepted ahead of a missing segment
+	 */
+	public InboundStream(UDPSegment first, ReceivedFile file,
+			int segmentSize, int reorderCapacity) {
+		assert (first.getSeqNum() == 1 && first.containsFileInfo());
+		setStreamId(first.getStreamId());
+		setFile(file);
+		setStripeOffset(first.getStripeOffset());
+		setSegmentSize(segmentSize);
+		setFec(first.isFec());
+		if (isFec()) {
+			setParityDecoder(new ParityDecoder(Math.max(reorderCapacity,
+					GaloisField.MAX_GROUP_SIZE), getDataSize()));
+		}
+		setChecksumType(first.getChecksumType());
+		setCurrSeqNum(first.getSeqNum());
+		setOutOfOrder(new ReassemblyBuffer(reorderCapacity,
+				FIRST_DATA_SEQ_NUM));
+		setWrittenDigest(new StripeDigest(getChecksumType(), reorderCapacity,
+				getDataSize()));
+		setFinished(false);
+		setDataCount(0);
+		setUnackedCount(0);
+		setRange(file.openRange(getStripeOffset()));
+		setResumeBase(0);
+		offerResume();
+		setBasisLength(file.hasBasis() ? file.getBasisLength() : 0);
+		setBlockSize(file.getBlockSize());
+	}
+
+	/* Accessors and Modifiers */
+
+	public int getStreamId() {
+		return _streamId;
+	}
+
+	public void setStreamId(int streamId) {
+		_streamId = streamId;
+	}
+
+	public ReceivedFile getFile() {
+		return _file;
+	}
+
+	public void setFile(ReceivedFile file) {
+		_file = file;
+	}
+
+	public long getStripeOffset() {
+		return _stripeOffset;
+	}
+
+	public void setStripeOffset(long stripeOffset) {
+		_stripeOffset = stripeOffset;
+	}
+
+	public int getSegmentSize() {
+		return _segmentSize;
+	}
+
+	public void setSegmentSize(int segmentSize) {
+		_segmentSize = segmentSize;
+	}
+
+	public int getDataSize() {
+		int dataSize = getSegmentSize() - UDPSegment.HEADER_SIZE;
+		return isFec() ? dataSize - UDPSegment.PARITY_OVERHEAD : dataSize;
+	}
+
+	public ChecksumType getChecksumType() {
+		return _checksumType;
+	}
+
+	public void setChecksumType(ChecksumType checksumType) {
+		_checksumType = checksumType;
+	}
+
+	public int getRange() {
+		return _range;
+	}
+
+	public void setRange(int range) {
+		_range = range;
+	}
+
+	public long getResumeOffset() {
+		return _resumeOffset;
+	}
+
+	public void setResumeOffset(long resumeOffset) {
+		_resumeOffset = resumeOffset;
+	}
+
+	public int getResumeDigest() {
+		return _resumeDigest;
+	}
+
+	public void setResumeDigest(int resumeDigest) {
+		_resumeDigest = resumeDigest;
+	}
+
+	public long getResumeBase() {
+		return _resumeBase;
+	}
+
+	public void setResumeBase(long resumeBase) {
+		_resumeBase = resumeBase;
+	}
+
+	public int getFirstDataSeqNum() {
+		return _firstDataSeqNum;
+	}
+
+	public void setFirstDataSeqNum(int firstDataSeqNum) {
+		_firstDataSeqNum = firstDataSeqNum;
+	}
+
+	public long getBasisLength() {
+		return _basisLength;
+	}
+
+	public void setBasisLength(long basisLength) {
+		_basisLength = basisLength;
+	}
+
+	public int getBlockSize() {
+		return _blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		_blockSize = blockSize;
+	}
+
+	/**
+	 * Checks if the basis for a delta transfer is still to be offered, so
+	 * that ACKs of the first segment must carry it
+	 *
+	 * @return true if there is a basis and no other segment has been received
+	 */
+	public boolean hasBasisOffer() {
+		return getBasisLength() > 0 && getCurrSeqNum() < FIRST_DATA_SEQ_NUM;
+	}
+
+	/**
+	 * Checks if the sender has yet to answer the offer to resume the stream,
+	 * so that ACKs of the first segment must carry the offer
+	 *
+	 * @return true if an offer was made and its answer has not been received
+	 */
+	public boolean hasResumeOffer() {
+		return getResumeOffset() > 0 && getCurrSeqNum() < RESUME_SEQ_NUM;
+	}
+
+	public int getCurrSeqNum() {
+		return _currSeqNum;
+	}
+
+	public void setCurrSeqNum(int currSeqNum) {
+		_currSeqNum = currSeqNum;
+	}
+
+	public void incrementSeqNum() {
+		_currSeqNum++;
+	}
+
+	public int getFinalSeqNum() {
+		return _finalSeqNum;
+	}
+
+	public void setFinalSeqNum(int finalSeqNum) {
+		_finalSeqNum = finalSeqNum;
+	}
+
+	public long getDigestLength() {
+		return _digestLength;
+	}
+
+	public void setDigestLength(long digestLength) {
+		_digestLength = digestLength;
+	}
+
+	public int getDigest() {
+		return _digest;
+	}
+
+	public void setDigest(int digest) {
+		_digest = digest;
+	}
+
+	public ReassemblyBuffer getOutOfOrder() {
+		return _outOfOrder;
+	}
+
+	public void setOutOfOrder(ReassemblyBuffer outOfOrder) {
+		_outOfOrder = outOfOrder;
+	}
+
+	public boolean isFinished() {
+		return _finished;
+	}
+
+	public void setFinished(boolean finished) {
+		_finished = finished;
+	}
+
+	public int getDataCount() {
+		return _dataCount;
+	}
+
+	public void setDataCount(int dataCount) {
+		_dataCount = dataCount;
+	}
+
+	public int getUnackedCount() {
+		return _unackedCount;
+	}
+
+	public void setUnackedCount(int unackedCount) {
+		_unackedCount = unackedCount;
+	}
+
+	public int getUnackedSeqNum() {
+		return _unackedSeqNum;
+	}
+
+	public void setUnackedSeqNum(int unackedSeqNum) {
+		_unackedSeqNum = unackedSeqNum;
+	}
+
+	public int getUnackedDelay() {
+		return _unackedDelay;
+	}
+
+	public void setUnackedDelay(int unackedDelay) {
+		_unackedDelay = unackedDelay;
+	}
+
+	public WheelTask getAckTimer() {
+		return _ackTimer;
+	}
+
+	public void setAckTimer(WheelTask ackTimer) {
+		_ackTimer = ackTimer;
+	}
+
+	public SegmentCompressor getDecompressor() {
+		return _decompressor;
+	}
+
+	public void setDecompressor(SegmentCompressor decompressor) {
+		_decompressor = decompressor;
+	}
+
+	public boolean isFec() {
+		return _fec;
+	}
+
+	public void setFec(boolean fec) {
+		_fec = fec;
+	}
+
+	public ParityDecoder getParityDecoder() {
+		return _parityDecoder;
+	}
+
+	public void setParityDecoder(ParityDecoder parityDecoder) {
+		_parityDecoder = parityDecoder;
+	}
+
+	public StripeDigest getWrittenDigest() {
+		return _writtenDigest;
+	}
+
+	public void setWrittenDigest(StripeDigest writtenDigest) {
+		_writtenDigest = writtenDigest;
+	}
+
+	/**
+	 * Checks the stripe as written against the length and checksum announced
+	 * by the final segment
+	 *
+	 * @precondition the stream must be finished
+	 * @return true if the stripe matches, false if it could not be checked
+	 *         as written or does not match
+	 */
+	public boolean isWrittenIntact() {
+		return getWrittenDigest().matches(getDigestLength(), getDigest());
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Processes a valid segment of the stream. Its data is written straight
+	 * to its place in the file, even if it arrived ahead of a missing
+	 * segment. Segments too far ahead of the gap to fit in the reorder memory
+	 * are dropped, to be retransmitted by the sender, and segments arriving
+	 * after the stream is over are ignored.
+	 *
+	 * @param seg
+	 *            valid segment of this stream
+	 * @return true if the segment completed the stream, whose length and
+	 *         checksum are then known
+	 * @throws IOException
+	 *             if the data cannot be written to the file
+	 */
+	public boolean receive(UDPSegment seg) throws IOException {
+		if (isFinished()) {
+			return false;
+		}
+		int seqNum = seg.getSeqNum();
+		if (getOutOfOrder().accepts(seqNum)) {
+			if (seg.isFinal()) {
+				setFinalSeqNum(seqNum);
+				setDigestLength(seg.getDigestLength());
+				setDigest(seg.getDigest());
+			} else if (seg.isResume() && seqNum == RESUME_SEQ_NUM) {
+				resumeAt(seg.getResumeOffset());
+			} else if (seg.isSignatures()) {
+				// Answered by the ACK
+			} else if (seg.isDelta()) {
+				applyDelta(seg);
+				storeSymbol(seg);
+				_dataCount++;
+			} else if (seg.containsData()) {
+				writeToFile(seg);
+				storeSymbol(seg);
+				_dataCount++;
+			}
+			getOutOfOrder().offer(seqNum);
+		}
+		deliverSegments();
+		if (isFinished()) {
+			// Reorder memory is no longer needed
+			setOutOfOrder(null);
+			setParityDecoder(null);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Takes a parity segment of the stream, rebuilding the segments of its
+	 * group that went missing if it can
+	 *
+	 * @param parity
+	 *            valid parity segment of this stream
+	 * @return number of segments rebuilt, to be filled in with fillRebuilt
+	 */
+	public int receiveParity(UDPSegment parity) {
+		if (isFinished() || getParityDecoder() == null) {
+			return 0;
+		}
+		return getParityDecoder().receiveParity(parity, getCurrSeqNum());
+	}
+
+	/**
+	 * Turns a segment into one rebuilt by the last parity segment received,
+	 * save for its timestamp and checksum
+	 *
+	 * @param index
+	 *            index of the segment among those rebuilt
+	 * @param seg
+	 *            segment to fill in
+	 * @return false if the segment has been received since, or could not be
+	 *         rebuilt after all
+	 */
+	public boolean fillRebuilt(int index, UDPSegment seg) {
+		int seqNum = getParityDecoder().getRebuiltSeqNums()[index];
+		if (isReceived(seqNum)) {
+			return false;
+		}
+		seg.reset(getStreamId(), seqNum, UDPSegment.DATA_TYPE);
+		return getParityDecoder().fill(seqNum, seg);
+	}
+
+	/**
+	 * Checks if a segment has been received, in order or not
+	 *
+	 * @param seqNum
+	 *            sequence number of the segment
+	 * @return true if the segment has been received
+	 */
+	public boolean isReceived(int seqNum) {
+		return isDuplicate(seqNum)
+				|| (getOutOfOrder() != null && getOutOfOrder().contains(seqNum));
+	}
+
+	/**
+	 * Checks if a segment has already been written to file
+	 *
+	 * @param seqNum
+	 *            sequence number of the segment
+	 * @return true if the sequence number is not more than current sequence
+	 *         number. False otherwise.
+	 */
+	public boolean isDuplicate(int seqNum) {
+		return seqNum <= getCurrSeqNum();
+	}
+
+	/**
+	 * Checks if segments have been received ahead of a missing segment
+	 *
+	 * @return true if the reorder memory holds any segment
+	 */
+	public boolean hasGap() {
+		return getOutOfOrder() != null && getOutOfOrder().getCount() > 0;
+	}
+
+	/**
+	 * Records a segment received in order whose ACK is held back, so that it
+	 * can be acknowledged along with the segments that follow it. The oldest
+	 * segment held back is the one echoed by the ACK, so that the round trip
+	 * time measured by the sender includes the time ACKs are held back, and
+	 * its retransmission timeout covers it.
+	 *
+	 * @param seqNum
+	 *            sequence number of the segment
+	 * @param delay
+	 *            one-way delay of the segment in usec
+	 */
+	public void holdAck(int seqNum, int delay) {
+		if (getUnackedCount() == 0) {
+			setUnackedSeqNum(seqNum);
+			setUnackedDelay(delay);
+		}
+		_unackedCount++;
+	}
+
+	/**
+	 * Computes the signatures of blocks of the basis asked for by the sender
+	 *
+	 * @param firstBlock
+	 *            index of the first block
+	 * @param signatures
+	 *            array of at least UDPSegment.MAX_SIGNATURES * 2 to write the
+	 *            weak and strong checksum of each block into
+	 * @return number of blocks whose signatures were written, none once the
+	 *         stream is over
+	 * @throws IOException
+	 *             if the basis cannot be read
+	 */
+	public int fillSignatures(int firstBlock, int[] signatures)
+			throws IOException {
+		if (getFile() == null) {
+			return 0;
+		}
+		return getFile().fillSignatures(firstBlock, getChecksumType(),
+				signatures);
+	}
+
+	/**
+	 * Describes the buffered segments as ranges of consecutive sequence
+	 * numbers. The range holding the segment that caused the ACK comes first,
+	 * as it is the newest information for the sender. The remaining ranges
+	 * follow in order, up to the maximum an ACK can carry.
+	 *
+	 * @param echoSeqNum
+	 *            sequence number of the segment that caused the ACK
+	 * @param blocks
+	 *            array to write the start and end of each block into
+	 * @return number of blocks written into the SACK block array
+	 */
+	public int fillSackBlocks(int echoSeqNum, int[] blocks) {
+		ReassemblyBuffer outOfOrder = getOutOfOrder();
+		if (outOfOrder == null) {
+			return 0;
+		}
+		int count = 0;
+		int start = -1;
+		int end = -1;
+
+		if (outOfOrder.contains(echoSeqNum)) {
+			start = echoSeqNum;
+			end = echoSeqNum;
+			while (outOfOrder.contains(start - 1)) {
+				start--;
+			}
+			while (outOfOrder.contains(end + 1)) {
+				end++;
+			}
+			blocks[0] = start;
+			blocks[1] = end;
+			count++;
+		}
+		int echoStart = start;
+
+		int seqNum = outOfOrder.getNextSeqNum();
+		while (seqNum <= outOfOrder.getHighestSeqNum()
+				&& count < UDPSegment.MAX_SACK_BLOCKS) {
+			if (!outOfOrder.contains(seqNum)) {
+				seqNum++;
+				continue;
+			}
+			start = seqNum;
+			while (outOfOrder.contains(seqNum + 1)) {
+				seqNum++;
+			}
+			if (start != echoStart) {
+				blocks[count * 2] = start;
+				blocks[count * 2 + 1] = seqNum;
+				count++;
+			}
+			seqNum++;
+		}
+		return count;
+	}
+
+	/* Private Methods */
+
+	/**
+	 * Offers to resume from the range of the stripe the file holds, rounded
+	 * down to whole data segments, along with its checksum. Without a range
+	 * to offer, the data starts right after the first segment.
+	 */
+	private void offerResume() {
+		long offset = getFile().getRangeLength(getRange());
+		offset -= offset % getDataSize();
+		if (offset > 0) {
+			try {
+				setResumeDigest(getFile().checksumRange(getStripeOffset(),
+						offset, getChecksumType()));
+				setResumeOffset(offset);
+				setFirstDataSeqNum(RESUME_SEQ_NUM + 1);
+				return;
+			} catch (IOException e) {
+				if (DEBUG_MODE) {
+					e.printStackTrace();
+				}
+			}
+		}
+		setResumeOffset(0);
+		setFirstDataSeqNum(FIRST_DATA_SEQ_NUM);
+		getFile().recordProgress(getRange(), 0);
+	}
+
+	/**
+	 * Takes the answer of the sender to the offer to resume. The sender
+	 * either resumes from the offset offered, or declines and starts over
+	 * from the start of the stripe.
+	 *
+	 * @param offset
+	 *            offset in the stripe the sender resumes from
+	 */
+	private void resumeAt(long offset) {
+		if (offset != getResumeOffset()) {
+			offset = 0;
+		}
+		Log.log(LogLevel.DEBUG, "Stream {} resumes at {}", getStreamId(),
+				offset);
+		setResumeBase(offset);
+		if (offset > 0) {
+			getWrittenDigest().start(offset, getResumeDigest());
+		}
+		getFile().recordProgress(getRange(), offset);
+	}
+
+	/**
+	 * Moves the current sequence number past the segments received that
+	 * directly follow it, folding the data segments into the checksum of the
+	 * stripe, and records the progress of the stripe. Reaching the final
+	 * segment ends the stream.
+	 */
+	private void deliverSegments() {
+		int prevSeqNum = getCurrSeqNum();
+		int seqNum;
+		while ((seqNum = getOutOfOrder().poll()) != 0) {
+			if (seqNum >= getFirstDataSeqNum() && seqNum != getFinalSeqNum()) {
+				getWrittenDigest().deliver(seqNum);
+			}
+			incrementSeqNum();
+			if (getCurrSeqNum() == getFinalSeqNum()) {
+				setFinished(true);
+				return;
+			}
+		}
+		if (getCurrSeqNum() != prevSeqNum
+				&& getCurrSeqNum() >= getFirstDataSeqNum()) {
+			getFile().recordProgress(getRange(), getResumeBase()
+					+ (long) (getCurrSeqNum() - getFirstDataSeqNum() + 1)
+					* getDataSize());
+		}
+	}
+
+	/**
+	 * Keeps the symbol of a data or delta segment, for the parity of its
+	 * group to be checked against
+	 *
+	 * @param seg
+	 *            data or delta segment of the stream
+	 */
+	private void storeSymbol(UDPSegment seg) {
+		if (getParityDecoder() != null) {
+			getParityDecoder().store(seg);
+		}
+	}
+
+	/**
+	 * Writes the literal bytes of a delta segment and copies the blocks of
+	 * the basis it refers to into the file
+	 *
+	 * @param seg
+	 *            delta segment of the stream
+	 * @throws IOException
+	 *             if the file cannot be written or the basis read
+	 */
+	private void applyDelta(UDPSegment seg) throws IOException {
+		ReceivedFile file = getFile();
+		if (!file.hasBasis()
+				|| !seg.applyDelta(file.getFileChannel(),
+						file.getBasisChannel(), file.getBlockSize())) {
+			// Caught by the check of the file once it is complete
+			Log.log(LogLevel.DEBUG, "Malformed delta segment {} of stream {}",
+					seg.getSeqNum(), getStreamId());
+		}
+	}
+
+	/**
+	 * Method to write data from the buffer of a segment into file on local
+	 * directory, at the position given by the stripe, the offset resumed
+	 * from, its sequence number and the data size of the stream. The data
+	 * written is checksummed on the way.
+	 *
+	 * @param seg
+	 *            segment holding the data to write into file
+	 * @throws IOException
+	 *             if the data cannot be written
+	 */
+	private void writeToFile(UDPSegment seg) throws IOException {
+		long position = getStripeOffset() + getResumeBase()
+				+ (long) (seg.getSeqNum() - getFirstDataSeqNum())
+				* getDataSize();
+		if (!seg.isCompressed()) {
+			seg.writeData(getFile().getFileChannel(), position);
+			getWrittenDigest().add(seg);
+			return;
+		}
+		ByteBuffer data = getDecompressor().decompress(seg, getDataSize());
+		if (data == null) {
+			// Caught by the check of the file once it is complete
+			Log.log(LogLevel.DEBUG,
+					"Malformed compressed segment {} of stream {}",
+					seg.getSeqNum(), getStreamId());
+			return;
+		}
+		getWrittenDigest().add(seg.getSeqNum(), data);
+		while (data.hasRemaining()) {
+			getFile().getFileChannel().write(data, position + data.position());
+		}
+	}
+}
@@ -0,0 +1,258 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Delay based congestion control following LEDBAT (RFC 6817), for transfers
+ * that should only use capacity no other traffic needs.
+ *
+ * The one-way delay of each segment is made up of a fixed base delay and the
+ * time the segment spent queued along the path. The base delay is estimated
+ * as the smallest delay seen over the last few minutes, and the queuing delay
+ * as the smallest of the last few delays minus the base delay. The window
+ * grows while the queuing delay is below TARGET and shrinks in proportion as
+ * it rises above, so that the transfer yields to other traffic as soon as it
+ * starts to build a queue, well before any loss.
+ *
+ * Losses halve the window as in Reno, once per loss event, except for those
+ * blamed on corruption reported by the receiver, up to one window of them.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public class LedbatController implements CongestionController {
+
+	/* Constants */
+	// Queuing delay the transfer aims for in usec
+	public static final int		TARGET			= 100000;
+	// Window growth per window of segments acknowledged at zero queuing delay
+	private static final double	GAIN			= 1.0;
+	// Window at the start of a transfer and smallest window in segments
+	public static final int		INITIAL_WINDOW	= 2;
+	public static final int		MIN_WINDOW		= 2;
+	// Number of delays the current delay is the smallest of
+	private static final int	CURRENT_FILTER	= 4;
+	// Number of intervals of BASE_INTERVAL the base delay is the smallest of
+	private static final int	BASE_HISTORY	= 10;
+	private static final long	BASE_INTERVAL	= TimeUnit.MINUTES.toNanos(1);
+
+	/* Member Variables */
+	private int					_maxWindow;
+	private double				_window;
+	private int[]				_currentDelays;
+	private int					_currentIndex;
+	private int					_currentCount;
+	private int[]				_baseDelays;
+	private int					_baseCount;
+	// Time the current interval of the base delay history started in nsec
+	private long				_baseIntervalStart;
+	// Timeouts still to be blamed on corruption
+	private int					_corruptedCount;
+	// Time of the last decrease in nsec
+	private long				_lastDecrease;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxWindow
+	 *            largest window allowed in segments
+	 */
+	public LedbatController(int maxWindow) {
+		setMaxWindow(maxWindow);
+		setWindow(Math.min(INITIAL_WINDOW, maxWindow));
+		setCurrentDelays(new int[CURRENT_FILTER]);
+		setCurrentIndex(0);
+		setCurrentCount(0);
+		setBaseDelays(new int[BASE_HISTORY]);
+		setBaseCount(0);
+		setBaseIntervalStart(System.nanoTime());
+		setCorruptedCount(0);
+		setLastDecrease(System.nanoTime());
+	}
+
+	/* Accessors and Modifiers */
+
+	public int getMaxWindow() {
+		return _maxWindow;
+	}
+
+	public void setMaxWindow(int maxWindow) {
+		_maxWindow = maxWindow;
+	}
+
+	@Override
+	public int getWindow() {
+		return Math.max(1, (int) _window);
+	}
+
+	public void setWindow(double window) {
+		_window = window;
+	}
+
+	public int[] getCurrentDelays() {
+		return _currentDelays;
+	}
+
+	public void setCurrentDelays(int[] currentDelays) {
+		_currentDelays = currentDelays;
+	}
+
+	public int getCurrentIndex() {
+		return _currentIndex;
+	}
+
+	public void setCurrentIndex(int currentIndex) {
+		_currentIndex = currentIndex;
+	}
+
+	public int getCurrentCount() {
+		return _currentCount;
+	}
+
+	public void setCurrentCount(int currentCount) {
+		_currentCount = currentCount;
+	}
+
+	public int[] getBaseDelays() {
+		return _baseDelays;
+	}
+
+	public void setBaseDelays(int[] baseDelays) {
+		_baseDelays = baseDelays;
+	}
+
+	public int getBaseCount() {
+		return _baseCount;
+	}
+
+	public void setBaseCount(int baseCount) {
+		_baseCount = baseCount;
+	}
+
+	public long getBaseIntervalStart() {
+		return _baseIntervalStart;
+	}
+
+	public void setBaseIntervalStart(long baseIntervalStart) {
+		_baseIntervalStart = baseIntervalStart;
+	}
+
+	public int getCorruptedCount() {
+		return _corruptedCount;
+	}
+
+	public void setCorruptedCount(int corruptedCount) {
+		_corruptedCount = corruptedCount;
+	}
+
+	public long getLastDecrease() {
+		return _lastDecrease;
+	}
+
+	public void setLastDecrease(long lastDecrease) {
+		_lastDecrease = lastDecrease;
+	}
+
+	/**
+	 * Gets the current estimate of the queuing delay
+	 *
+	 * @return queuing delay in usec, 0 before any delay has been measured
+	 */
+	public int getQueuingDelay() {
+		if (getCurrentCount() == 0) {
+			return 0;
+		}
+		return minimum(getCurrentDelays(), getCurrentCount())
+				- minimum(getBaseDelays(), getBaseCount());
+	}
+
+	/* Public methods */
+
+	@Override
+	public void onAck(int ackedCount) {
+		double offTarget = (double) (TARGET - getQueuingDelay()) / TARGET;
+		_window += GAIN * offTarget * ackedCount / _window;
+		setWindow(Math.min(Math.max(_window, MIN_WINDOW), getMaxWindow()));
+	}
+
+	@Override
+	public void onDelay(int delay) {
+		// Current delays are kept in a ring of the last CURRENT_FILTER
+		getCurrentDelays()[getCurrentIndex()] = delay;
+		setCurrentIndex((getCurrentIndex() + 1) % CURRENT_FILTER);
+		if (getCurrentCount() < CURRENT_FILTER) {
+			_currentCount++;
+		}
+
+		// Base delays are kept as the smallest delay of each interval, the
+		// latest interval last
+		long now = System.nanoTime();
+		if (getBaseCount() == 0) {
+			getBaseDelays()[0] = delay;
+			setBaseCount(1);
+			setBaseIntervalStart(now);
+		} else if (now - getBaseIntervalStart() >= BASE_INTERVAL) {
+			if (getBaseCount() == BASE_HISTORY) {
+				System.arraycopy(getBaseDelays(), 1, getBaseDelays(), 0,
+						BASE_HISTORY - 1);
+				_baseCount--;
+			}
+			getBaseDelays()[getBaseCount()] = delay;
+			_baseCount++;
+			setBaseIntervalStart(now);
+		} else if (delay - getBaseDelays()[getBaseCount() - 1] < 0) {
+			getBaseDelays()[getBaseCount() - 1] = delay;
+		}
+	}
+
+	@Override
+	public void onLoss(long sendTime) {
+		if (getCorruptedCount() > 0) {
+			_corruptedCount--;
+			return;
+		}
+		if (sendTime - getLastDecrease() < 0) {
+			return;
+		}
+		setWindow(Math.max(_window / 2, MIN_WINDOW));
+		setLastDecrease(System.nanoTime());
+	}
+
+	@Override
+	public void onCorruption(int corruptedCount) {
+		// No more timeouts than a window can be pending at once
+		setCorruptedCount(Math.min(getCorruptedCount() + corruptedCount,
+				getWindow()));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append("Congestion window: " + getWindow() + "\n");
+		result.append("Queuing delay: " + getQueuingDelay() + " usec\n");
+		return result.toString();
+	}
+
+	/* Private methods */
+
+	/**
+	 * Finds the smallest of a number of delays. Delays are compared by their
+	 * difference, so that a clock wrapping around does not upset the order.
+	 *
+	 * @param delays
+	 *            array holding the delays
+	 * @param count
+	 *            number of delays held, from the start of the array
+	 * @return the smallest delay
+	 */
+	private static int minimum(int[] delays, int count) {
+		int result = delays[0];
+		for (int i = 1; i < count; i++) {
+			if (delays[i] - result < 0) {
+				result = delays[i];
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,230 @@
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * Diagnostics of the sender, receiver and UnreliNET, written to standard
+ * output by a background thread so that the threads moving segments never
+ * wait on the console. A message below the level of the log costs a single
+ * comparison; otherwise it is placed in a ring of CAPACITY entries, along
+ * with up to MAX_ARGS numbers, and only formatted once the background thread
+ * takes it out. Each "{}" in the message is replaced by the next number.
+ * Callers build a message from anything other than numbers only after
+ * checking isEnabled. Failures are logged along with their stack trace,
+ * which is built by the caller, as failures are rare.
+ *
+ * Writers claim an entry by moving the tail of the ring forward with a
+ * compare and set, fill it, and publish it by setting its sequence number,
+ * so that any number of threads can write without a lock. The background
+ * thread takes entries out in order as they are published, every
+ * DRAIN_INTERVAL. When the ring is full, messages are dropped rather than
+ * waited for, and the number dropped is written in their place. Whatever is
+ * left in the ring is written when the program exits.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+final class Log {
+
+	/* Constants */
+	// Number of entries in the ring, a power of 2
+	private static final int			CAPACITY		= 1 << 13;
+	private static final int			MASK			= CAPACITY - 1;
+	// Largest number of numbers carried by a message
+	private static final int			MAX_ARGS		= 4;
+	private static final String			PLACEHOLDER		= "{}";
+	// Time between two passes of the background thread in nsec
+	private static final long			DRAIN_INTERVAL	= 1000000L;
+
+	// Sequence number of the message held by each entry plus 1, once it has
+	// been published
+	private static final AtomicLongArray	SEQUENCES	= new AtomicLongArray(
+															CAPACITY);
+	private static final String[]		MESSAGES		= new String[CAPACITY];
+	private static final long[]			ARGS			= new long[CAPACITY
+															* MAX_ARGS];
+	private static final int[]			ARG_COUNTS		= new int[CAPACITY];
+	// Sequence number of the next message to claim, and to take out
+	private static final AtomicLong		TAIL			= new AtomicLong();
+	private static final AtomicLong		HEAD			= new AtomicLong();
+	private static final AtomicLong		DROPPED			= new AtomicLong();
+	// Text of the messages taken out in a pass, used by one thread at a time
+	private static final StringBuilder	OUTPUT			= new StringBuilder();
+
+	/* Member Variables */
+	private static volatile LogLevel	_level			= LogLevel.INFO;
+
+	static {
+		Thread drainer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					drain();
+					LockSupport.parkNanos(DRAIN_INTERVAL);
+				}
+			}
+		}, "log");
+		drainer.setDaemon(true);
+		drainer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}));
+	}
+
+	/* Constructors */
+	private Log() {
+	}
+
+	/* Accessors and Modifiers */
+
+	public static LogLevel getLevel() {
+		return _level;
+	}
+
+	public static void setLevel(LogLevel level) {
+		_level = level;
+	}
+
+	/**
+	 * Checks if messages of a level are written
+	 *
+	 * @param level
+	 *            level of the messages
+	 * @return true if the level is at least that of the log
+	 */
+	public static boolean isEnabled(LogLevel level) {
+		return level.getId() >= getLevel().getId() && level != LogLevel.OFF;
+	}
+
+	/* Public methods */
+
+	public static void log(LogLevel level, String message) {
+		if (isEnabled(level)) {
+			write(message, 0, 0, 0, 0, 0);
+		}
+	}
+
+	public static void log(LogLevel level, String message, long arg) {
+		if (isEnabled(level)) {
+			write(message, 1, arg, 0, 0, 0);
+		}
+	}
+
+	public static void log(LogLevel level, String message, long arg1,
+			long arg2) {
+		if (isEnabled(level)) {
+			write(message, 2, arg1, arg2, 0, 0);
+		}
+	}
+
+	public static void log(LogLevel level, String message, long arg1,
+			long arg2, long arg3) {
+		if (isEnabled(level)) {
+			write(message, 3, arg1, arg2, arg3, 0);
+		}
+	}
+
+	public static void log(LogLevel level, String message, long arg1,
+			long arg2, long arg3, long arg4) {
+		if (isEnabled(level)) {
+			write(message, 4, arg1, arg2, arg3, arg4);
+		}
+	}
+
+	/**
+	 * Logs a failure along with its stack trace
+	 *
+	 * @param level
+	 *            level of the message
+	 * @param message
+	 *            what failed
+	 * @param cause
+	 *            exception thrown by the failure
+	 */
+	public static void log(LogLevel level, String message, Throwable cause) {
+		if (isEnabled(level)) {
+			StringWriter trace = new StringWriter();
+			cause.printStackTrace(new PrintWriter(trace));
+			write(message + ": " + trace.toString().trim(), 0, 0, 0, 0, 0);
+		}
+	}
+
+	/* Private methods */
+
+	/**
+	 * Places a message in the ring, or drops it if the ring is full
+	 */
+	private static void write(String message, int argCount, long arg1,
+			long arg2, long arg3, long arg4) {
+		long seqNum;
+		do {
+			seqNum = TAIL.get();
+			if (seqNum - HEAD.get() >= CAPACITY) {
+				DROPPED.incrementAndGet();
+				return;
+			}
+		} while (!TAIL.compareAndSet(seqNum, seqNum + 1));
+
+		int slot = (int) seqNum & MASK;
+		MESSAGES[slot] = message;
+		ARG_COUNTS[slot] = argCount;
+		ARGS[slot * MAX_ARGS] = arg1;
+		ARGS[slot * MAX_ARGS + 1] = arg2;
+		ARGS[slot * MAX_ARGS + 2] = arg3;
+		ARGS[slot * MAX_ARGS + 3] = arg4;
+		SEQUENCES.lazySet(slot, seqNum + 1);
+	}
+
+	/**
+	 * Takes every message published so far out of the ring, in order, and
+	 * writes them to standard output at once
+	 */
+	private static synchronized void drain() {
+		StringBuilder output = OUTPUT;
+		long head = HEAD.get();
+		while (true) {
+			int slot = (int) head & MASK;
+			if (SEQUENCES.get(slot) != head + 1) {
+				break;
+			}
+			format(output, slot);
+			MESSAGES[slot] = null;
+			head++;
+			HEAD.lazySet(head);
+		}
+		long dropped = DROPPED.getAndSet(0);
+		if (dropped > 0) {
+			output.append(dropped).append(" log messages dropped\n");
+		}
+		if (output.length() > 0) {
+			System.out.print(output);
+			System.out.flush();
+			output.setLength(0);
+		}
+	}
+
+	/**
+	 * Appends the message of an entry, its placeholders replaced by its
+	 * numbers, followed by a line break
+	 */
+	private static void format(StringBuilder output, int slot) {
+		String message = MESSAGES[slot];
+		int start = 0;
+		for (int i = 0; i < ARG_COUNTS[slot]; i++) {
+			int placeholder = message.indexOf(PLACEHOLDER, start);
+			if (placeholder < 0) {
+				break;
+			}
+			output.append(message, start, placeholder);
+			output.append(ARGS[slot * MAX_ARGS + i]);
+			start = placeholder + PLACEHOLDER.length();
+		}
+		output.append(message, start, message.length()).append('\n');
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ *
+ * The levels of the messages written to the Log, from the most verbose. A
+ * message is only written if its level is at least the level of the Log,
+ * which is chosen on the command line of the sender or receiver.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public enum LogLevel {
+
+	DEBUG(0), INFO(1), WARN(2), ERROR(3), OFF(4);
+
+	/* Member Variables */
+	private final int	_id;
+
+	/* Constructors */
+	private LogLevel(int id) {
+		_id = id;
+	}
+
+	/* Accessors */
+
+	public int getId() {
+		return _id;
+	}
+
+	/* Public methods */
+
+	/**
+	 * Finds the level with the given name, ignoring case
+	 *
+	 * @param name
+	 *            name of the level, such as "debug"
+	 * @return the level
+	 * @throws IllegalArgumentException
+	 *             if there is no level with that name
+	 */
+	public static LogLevel parse(String name) {
+		return valueOf(name.toUpperCase());
+	}
+}
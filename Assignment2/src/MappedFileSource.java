@@ -0,0 +1,172 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * Supplies the contents of a file to segments straight from a memory mapping
+ * of the file. The contents of each segment are attached to it as a slice of
+ * the mapping, so that reading, checksumming and sending a segment never copy
+ * the data onto the heap, and a retransmission sends the same slice again.
+ *
+ * A single mapping is limited to 2GB, so larger files are mapped in regions.
+ * Regions are mapped when first used and hold a whole number of slices
+ * counted from the origin, the first byte a stream sends, so that no segment
+ * spans two regions whatever the segment size settled for the stream.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public class MappedFileSource {
+
+	/* Constants */
+	// Upper bound on the size of a single mapping in bytes
+	private static final long		MAX_REGION_SIZE	= 1L << 30;
+
+	/* Member Variables */
+	private FileChannel				_fileChannel;
+	private long					_size;
+	// Position in the file of the first slice
+	private long					_origin;
+	private int						_sliceSize;
+	private long					_regionSize;
+	private MappedByteBuffer[]		_regions;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 *            file to read from
+	 * @param origin
+	 *            position in the file of the first slice
+	 * @param sliceSize
+	 *            maximum number of bytes attached to a segment
+	 * @throws IOException
+	 *             if the file could not be opened
+	 */
+	public MappedFileSource(File file, long origin, int sliceSize)
+			throws IOException {
+		setFileChannel(FileChannel.open(file.toPath(),
+				StandardOpenOption.READ));
+		setSize(getFileChannel().size());
+		setOrigin(origin);
+		setSliceSize(sliceSize);
+		setRegionSize(MAX_REGION_SIZE / sliceSize * sliceSize);
+		int regionCount = (int) ((Math.max(getSize() - origin, 0)
+				+ getRegionSize() - 1) / getRegionSize());
+		setRegions(new MappedByteBuffer[regionCount]);
+	}
+
+	/* Accessors and Modifiers */
+
+	public FileChannel getFileChannel() {
+		return _fileChannel;
+	}
+
+	public void setFileChannel(FileChannel fileChannel) {
+		_fileChannel = fileChannel;
+	}
+
+	public long getSize() {
+		return _size;
+	}
+
+	public void setSize(long size) {
+		_size = size;
+	}
+
+	public long getOrigin() {
+		return _origin;
+	}
+
+	public void setOrigin(long origin) {
+		_origin = origin;
+	}
+
+	public int getSliceSize() {
+		return _sliceSize;
+	}
+
+	public void setSliceSize(int sliceSize) {
+		_sliceSize = sliceSize;
+	}
+
+	public long getRegionSize() {
+		return _regionSize;
+	}
+
+	public void setRegionSize(long regionSize) {
+		_regionSize = regionSize;
+	}
+
+	public MappedByteBuffer[] getRegions() {
+		return _regions;
+	}
+
+	public void setRegions(MappedByteBuffer[] regions) {
+		_regions = regions;
+	}
+
+	/* Public methods */
+
+	/**
+	 * Attaches the slice of the file starting at the given position to a
+	 * segment
+	 *
+	 * @param position
+	 *            position in the file, a multiple of the slice size past the
+	 *            origin
+	 * @param seg
+	 *            segment to attach the slice to
+	 * @return number of bytes attached, 0 at the end of the file
+	 * @throws IOException
+	 *             if the region holding the slice could not be mapped
+	 */
+	public int slice(long position, UDPSegment seg) throws IOException {
+		assert ((position - getOrigin()) % getSliceSize() == 0);
+		if (position >= getSize()) {
+			seg.setDataLen(0);
+			return 0;
+		}
+		int index = (int) ((position - getOrigin()) / getRegionSize());
+		int length = (int) Math.min(getSliceSize(), getSize() - position);
+		int offset = (int) (position - getOrigin() - index * getRegionSize());
+		seg.attachData(region(index), offset, length);
+		return length;
+	}
+
+	/**
+	 * Closes the file. Mappings stay valid until they are garbage collected.
+	 *
+	 * @throws IOException
+	 *             if the file could not be closed
+	 */
+	public void close() throws IOException {
+		getFileChannel().close();
+	}
+
+	/* Private methods */
+
+	/**
+	 * Gets a region of the file, mapping it if it has not been used yet
+	 *
+	 * @param index
+	 *            index of the region
+	 * @return mapping of the region
+	 * @throws IOException
+	 *             if the region could not be mapped
+	 */
+	private MappedByteBuffer region(int index) throws IOException {
+		if (getRegions()[index] == null) {
+			long start = getOrigin() + index * getRegionSize();
+			long length = Math.min(getRegionSize(), getSize() - start);
+			getRegions()[index] = getFileChannel().map(
+					FileChannel.MapMode.READ_ONLY, start, length);
+		}
+		return getRegions()[index];
+	}
+}
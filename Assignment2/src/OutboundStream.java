@@ -0,0 +1,985 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Checksum;
+
+/**
+ *
+ * One file being sent within a session of the FileSender. A stream has its
+ * own sequence numbers, window and retransmission timers, and goes through
+ * the stages of a single file transfer: the filename, then the contents, then
+ * the final segment. The channel, the event loop, the round trip time
+ * and the congestion window belong to the session and are shared by all of
+ * its streams, since they all travel the same path.
+ *
+ * A stream sends either a whole file or a stripe of it, a range of bytes,
+ * the other stripes being sent by other streams. The bytes sent are checksummed as they are first read, and
+ * the checksum is carried by the final segment, so that the receiver can
+ * check the file once all of its stripes have arrived.
+ *
+ * The first segment of a stream is no larger than FileSender.MSS and proposes
+ * the segment size configured for the session. The receiver answers with the
+ * size it accepts, and the contents of the file are sent in segments of that
+ * size, so that a transfer over a path with large datagrams needs far fewer
+ * segments.
+ *
+ * The receiver may answer the first segment with an offer to resume after
+ * part of the stripe it already holds from an earlier transfer. The stream
+ * reads that part of the file into its checksum and compares it with the
+ * checksum offered, then answers with the offset it resumes from, or 0 if
+ * the part held by the receiver differs from the file. The contents are sent
+ * once the answer has been acknowledged.
+ *
+ * In a delta transfer the receiver may instead answer with the basis it holds
+ * for the file. The stream then requests the signatures of the blocks of the
+ * basis, and sends the contents as delta segments built by a DeltaEncoder,
+ * copying from the basis whatever the file shares with it.
+ *
+ * With compression configured, the payload of each data segment is
+ * compressed on its own once it has been checksummed, unless it does not
+ * look compressible or compressing it saves too little (see
+ * SegmentCompressor).
+ *
+ * With forward error correction configured, the contents are sent in groups
+ * of consecutive segments, each followed by parity segments computed by a
+ * ParityEncoder, from which the receiver rebuilds up to as many lost or
+ * corrupted segments of the group without waiting for their retransmission.
+ * A group is cut short whenever nothing more can be sent until the receiver
+ * answers. Parity segments are sent once and never retransmitted, and are
+ * not counted against the window or the congestion window.
+ *
+ * The window and timers of a stream are only allocated once it is started, so
+ * that a session can hold a stream for every file of a large directory tree
+ * while only a few are in flight.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class OutboundStream {
+
+	/* Constants */
+	private static final boolean	DEBUG_MODE		= false;
+	// Time to wait for the ACK of the final segment before giving up in msec
+	private static final int		FIN_TIMEOUT		= 3000;
+	// Sequence number of the answer to a resume offer of the receiver
+	private static final int		RESUME_SEQ_NUM	= 2;
+
+	/* Member Variables */
+	private FileSender				_session;
+	private int						_streamId;
+	private File					_fileToSend;
+	private String					_targetFilename;
+	// Range of the file sent by the stream
+	private long					_stripeOffset;
+	private long					_stripeLength;
+	private int						_stripeCount;
+	// Size of the segments of the stream, settled with the receiver
+	private int						_segmentSize;
+	// Checksum of the bytes of the stream read so far
+	private Checksum				_digest;
+	// Length and checksum of the part of the stripe the receiver offers to
+	// resume after, 0 if there is no offer
+	private long					_resumeOffset;
+	private int						_resumeDigest;
+	private int						_currSeqNum;
+	private int						_sendBase;
+	private UDPSegment[]			_window;
+	private TimeoutHandler[]		_timeoutHandlers;
+	private State					_state;
+	private FileInputStream			_fis;
+	private BufferedInputStream		_fileReader;
+	private MappedFileSource		_mappedSource;
+	// Encoder of the contents against the basis of the receiver, null unless
+	// the receiver offered one
+	private DeltaEncoder			_deltaEncoder;
+	// Compressor of the payload of data segments, null without compression
+	private SegmentCompressor		_compressor;
+	private ParityEncoder			_parityEncoder;
+	// Bytes of the stripe read so far
+	private long					_fileOffset;
+	private boolean					_hasMoreData;
+	private WheelTask				_finTimer;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param session
+	 *            session the stream belongs to
+	 * @param streamId
+	 *            id of the stream within the session
+	 * @param fileToSend
+	 *            file to send
+	 * @param targetFilename
+	 *            name to be used to store the file on the host's end
+	 * @param stripeOffset
+	 *            offset of the first byte to send
+	 * @param stripeLength
+	 *            number of bytes to send
+	 * @param stripeCount
+	 *            number of streams the file is split into
+	 */
+	public OutboundStream(FileSender session, int streamId, File fileToSend,
+			String targetFilename, long stripeOffset, long stripeLength,
+			int stripeCount) {
+		setSession(session);
+		setStreamId(streamId);
+		setFileToSend(fileToSend);
+		setTargetFilename(targetFilename);
+		setStripeOffset(stripeOffset);
+		setStripeLength(stripeLength);
+		setStripeCount(stripeCount);
+		setSegmentSize(FileSender.MSS);
+		setResumeOffset(0);
+		setCurrSeqNum(1);	// First segment will start with sequence number of 1
+		setSendBase(1);
+		setState(State.IDLE);
+		setHasMoreData(true);
+	}
+
+	/* Accessors and Modifiers */
+
+	public FileSender getSession() {
+		return _session;
+	}
+
+	public void setSession(FileSender session) {
+		_session = session;
+	}
+
+	public int getStreamId() {
+		return _streamId;
+	}
+
+	public void setStreamId(int streamId) {
+		_streamId = streamId;
+	}
+
+	public File getFileToSend() {
+		return _fileToSend;
+	}
+
+	public void setFileToSend(File fileToSend) {
+		_fileToSend = fileToSend;
+	}
+
+	public String getTargetFilename() {
+		return _targetFilename;
+	}
+
+	public void setTargetFilename(String targetFilename) {
+		_targetFilename = targetFilename;
+	}
+
+	public long getStripeOffset() {
+		return _stripeOffset;
+	}
+
+	public void setStripeOffset(long stripeOffset) {
+		_stripeOffset = stripeOffset;
+	}
+
+	public long getStripeLength() {
+		return _stripeLength;
+	}
+
+	public void setStripeLength(long stripeLength) {
+		_stripeLength = stripeLength;
+	}
+
+	public int getStripeCount() {
+		return _stripeCount;
+	}
+
+	public void setStripeCount(int stripeCount) {
+		_stripeCount = stripeCount;
+	}
+
+	public int getSegmentSize() {
+		return _segmentSize;
+	}
+
+	public void setSegmentSize(int segmentSize) {
+		_segmentSize = segmentSize;
+	}
+
+	public int getDataSize() {
+		int dataSize = getSegmentSize() - UDPSegment.HEADER_SIZE;
+		return getSession().getConfig().isFec() ? dataSize
+				- UDPSegment.PARITY_OVERHEAD : dataSize;
+	}
+
+	public Checksum getDigest() {
+		return _digest;
+	}
+
+	public void setDigest(Checksum digest) {
+		_digest = digest;
+	}
+
+	public long getResumeOffset() {
+		return _resumeOffset;
+	}
+
+	public void setResumeOffset(long resumeOffset) {
+		_resumeOffset = resumeOffset;
+	}
+
+	public int getResumeDigest() {
+		return _resumeDigest;
+	}
+
+	public void setResumeDigest(int resumeDigest) {
+		_resumeDigest = resumeDigest;
+	}
+
+	public int getCurrSeqNum() {
+		return _currSeqNum;
+	}
+
+	public void setCurrSeqNum(int currSeqNum) {
+		_currSeqNum = currSeqNum;
+	}
+
+	public void incrementSeqNum() {
+		_currSeqNum++;
+	}
+
+	public int getSendBase() {
+		return _sendBase;
+	}
+
+	public void setSendBase(int sendBase) {
+		_sendBase = sendBase;
+	}
+
+	public UDPSegment[] getWindow() {
+		return _window;
+	}
+
+	public void setWindow(UDPSegment[] window) {
+		_window = window;
+	}
+
+	public TimeoutHandler[] getTimeoutHandlers() {
+		return _timeoutHandlers;
+	}
+
+	public void setTimeoutHandlers(TimeoutHandler[] timeoutHandlers) {
+		_timeoutHandlers = timeoutHandlers;
+	}
+
+	public State getState() {
+		return _state;
+	}
+
+	public void setState(State state) {
+		_state = state;
+	}
+
+	public boolean isDone() {
+		return getState() == State.DONE;
+	}
+
+	public FileInputStream getFis() {
+		return _fis;
+	}
+
+	public void setFis(FileInputStream fis) {
+		_fis = fis;
+	}
+
+	public BufferedInputStream getFileReader() {
+		return _fileReader;
+	}
+
+	public void setFileReader(BufferedInputStream fileReader) {
+		_fileReader = fileReader;
+	}
+
+	public MappedFileSource getMappedSource() {
+		return _mappedSource;
+	}
+
+	public void setMappedSource(MappedFileSource mappedSource) {
+		_mappedSource = mappedSource;
+	}
+
+	public DeltaEncoder getDeltaEncoder() {
+		return _deltaEncoder;
+	}
+
+	public void setDeltaEncoder(DeltaEncoder deltaEncoder) {
+		_deltaEncoder = deltaEncoder;
+	}
+
+	public SegmentCompressor getCompressor() {
+		return _compressor;
+	}
+
+	public void setCompressor(SegmentCompressor compressor) {
+		_compressor = compressor;
+	}
+
+	public ParityEncoder getParityEncoder() {
+		return _parityEncoder;
+	}
+
+	public void setParityEncoder(ParityEncoder parityEncoder) {
+		_parityEncoder = parityEncoder;
+	}
+
+	public long getFileOffset() {
+		return _fileOffset;
+	}
+
+	public void setFileOffset(long fileOffset) {
+		_fileOffset = fileOffset;
+	}
+
+	public boolean hasMoreData() {
+		return _hasMoreData;
+	}
+
+	public void setHasMoreData(boolean hasMoreData) {
+		_hasMoreData = hasMoreData;
+	}
+
+	public WheelTask getFinTimer() {
+		return _finTimer;
+	}
+
+	public void setFinTimer(WheelTask finTimer) {
+		_finTimer = finTimer;
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Allocates the window and timers of the stream and sends the filename
+	 *
+	 * @precondition the session must have room for another segment in flight
+	 */
+	public void start() {
+		int windowSize = getSession().getConfig().getWindowSize();
+		setWindow(new UDPSegment[windowSize]);
+		setTimeoutHandlers(new TimeoutHandler[windowSize]);
+		for (int i = 0; i < windowSize; i++) {
+			getTimeoutHandlers()[i] = new TimeoutHandler(getSession()
+					.getChannel(), getSession().getTarget(), getSession()
+					.getRttEstimator(), getSession().getCongestionController());
+		}
+		setDigest(getSession().getConfig().getChecksumType().newChecksum());
+		CompressionType compressionType = getSession().getConfig()
+				.getCompressionType();
+		if (compressionType != CompressionType.NONE) {
+			setCompressor(new SegmentCompressor(compressionType));
+		}
+		setFinTimer(new WheelTask() {
+			@Override
+			public void run() {
+				Log.log(LogLevel.DEBUG,
+						"Gave up waiting for final ACK of stream {}",
+						getStreamId());
+				finish();
+				getSession().advance();
+			}
+		});
+		setState(State.FILENAME);
+		sendFilename();
+	}
+
+	/**
+	 * Moves the stream on to its next stage once everything sent in the
+	 * current one has been acknowledged: no file contents are sent until the
+	 * receiver has acknowledged the filename, and the answer to its resume
+	 * offer or the signatures of its basis if it offered either, and the
+	 * stream is over once the final segment has been acknowledged. Chunks of
+	 * signatures whose ACK was lost are requested again in a new pass.
+	 */
+	public void update() {
+		if (hasUnackedSegments()) {
+			return;
+		}
+		switch (getState()) {
+			case FILENAME:
+				if (getResumeOffset() > 0) {
+					checkResume();
+					setState(State.RESUME);
+				} else if (getDeltaEncoder() != null) {
+					setState(State.SIGNATURES);
+				} else {
+					setState(State.CONTENTS);
+				}
+				openFile();
+				break;
+			case RESUME:
+				if (getCurrSeqNum() > RESUME_SEQ_NUM) {
+					setState(State.CONTENTS);
+				}
+				break;
+			case SIGNATURES:
+				if (getDeltaEncoder().hasAllSignatures()) {
+					getDeltaEncoder().index();
+					setState(State.CONTENTS);
+				} else {
+					getDeltaEncoder().newPass();
+				}
+				break;
+			case FINAL:
+				finish();
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Sends the next segment of the file if the window and the congestion
+	 * window allow it. Sends the final segment once all of the data has been
+	 * acknowledged. In a delta transfer, the signatures of the basis are
+	 * requested first, and the contents are sent as delta segments.
+	 *
+	 * @return true if a segment was sent
+	 */
+	public boolean sendNextSegment() {
+		if (getState() == State.RESUME && getCurrSeqNum() == RESUME_SEQ_NUM
+				&& windowHasSpace()) {
+			sendResume();
+			return true;
+		}
+		if (getState() == State.SIGNATURES && windowHasSpace()
+				&& getDeltaEncoder().hasRequest()) {
+			sendSignatureRequest();
+			return true;
+		}
+		if (getState() != State.CONTENTS || !windowHasSpace()) {
+			return false;
+		}
+
+		if (hasMoreData()) {
+			UDPSegment toSend = getSession().getSegmentPool().acquire();
+			toSend.reset(getStreamId(), getCurrSeqNum(), UDPSegment.DATA_TYPE);
+			int lengthRead = getDeltaEncoder() != null ? encodeDelta(toSend)
+					: readFileContents(toSend);
+			if (hasDataToSend(lengthRead)) {
+				if (getFileOffset() >= getStripeLength() || fillsWindow()) {
+					// Nothing more can be sent until this is acknowledged
+					toSend.setAckNow();
+				}
+				if (getDeltaEncoder() == null) {
+					// Delta segments are checksummed as they are encoded
+					toSend.updateDataChecksum(getDigest());
+					if (getCompressor() != null) {
+						getCompressor().compress(toSend);
+					}
+				}
+				sendSegment(toSend);
+				incrementSeqNum();
+				if (getParityEncoder() != null) {
+					getParityEncoder().add(toSend);
+					if (getParityEncoder().isFull() || toSend.isAckNow()) {
+						sendParity();
+					}
+				}
+				return true;
+			}
+			getSession().getSegmentPool().release(toSend);
+			setHasMoreData(false);
+		}
+
+		if (!hasUnackedSegments()) {
+			sendFinalSegment();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Marks every segment covered by the cumulative ACK or one of the SACK
+	 * blocks of an ACK as acknowledged, stops their timers and slides the
+	 * window past all acknowledged segments at its base. Until the filename
+	 * has been acknowledged, the segment size accepted by the receiver and
+	 * any offer to resume or basis are taken from the ACK, and the signatures
+	 * carried by ACKs of signature requests are collected. The round trip time
+	 * is sampled from the segment that caused the ACK, unless it was
+	 * retransmitted. The congestion controller is told of the segments newly
+	 * acknowledged and of the one-way delay of the segment that caused the
+	 * ACK unless it was retransmitted. Retransmissions keep the timestamp of
+	 * the first transmission, so their delay is meaningless.
+	 *
+	 * @param ACK
+	 *            valid ACK of this stream received from host
+	 * @param ackTime
+	 *            time the ACK was received in nsec
+	 */
+	public void handleAck(UDPSegment ACK, long ackTime) {
+		if (getState() == State.IDLE || isDone()) {
+			return;
+		}
+		CongestionController congestionController = getSession()
+				.getCongestionController();
+		int echoSeqNum = ACK.getEchoSeqNum();
+		if (getState() == State.FILENAME) {
+			setSegmentSize(getSession().getConfig().acceptSegmentSize(
+					ACK.getAcceptedSegmentSize()));
+			if (ACK.isResume()) {
+				setResumeOffset(ACK.getResumeOffset());
+				setResumeDigest(ACK.getResumeDigest());
+			} else if (ACK.isDelta() && getDeltaEncoder() == null
+					&& getSession().getConfig().isDelta()) {
+				DeltaEncoder encoder = new DeltaEncoder(ACK.getBasisLength(),
+						ACK.getBlockSize(), getSession().getConfig()
+								.getChecksumType());
+				if (encoder.hasBlocks()) {
+					setDeltaEncoder(encoder);
+				}
+			}
+		} else if (getState() == State.SIGNATURES && ACK.isSignatures()) {
+			getDeltaEncoder().putSignatures(ACK);
+		}
+
+		if (echoSeqNum >= getSendBase() && echoSeqNum < getCurrSeqNum()) {
+			UDPSegment echoed = getWindow()[windowIndex(echoSeqNum)];
+			if (!echoed.isAckRcvd() && !echoed.isRetransmitted()) {
+				congestionController.onDelay(ACK.getDelay());
+			}
+		}
+
+		int ackedCount = markAcked(getSendBase(), ACK.getCumulativeAck(),
+				echoSeqNum, ackTime);
+		for (int i = 0; i < ACK.getSackBlockCount(); i++) {
+			ackedCount += markAcked(ACK.getSackStart(i), ACK.getSackEnd(i),
+					echoSeqNum, ackTime);
+		}
+		if (ackedCount > 0) {
+			congestionController.onAck(ackedCount);
+		}
+
+		// Sliding the window
+		while (hasUnackedSegments()
+				&& getWindow()[windowIndex(getSendBase())].isAckRcvd()) {
+			int index = windowIndex(getSendBase());
+			getSession().getSegmentPool().release(getWindow()[index]);
+			getWindow()[index] = null;
+			setSendBase(getSendBase() + 1);
+			getSession().removeInFlight();
+		}
+	}
+
+	/* Private Methods */
+
+	/**
+	 * Sends the filename, the size of the file, the number of streams in the
+	 * session, the stripe of the file sent by the stream and the segment size
+	 * proposed for the stream as the first segment, flagged as delta if the
+	 * contents are to be sent as a delta against the copy of the receiver,
+	 * and as protected by parity segments if they are to be
+	 */
+	private void sendFilename() {
+		byte[] name = getTargetFilename().getBytes();
+		UDPSegment filename = getSession().getSegmentPool().acquire();
+		filename.reset(getStreamId(), getCurrSeqNum(), UDPSegment.DATA_TYPE);
+		filename.putFileInfo(getFileToSend().length(), getSession()
+				.getStreamCount(), getStripeOffset(), getStripeCount(),
+				getSession().getConfig().getSegmentSize(), name);
+		if (getSession().getConfig().isDelta()) {
+			filename.setDelta();
+		}
+		if (getSession().getConfig().isFec()) {
+			filename.setFec();
+		}
+		sendSegment(filename);
+		incrementSeqNum();
+	}
+
+	/**
+	 * Checks the part of the stripe the receiver offers to resume after
+	 * against the file. The part is read into the checksum of the stream, so
+	 * that the checksum carried by the final segment still covers the whole
+	 * stripe. The offer is accepted if the checksums match and it ends on a
+	 * whole data segment within the stripe; otherwise the stream starts over.
+	 */
+	private void checkResume() {
+		long offset = getResumeOffset();
+		boolean accepted = offset % getDataSize() == 0
+				&& offset <= getStripeLength();
+		if (accepted) {
+			try {
+				FileChannel channel = FileChannel.open(getFileToSend()
+						.toPath(), StandardOpenOption.READ);
+				accepted = ChecksumType.update(getDigest(), channel,
+						getStripeOffset(), offset)
+						&& (int) getDigest().getValue() == getResumeDigest();
+				channel.close();
+			} catch (IOException e) {
+				if (DEBUG_MODE) {
+					e.printStackTrace();
+				}
+				accepted = false;
+			}
+		}
+		if (!accepted) {
+			getDigest().reset();
+			offset = 0;
+		}
+		Log.log(LogLevel.DEBUG, "Stream {} resumes at {} of {} offered",
+				getStreamId(), offset, getResumeOffset());
+		setFileOffset(offset);
+	}
+
+	/**
+	 * Sends the answer to the resume offer of the receiver, holding the
+	 * offset in the stripe the contents are sent from
+	 */
+	private void sendResume() {
+		UDPSegment resume = getSession().getSegmentPool().acquire();
+		resume.reset(getStreamId(), getCurrSeqNum(), UDPSegment.DATA_TYPE);
+		resume.putResume(getFileOffset());
+		// No contents are sent until this is acknowledged
+		resume.setAckNow();
+		sendSegment(resume);
+		incrementSeqNum();
+	}
+
+	/**
+	 * Sends a request for the next chunk of signatures of the basis
+	 */
+	private void sendSignatureRequest() {
+		UDPSegment request = getSession().getSegmentPool().acquire();
+		request.reset(getStreamId(), getCurrSeqNum(), UDPSegment.DATA_TYPE);
+		request.putSignatureRequest(getDeltaEncoder().nextRequest());
+		// The signatures come back with the ACK
+		request.setAckNow();
+		sendSegment(request);
+		incrementSeqNum();
+	}
+
+	/**
+	 * Opens the file to be sent, either as a stream positioned at the start
+	 * of the stripe or as a memory mapping sliced into the data size settled
+	 * with the receiver, depending on the configuration. A resumed stream is
+	 * positioned at the offset it resumes from. In a delta transfer the file
+	 * is opened by the encoder instead. The parity of the contents, if any,
+	 * is computed over data segments of the settled size.
+	 */
+	private void openFile() {
+		TransferConfig config = getSession().getConfig();
+		if (config.isFec()) {
+			setParityEncoder(new ParityEncoder(config.getParityGroupSize(),
+					config.getParityCount(), getDataSize()));
+		}
+		try {
+			if (getDeltaEncoder() != null) {
+				getDeltaEncoder().open(getFileToSend());
+				return;
+			}
+			if (getSession().getConfig().isMappedSource()) {
+				setMappedSource(new MappedFileSource(getFileToSend(),
+						getStripeOffset(), getDataSize()));
+				return;
+			}
+			setFis(new FileInputStream(getFileToSend()));
+			getFis().getChannel().position(
+					getStripeOffset() + getFileOffset());
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(5);
+		}
+		setFileReader(new BufferedInputStream(getFis()));
+	}
+
+	/**
+	 * Reads the contents of the file to be sent and places it into the
+	 * UDPsegment data, up to the end of the stripe. With a mapped file, the
+	 * data is attached to the segment as a slice of the mapping instead of
+	 * being copied.
+	 *
+	 * @param seg
+	 *            UDP Segment to store the data
+	 * @return length of data read
+	 */
+	private int readFileContents(UDPSegment seg) {
+		int lengthRead = 0;
+		long remaining = getStripeLength() - getFileOffset();
+		if (remaining <= 0) {
+			return 0;
+		}
+
+		try {
+			if (getMappedSource() != null) {
+				lengthRead = getMappedSource().slice(
+						getStripeOffset() + getFileOffset(), seg);
+			} else {
+				lengthRead = seg.readData(getFileReader(), getDataSize());
+			}
+			if (lengthRead > remaining) {
+				lengthRead = (int) remaining;
+				seg.setDataLen(lengthRead);
+			}
+			setFileOffset(getFileOffset() + Math.max(lengthRead, 0));
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(6);
+		}
+		return lengthRead;
+	}
+
+	/**
+	 * Fills a delta segment with the operations that rebuild the next part of
+	 * the stripe from the basis of the receiver
+	 *
+	 * @param seg
+	 *            UDP Segment to store the operations
+	 * @return number of bytes of the stripe covered by the segment
+	 */
+	private int encodeDelta(UDPSegment seg) {
+		long position = getStripeOffset() + getFileOffset();
+		int covered = 0;
+		if (getFileOffset() >= getStripeLength()) {
+			return 0;
+		}
+
+		seg.startDelta(position);
+		try {
+			covered = getDeltaEncoder().encode(seg, position,
+					getStripeOffset() + getStripeLength(), getDataSize(),
+					getDigest());
+			setFileOffset(getFileOffset() + covered);
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(6);
+		}
+		return covered;
+	}
+
+	/**
+	 * Checks if there is any data to send. This is decided by the amount of
+	 * bytes of data last read
+	 *
+	 * @param lengthRead
+	 *            amount of bytes of data last read
+	 * @return true if lengthRead >0, false otherwise.
+	 */
+	private boolean hasDataToSend(int lengthRead) {
+		return lengthRead > 0;
+	}
+
+	/**
+	 * Checks if another segment can be sent without exceeding the window of
+	 * the stream or the congestion window of the session
+	 *
+	 * @return true if fewer than window size segments are unacknowledged
+	 */
+	private boolean windowHasSpace() {
+		return getCurrSeqNum() - getSendBase() < getWindow().length
+				&& getSession().hasSpace();
+	}
+
+	/**
+	 * Checks if sending another segment leaves no room in the window of the
+	 * stream or the congestion window of the session
+	 *
+	 * @return true if the next segment sent fills either window
+	 */
+	private boolean fillsWindow() {
+		return getCurrSeqNum() + 1 - getSendBase() >= getWindow().length
+				|| getSession().getInFlight() + 1 >= getSession()
+						.getCongestionController().getWindow();
+	}
+
+	/**
+	 * Checks if any segment sent has yet to be acknowledged
+	 *
+	 * @return true if the window is not empty
+	 */
+	private boolean hasUnackedSegments() {
+		return getSendBase() < getCurrSeqNum();
+	}
+
+	/**
+	 * Gets the position in the window used by a sequence number
+	 *
+	 * @param seqNum
+	 *            sequence number of the segment
+	 * @return index into the window and its timeout handlers
+	 */
+	private int windowIndex(int seqNum) {
+		return seqNum % getWindow().length;
+	}
+
+	/**
+	 * Sends a specified UDP segment to the host. The segment is placed into
+	 * the window, sent immediately and then retransmitted by its own timer
+	 * until it is acknowledged.
+	 *
+	 * @precondition toSend must already have the payload, stream id, sequence
+	 *               number and type. The window must have space for the
+	 *               segment.
+	 *
+	 * @param toSend
+	 *            the UDP Segment to be sent
+	 */
+	private void sendSegment(UDPSegment toSend) {
+		assert (getCurrSeqNum() - getSendBase() < getWindow().length);
+
+		toSend.setChecksumType(getSession().getConfig().getChecksumType());
+		toSend.setTimestamp(UDPSegment.currentTimestamp());
+		toSend.setChecksum(toSend.calculateChecksum());
+
+		int index = windowIndex(toSend.getSeqNum());
+		getWindow()[index] = toSend;
+		getSession().addInFlight();
+		getTimeoutHandlers()[index].start(toSend, getSession().getWheel());
+	}
+
+	/**
+	 * Sends the parity segments of the current group and starts a new one.
+	 * Parity segments leave the window alone and are never retransmitted, so
+	 * one that cannot be sent is simply lost.
+	 */
+	private void sendParity() {
+		ParityEncoder encoder = getParityEncoder();
+		SegmentPool pool = getSession().getSegmentPool();
+		for (int row = 0; row < encoder.getRowCount(); row++) {
+			UDPSegment parity = pool.acquire();
+			parity.reset(getStreamId(), encoder.getFirstSeqNum(),
+					UDPSegment.PARITY_TYPE);
+			encoder.putParity(parity, row);
+			parity.setChecksumType(getSession().getConfig().getChecksumType());
+			parity.setTimestamp(UDPSegment.currentTimestamp());
+			parity.setChecksum(parity.calculateChecksum());
+			try {
+				parity.send(getSession().getChannel(), getSession().getTarget());
+			} catch (IOException e) {
+				if (DEBUG_MODE) {
+					e.printStackTrace();
+				}
+			}
+			pool.release(parity);
+		}
+		encoder.clear();
+	}
+
+	/**
+	 * Marks a range of segments in the window as acknowledged. Sequence
+	 * numbers outside of the window are ignored.
+	 *
+	 * @param start
+	 *            first sequence number acknowledged
+	 * @param end
+	 *            last sequence number acknowledged, inclusive
+	 * @param echoSeqNum
+	 *            sequence number of the segment that caused the ACK
+	 * @param ackTime
+	 *            time the ACK was received in nsec
+	 * @return number of segments that were not acknowledged before
+	 */
+	private int markAcked(int start, int end, int echoSeqNum, long ackTime) {
+		int first = Math.max(start, getSendBase());
+		int last = Math.min(end, getCurrSeqNum() - 1);
+		int ackedCount = 0;
+
+		for (int seqNum = first; seqNum <= last; seqNum++) {
+			int index = windowIndex(seqNum);
+			UDPSegment acked = getWindow()[index];
+			if (acked.isAckRcvd()) {
+				continue;
+			}
+			acked.setAckRcvd(true);
+			ackedCount++;
+			getTimeoutHandlers()[index].cancel();
+			if (seqNum == echoSeqNum && !acked.isRetransmitted()) {
+				getSession().getRttEstimator().addSample(acked.getSendTime(),
+						ackTime);
+			}
+			Log.log(LogLevel.DEBUG, "Stream {} segment {} ACKed",
+					getStreamId(), seqNum);
+		}
+		return ackedCount;
+	}
+
+	/**
+	 * Sends the final segment, carrying the length and checksum of the
+	 * stream, to mark the end of the file. The receiver stops listening
+	 * shortly after acknowledging the last of the session, so if the ACK is
+	 * lost the sender gives up waiting after FIN_TIMEOUT.
+	 */
+	private void sendFinalSegment() {
+		UDPSegment finalSegment = getSession().getSegmentPool().acquire();
+		finalSegment.reset(getStreamId(), getCurrSeqNum(),
+				UDPSegment.DATA_TYPE);
+		finalSegment.putDigest(getFileOffset(), (int) getDigest().getValue());
+		sendSegment(finalSegment);
+		incrementSeqNum();
+		setState(State.FINAL);
+		getSession().getWheel().schedule(getFinTimer(), FIN_TIMEOUT);
+	}
+
+	/**
+	 * Ends the stream: stops its timers, gives back the segments still in its
+	 * window and closes the file
+	 */
+	private void finish() {
+		setState(State.DONE);
+		getFinTimer().cancel();
+		for (TimeoutHandler handler : getTimeoutHandlers()) {
+			handler.cancel();
+		}
+		while (hasUnackedSegments()) {
+			int index = windowIndex(getSendBase());
+			getSession().getSegmentPool().release(getWindow()[index]);
+			getWindow()[index] = null;
+			setSendBase(getSendBase() + 1);
+			getSession().removeInFlight();
+		}
+
+		if (getDeltaEncoder() != null) {
+			Log.log(LogLevel.DEBUG,
+					"Stream {} sent {} literal bytes, {} copied",
+					getStreamId(), getDeltaEncoder().getLiteralBytes(),
+					getDeltaEncoder().getCopiedBytes());
+		}
+
+		if (getCompressor() != null) {
+			if (Log.isEnabled(LogLevel.DEBUG)) {
+				Log.log(LogLevel.DEBUG, "Stream " + getStreamId() + ": "
+						+ getCompressor().toString());
+			}
+			getCompressor().end();
+		}
+
+		try {
+			if (getDeltaEncoder() != null) {
+				getDeltaEncoder().close();
+			} else if (getMappedSource() != null) {
+				getMappedSource().close();
+			} else if (getFileReader() != null) {
+				getFileReader().close();
+				getFis().close();
+			}
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			System.exit(7);
+		}
+	}
+
+	/**
+	 * Stages of a stream
+	 */
+	enum State {
+		IDLE, FILENAME, RESUME, SIGNATURES, CONTENTS, FINAL, DONE
+	}
+}
@@ -0,0 +1,284 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ *
+ * Rebuilds the data segments of a stream with forward error correction that
+ * were lost or corrupted, from the parity segments of their group. The
+ * symbols of the data segments received last are kept in a ring indexed by
+ * sequence number, so that the parity of a group can be checked against them
+ * when it arrives. A group missing none of its segments costs nothing more;
+ * a group missing k segments is rebuilt once k of its parity rows have
+ * arrived, by solving for the missing symbols (see GaloisField).
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class ParityDecoder {
+
+	/* Member Variables */
+	private int							_maxDataLen;
+	// Symbols of the data segments received last, by sequence number modulo
+	// the size of the ring, and the sequence number and length of each
+	private byte[][]					_symbols;
+	private int[]						_symbolSeqNums;
+	private int[]						_symbolLengths;
+	// Groups whose parity has arrived but that cannot be rebuilt yet, by
+	// first sequence number
+	private HashMap<Integer, ParityGroup>	_groups;
+	// Sequence numbers of the segments rebuilt by the last parity received
+	private int[]						_rebuiltSeqNums;
+	private int							_rebuiltCount;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity
+	 *            number of symbols kept, at least GaloisField.MAX_GROUP_SIZE
+	 *            so that the symbols of a group never overwrite each other
+	 * @param maxDataLen
+	 *            largest data length of a segment of the stream
+	 */
+	public ParityDecoder(int capacity, int maxDataLen) {
+		assert (capacity >= GaloisField.MAX_GROUP_SIZE);
+		setMaxDataLen(maxDataLen);
+		setSymbols(new byte[capacity][]);
+		setSymbolSeqNums(new int[capacity]);
+		setSymbolLengths(new int[capacity]);
+		setGroups(new HashMap<Integer, ParityGroup>());
+		setRebuiltSeqNums(new int[GaloisField.MAX_ROWS]);
+		setRebuiltCount(0);
+	}
+
+	/* Accessors and Modifiers */
+
+	public int getMaxDataLen() {
+		return _maxDataLen;
+	}
+
+	public void setMaxDataLen(int maxDataLen) {
+		_maxDataLen = maxDataLen;
+	}
+
+	public int getMaxSymbolLength() {
+		return UDPSegment.SYMBOL_DATA_OFFSET + getMaxDataLen();
+	}
+
+	public byte[][] getSymbols() {
+		return _symbols;
+	}
+
+	public void setSymbols(byte[][] symbols) {
+		_symbols = symbols;
+	}
+
+	public int[] getSymbolSeqNums() {
+		return _symbolSeqNums;
+	}
+
+	public void setSymbolSeqNums(int[] symbolSeqNums) {
+		_symbolSeqNums = symbolSeqNums;
+	}
+
+	public int[] getSymbolLengths() {
+		return _symbolLengths;
+	}
+
+	public void setSymbolLengths(int[] symbolLengths) {
+		_symbolLengths = symbolLengths;
+	}
+
+	public HashMap<Integer, ParityGroup> getGroups() {
+		return _groups;
+	}
+
+	public void setGroups(HashMap<Integer, ParityGroup> groups) {
+		_groups = groups;
+	}
+
+	public int[] getRebuiltSeqNums() {
+		return _rebuiltSeqNums;
+	}
+
+	public void setRebuiltSeqNums(int[] rebuiltSeqNums) {
+		_rebuiltSeqNums = rebuiltSeqNums;
+	}
+
+	public int getRebuiltCount() {
+		return _rebuiltCount;
+	}
+
+	public void setRebuiltCount(int rebuiltCount) {
+		_rebuiltCount = rebuiltCount;
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Keeps the symbol of a data segment received, in place of that of the
+	 * segment received a ring earlier
+	 *
+	 * @param seg
+	 *            valid data segment of the stream
+	 */
+	public void store(UDPSegment seg) {
+		int seqNum = seg.getSeqNum();
+		int slot = slotOf(seqNum);
+		if (isStored(seqNum) || seg.getDataLen() > getMaxDataLen()) {
+			return;
+		}
+		if (getSymbols()[slot] == null) {
+			getSymbols()[slot] = new byte[getMaxSymbolLength()];
+		}
+		getSymbolLengths()[slot] = seg.getSymbol(getSymbols()[slot]);
+		getSymbolSeqNums()[slot] = seqNum;
+	}
+
+	/**
+	 * Takes the row of a parity segment, and rebuilds the segments its group
+	 * lacks if enough rows have arrived. Segments received before the ring
+	 * wrapped around are lacking too, but are only rebuilt to help rebuild
+	 * the others. Groups of segments all received in order are dropped.
+	 *
+	 * @param parity
+	 *            valid parity segment of the stream
+	 * @param currSeqNum
+	 *            sequence number up to which every segment has been received
+	 * @return number of segments rebuilt, whose sequence numbers are then
+	 *         given by getRebuiltSeqNums
+	 */
+	public int receiveParity(UDPSegment parity, int currSeqNum) {
+		setRebuiltCount(0);
+		prune(currSeqNum);
+		int count = parity.getGroupCount();
+		int rowLength = parity.getRowLength();
+		if (count <= 0 || count > GaloisField.MAX_GROUP_SIZE
+				|| rowLength < UDPSegment.SYMBOL_DATA_OFFSET
+				|| rowLength > getMaxSymbolLength()
+				|| parity.getSeqNum() + count - 1 <= currSeqNum) {
+			return 0;
+		}
+
+		ParityGroup group = getGroups().get(parity.getSeqNum());
+		if (group == null) {
+			group = new ParityGroup(parity);
+			getGroups().put(group.getFirstSeqNum(), group);
+		}
+		group.addRow(parity);
+		rebuild(group);
+		return getRebuiltCount();
+	}
+
+	/**
+	 * Turns a segment into a data segment whose symbol is kept, save for its
+	 * header other than the sequence number and flags
+	 *
+	 * @param seqNum
+	 *            sequence number of the segment
+	 * @param seg
+	 *            segment reset with that sequence number
+	 * @return false if the symbol is no longer kept or is malformed
+	 */
+	public boolean fill(int seqNum, UDPSegment seg) {
+		return isStored(seqNum)
+				&& seg.putSymbol(getSymbols()[slotOf(seqNum)], getMaxDataLen());
+	}
+
+	/* Private Methods */
+
+	private int slotOf(int seqNum) {
+		return seqNum % getSymbols().length;
+	}
+
+	private boolean isStored(int seqNum) {
+		int slot = slotOf(seqNum);
+		return getSymbols()[slot] != null
+				&& getSymbolSeqNums()[slot] == seqNum;
+	}
+
+	/**
+	 * Drops the groups whose segments have all been received in order
+	 *
+	 * @param currSeqNum
+	 *            sequence number up to which every segment has been received
+	 */
+	private void prune(int currSeqNum) {
+		Iterator<ParityGroup> groups = getGroups().values().iterator();
+		while (groups.hasNext()) {
+			if (groups.next().getLastSeqNum() <= currSeqNum) {
+				groups.remove();
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the symbols a group lacks, if it has at least as many parity
+	 * rows. Each row, less the known symbols times their coefficient, is the
+	 * sum of the missing symbols times theirs; inverting the matrix of those
+	 * coefficients gives the missing symbols. A group with nothing to
+	 * rebuild, or once rebuilt, is dropped.
+	 *
+	 * @param group
+	 *            group a parity row has just been added to
+	 */
+	private void rebuild(ParityGroup group) {
+		int[] missing = new int[GaloisField.MAX_ROWS];
+		int missingCount = 0;
+		for (int i = 0; i < group.getCount(); i++) {
+			if (!isStored(group.getFirstSeqNum() + i)) {
+				if (missingCount == group.getRowCount()) {
+					// Not enough rows yet
+					return;
+				}
+				missing[missingCount++] = i;
+			}
+		}
+		getGroups().remove(group.getFirstSeqNum());
+		if (missingCount == 0) {
+			return;
+		}
+
+		int length = group.getRowLength();
+		byte[][] rows = new byte[missingCount][];
+		int[][] matrix = new int[missingCount][missingCount];
+		for (int r = 0; r < missingCount; r++) {
+			int row = group.getRowIndexes()[r];
+			rows[r] = group.getRows()[r];
+			for (int i = 0; i < group.getCount(); i++) {
+				int slot = slotOf(group.getFirstSeqNum() + i);
+				if (isStored(group.getFirstSeqNum() + i)) {
+					GaloisField.multiplyAdd(rows[r], 0, getSymbols()[slot], 0,
+							Math.min(getSymbolLengths()[slot], length),
+							GaloisField.coefficient(row, i));
+				}
+			}
+			for (int e = 0; e < missingCount; e++) {
+				matrix[r][e] = GaloisField.coefficient(row, missing[e]);
+			}
+		}
+		if (!GaloisField.invert(matrix)) {
+			return;
+		}
+
+		for (int e = 0; e < missingCount; e++) {
+			int seqNum = group.getFirstSeqNum() + missing[e];
+			int slot = slotOf(seqNum);
+			if (getSymbols()[slot] == null) {
+				getSymbols()[slot] = new byte[getMaxSymbolLength()];
+			}
+			byte[] symbol = getSymbols()[slot];
+			Arrays.fill(symbol, 0, length, (byte) 0);
+			for (int r = 0; r < missingCount; r++) {
+				GaloisField.multiplyAdd(symbol, 0, rows[r], 0, length,
+						matrix[e][r]);
+			}
+			getSymbolSeqNums()[slot] = seqNum;
+			getSymbolLengths()[slot] = length;
+			getRebuiltSeqNums()[getRebuiltCount()] = seqNum;
+			setRebuiltCount(getRebuiltCount() + 1);
+		}
+	}
+}
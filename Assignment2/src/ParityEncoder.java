@@ -0,0 +1,158 @@
+import java.util.Arrays;
+
+/**
+ *
+ * Computes the parity of the data segments of a stream with forward error
+ * correction. Data segments are added to the current group as they are
+ * first sent, each adding its symbol to every parity row, and the rows are
+ * sent once the group is full, or earlier if the sender cannot send more
+ * until it hears from the receiver, so that the receiver can rebuild up to
+ * as many lost or corrupted segments of the group as there are rows without
+ * waiting for them to be retransmitted.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class ParityEncoder {
+
+	/* Member Variables */
+	// Largest number of segments in a group
+	private int						_groupSize;
+	private byte[][]				_rows;
+	private byte[]					_symbol;
+	// First sequence number and number of segments of the current group
+	private int						_firstSeqNum;
+	private int						_count;
+	// Length of the longest symbol of the current group
+	private int						_rowLength;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param groupSize
+	 *            largest number of segments in a group, at most
+	 *            GaloisField.MAX_GROUP_SIZE
+	 * @param rowCount
+	 *            number of parity rows per group, at most GaloisField.MAX_ROWS
+	 * @param maxDataLen
+	 *            largest data length of a segment of the stream
+	 */
+	public ParityEncoder(int groupSize, int rowCount, int maxDataLen) {
+		setGroupSize(groupSize);
+		setRows(new byte[rowCount][UDPSegment.SYMBOL_DATA_OFFSET + maxDataLen]);
+		setSymbol(new byte[UDPSegment.SYMBOL_DATA_OFFSET + maxDataLen]);
+		setCount(0);
+		setRowLength(0);
+	}
+
+	/* Accessors and Modifiers */
+
+	public int getGroupSize() {
+		return _groupSize;
+	}
+
+	public void setGroupSize(int groupSize) {
+		_groupSize = groupSize;
+	}
+
+	public byte[][] getRows() {
+		return _rows;
+	}
+
+	public void setRows(byte[][] rows) {
+		_rows = rows;
+	}
+
+	public int getRowCount() {
+		return getRows().length;
+	}
+
+	public byte[] getSymbol() {
+		return _symbol;
+	}
+
+	public void setSymbol(byte[] symbol) {
+		_symbol = symbol;
+	}
+
+	public int getFirstSeqNum() {
+		return _firstSeqNum;
+	}
+
+	public void setFirstSeqNum(int firstSeqNum) {
+		_firstSeqNum = firstSeqNum;
+	}
+
+	public int getCount() {
+		return _count;
+	}
+
+	public void setCount(int count) {
+		_count = count;
+	}
+
+	public int getRowLength() {
+		return _rowLength;
+	}
+
+	public void setRowLength(int rowLength) {
+		_rowLength = rowLength;
+	}
+
+	public boolean isEmpty() {
+		return getCount() == 0;
+	}
+
+	public boolean isFull() {
+		return getCount() >= getGroupSize();
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Adds a data segment to the current group
+	 *
+	 * @precondition the group must not be full, and the segment must follow
+	 *               the last one added
+	 * @param seg
+	 *            data segment as sent
+	 */
+	public void add(UDPSegment seg) {
+		if (isEmpty()) {
+			setFirstSeqNum(seg.getSeqNum());
+		}
+		int length = seg.getSymbol(getSymbol());
+		for (int row = 0; row < getRowCount(); row++) {
+			GaloisField.multiplyAdd(getRows()[row], 0, getSymbol(), 0, length,
+					GaloisField.coefficient(row, getCount()));
+		}
+		setRowLength(Math.max(getRowLength(), length));
+		setCount(getCount() + 1);
+	}
+
+	/**
+	 * Turns a segment into a parity segment of the current group
+	 *
+	 * @param seg
+	 *            segment reset with the first sequence number of the group
+	 *            and UDPSegment.PARITY_TYPE
+	 * @param row
+	 *            index of the parity row to carry
+	 */
+	public void putParity(UDPSegment seg, int row) {
+		seg.putParity(getCount(), row, getRows()[row], getRowLength());
+	}
+
+	/**
+	 * Starts a new group once the parity of the current one has been sent
+	 */
+	public void clear() {
+		for (byte[] row : getRows()) {
+			Arrays.fill(row, 0, getRowLength(), (byte) 0);
+		}
+		setCount(0);
+		setRowLength(0);
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ *
+ * The parity rows received for a group of data segments of a stream with
+ * forward error correction, kept until enough of them have arrived to
+ * rebuild the segments of the group the receiver lacks.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class ParityGroup {
+
+	/* Member Variables */
+	private int						_firstSeqNum;
+	private int						_count;
+	// Index and contents of each row received, in order of arrival
+	private int[]					_rowIndexes;
+	private byte[][]				_rows;
+	private int						_rowCount;
+	// Length of the rows, that of the longest symbol of the group
+	private int						_rowLength;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param parity
+	 *            first parity segment received for the group
+	 */
+	public ParityGroup(UDPSegment parity) {
+		setFirstSeqNum(parity.getSeqNum());
+		setCount(parity.getGroupCount());
+		setRowIndexes(new int[GaloisField.MAX_ROWS]);
+		setRows(new byte[GaloisField.MAX_ROWS][]);
+		setRowCount(0);
+		setRowLength(parity.getRowLength());
+	}
+
+	/* Accessors and Modifiers */
+
+	public int getFirstSeqNum() {
+		return _firstSeqNum;
+	}
+
+	public void setFirstSeqNum(int firstSeqNum) {
+		_firstSeqNum = firstSeqNum;
+	}
+
+	public int getCount() {
+		return _count;
+	}
+
+	public void setCount(int count) {
+		_count = count;
+	}
+
+	public int getLastSeqNum() {
+		return getFirstSeqNum() + getCount() - 1;
+	}
+
+	public int[] getRowIndexes() {
+		return _rowIndexes;
+	}
+
+	public void setRowIndexes(int[] rowIndexes) {
+		_rowIndexes = rowIndexes;
+	}
+
+	public byte[][] getRows() {
+		return _rows;
+	}
+
+	public void setRows(byte[][] rows) {
+		_rows = rows;
+	}
+
+	public int getRowCount() {
+		return _rowCount;
+	}
+
+	public void setRowCount(int rowCount) {
+		_rowCount = rowCount;
+	}
+
+	public int getRowLength() {
+		return _rowLength;
+	}
+
+	public void setRowLength(int rowLength) {
+		_rowLength = rowLength;
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Keeps the row carried by a parity segment of the group. Rows already
+	 * received, and rows that do not match the group, are ignored.
+	 *
+	 * @param parity
+	 *            valid parity segment of the group
+	 */
+	public void addRow(UDPSegment parity) {
+		int row = parity.getParityRow();
+		if (row >= GaloisField.MAX_ROWS || parity.getGroupCount() != getCount()
+				|| parity.getRowLength() != getRowLength()) {
+			return;
+		}
+		for (int i = 0; i < getRowCount(); i++) {
+			if (getRowIndexes()[i] == row) {
+				return;
+			}
+		}
+		byte[] contents = new byte[getRowLength()];
+		parity.getRow(contents);
+		getRowIndexes()[getRowCount()] = row;
+		getRows()[getRowCount()] = contents;
+		setRowCount(getRowCount() + 1);
+	}
+}
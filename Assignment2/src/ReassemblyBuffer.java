@@ -0,0 +1,161 @@
+/**
+ *
+ * Keeps track of the segments received ahead of a missing segment until the
+ * gap is filled. The data of those segments is already in place in the file;
+ * the buffer only remembers which sequence numbers have arrived, in a ring
+ * indexed by sequence number, so that recording, finding and removing a
+ * segment takes constant time. The ring has room for a fixed number of
+ * segments following the next segment in order; segments beyond that are
+ * refused, which bounds how far ahead of the gap a sender may get.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public class ReassemblyBuffer {
+
+	/* Member Variables */
+	// Sequence number held by each slot, 0 if none
+	private int[]			_slots;
+	private int				_nextSeqNum;
+	private int				_highestSeqNum;
+	private int				_count;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity
+	 *            maximum number of segments held at a time
+	 * @param nextSeqNum
+	 *            sequence number of the first segment to deliver
+	 */
+	public ReassemblyBuffer(int capacity, int nextSeqNum) {
+		assert (nextSeqNum > 0);
+		setSlots(new int[capacity]);
+		setNextSeqNum(nextSeqNum);
+		setHighestSeqNum(nextSeqNum - 1);
+		setCount(0);
+	}
+
+	/* Accessors and Modifiers */
+
+	public int[] getSlots() {
+		return _slots;
+	}
+
+	public void setSlots(int[] slots) {
+		_slots = slots;
+	}
+
+	public int getNextSeqNum() {
+		return _nextSeqNum;
+	}
+
+	public void setNextSeqNum(int nextSeqNum) {
+		_nextSeqNum = nextSeqNum;
+	}
+
+	public int getHighestSeqNum() {
+		return _highestSeqNum;
+	}
+
+	public void setHighestSeqNum(int highestSeqNum) {
+		_highestSeqNum = highestSeqNum;
+	}
+
+	public int getCount() {
+		return _count;
+	}
+
+	public void setCount(int count) {
+		_count = count;
+	}
+
+	public int getCapacity() {
+		return getSlots().length;
+	}
+
+	/* Public methods */
+
+	/**
+	 * Checks if a segment may be recorded, i.e. it has not been delivered yet,
+	 * falls within the capacity of the buffer and is not already held
+	 *
+	 * @param seqNum
+	 *            sequence number of the segment
+	 * @return true if a segment with that sequence number would be recorded
+	 */
+	public boolean accepts(int seqNum) {
+		return seqNum >= getNextSeqNum()
+				&& seqNum - getNextSeqNum() < getCapacity()
+				&& !contains(seqNum);
+	}
+
+	/**
+	 * Records a segment as received
+	 *
+	 * @param seqNum
+	 *            sequence number of the segment
+	 * @return true if the segment is now held by the buffer, false if it was
+	 *         refused
+	 */
+	public boolean offer(int seqNum) {
+		if (!accepts(seqNum)) {
+			return false;
+		}
+		getSlots()[slot(seqNum)] = seqNum;
+		_count++;
+		if (seqNum > getHighestSeqNum()) {
+			setHighestSeqNum(seqNum);
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if a segment is held by the buffer
+	 *
+	 * @param seqNum
+	 *            sequence number of the segment
+	 * @return true if the segment has been received but not delivered yet
+	 */
+	public boolean contains(int seqNum) {
+		if (seqNum < getNextSeqNum() || seqNum > getHighestSeqNum()) {
+			return false;
+		}
+		return getSlots()[slot(seqNum)] == seqNum;
+	}
+
+	/**
+	 * Removes the next segment in order if it has been received
+	 *
+	 * @return the sequence number of the segment, or 0 if it has not been
+	 *         received yet
+	 */
+	public int poll() {
+		int seqNum = getNextSeqNum();
+		int index = slot(seqNum);
+		if (getSlots()[index] != seqNum) {
+			return 0;
+		}
+		getSlots()[index] = 0;
+		_count--;
+		_nextSeqNum++;
+		return seqNum;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append("Next segment: " + getNextSeqNum() + "\n");
+		result.append("Segments held: " + getCount() + "/" + getCapacity()
+				+ "\n");
+		return result.toString();
+	}
+
+	/* Private methods */
+
+	private int slot(int seqNum) {
+		return seqNum % getCapacity();
+	}
+}
@@ -0,0 +1,845 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Checksum;
+
+/**
+ *
+ * A file being written by the FileReceiver. A file is written by one
+ * InboundStream, or by several when the sender has split it into stripes,
+ * all of them sharing the channel of the file and writing at their own
+ * offsets.
+ *
+ * Each stream claims its stripe before writing it. A stream announcing a
+ * file of another size, checksum or number of stripes than the file being
+ * written, or a stripe already claimed, is refused: it belongs to another
+ * transfer under the same name, which has to wait until this one is over.
+ *
+ * Each stream reports the length and checksum of its stripe as it finishes,
+ * along with whether the stripe as it wrote it matches them. Once every
+ * stripe has arrived, the stripes their stream could not check, such as
+ * those of a delta transfer, are read back from the file and checked against
+ * their checksum, and the stripes must add up to the size of the whole file.
+ *
+ * While the file is incomplete, a journal is kept next to it under the name of
+ * the file followed by JOURNAL_SUFFIX. It records the range of each stripe
+ * received in order so far, from the start of the stripe, and is rewritten
+ * every JOURNAL_INTERVAL bytes of progress.
+ *
+ * <pre>
+ * | file size (8) | range count (4) | offset 1 (8) | length 1 (8) | ... |
+ * </pre>
+ *
+ * If the receiver is restarted and the same file of the same size is sent
+ * again, the file is kept rather than truncated, and each stream is offered
+ * the range of its stripe recorded by the journal, so that the transfer
+ * resumes where it stopped. The sender checks the range against its own copy
+ * of the file before accepting it, which also catches ranges the journal
+ * records but which never made it to the disk. The journal is deleted once
+ * the file is complete.
+ *
+ * Only the range received in order is recorded, as it is the only one a
+ * stream can be offered. Segments written ahead of a missing segment are
+ * sent again on resuming, which is at most the reorder memory of the
+ * receiver for each stripe. A receiver that is killed rather than stopped
+ * also sends again up to JOURNAL_INTERVAL bytes received since the journal
+ * was last written.
+ *
+ * A sender asking for a delta transfer of a file the receiver already has a
+ * copy of is offered that copy as basis. The basis is cut into blocks whose
+ * signatures are handed to the sender on request, and the file is written
+ * next to it under the name of the file followed by DELTA_SUFFIX, from the
+ * literal bytes sent and the blocks of the basis the sender refers to. Once
+ * complete and checked, the file replaces the basis; a file failing its
+ * check leaves the basis as it was.
+ *
+ * Failures to open, write or close the file are thrown to the session
+ * writing it, which decides whether the receiver can carry on. A file whose
+ * session is aborted is closed with its journal up to date, so that a later
+ * transfer of the same file resumes from it.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class ReceivedFile {
+
+	/* Constants */
+	private static final boolean	DEBUG_MODE			= false;
+	public static final String		JOURNAL_SUFFIX		= ".journal";
+	// Progress of the stripes between two writes of the journal in bytes
+	private static final long		JOURNAL_INTERVAL	= 4L << 20;
+	private static final int		JOURNAL_HEADER_SIZE	= 12;
+	private static final int		JOURNAL_RANGE_SIZE	= 16;
+	public static final String		DELTA_SUFFIX		= ".delta";
+	// Bounds of the size of the blocks of a basis in bytes
+	private static final int		MIN_BLOCK_SIZE		= 1 << 10;
+	private static final int		MAX_BLOCK_SIZE		= 1 << 16;
+
+	/* Member Variables */
+	private String					_filename;
+	private long					_fileSize;
+	private ChecksumType			_checksumType;
+	private FileChannel				_fileChannel;
+	// Offset, length and checksum of each stripe finished so far
+	private long[]					_stripeOffsets;
+	private long[]					_stripeLengths;
+	private int[]					_stripeDigests;
+	// Whether each stripe finished so far was checked as it was written
+	private boolean[]				_stripesChecked;
+	private int						_finishedCount;
+	// Offset of each stripe claimed by a stream so far
+	private long[]					_claimedOffsets;
+	private int						_claimedCount;
+	private File					_journal;
+	// Ranges of the file received in order, from the start of each stripe
+	private long[]					_rangeOffsets;
+	private long[]					_rangeLengths;
+	private int						_rangeCount;
+	// Total length of the ranges, now and when the journal was last written
+	private long					_progress;
+	private long					_journaledProgress;
+	// Copy of the file offered as basis of a delta transfer, if any
+	private FileChannel				_basisChannel;
+	private long					_basisLength;
+	private int						_blockSize;
+	private ByteBuffer				_blockBuffer;
+	// File written in place of the basis until complete
+	private File					_temporary;
+
+	/* Constructors */
+
+	/**
+	 * Constructor. Creates the file and extends it to its size, so that
+	 * segments can be written at their place in any order, unless the file
+	 * is left from an earlier transfer and its journal can be resumed from.
+	 * For a delta transfer, an existing file is kept as basis and the new
+	 * one is created next to it.
+	 *
+	 * @param filename
+	 *            name to save the file under
+	 * @param fileSize
+	 *            size of the file in bytes
+	 * @param checksumType
+	 *            algorithm the stripes are checksummed with
+	 * @param stripeCount
+	 *            number of streams the file is split into
+	 * @param delta
+	 *            true if the sender asks for a delta transfer
+	 * @throws IOException
+	 *             if the file cannot be created or opened
+	 */
+	public ReceivedFile(String filename, long fileSize,
+			ChecksumType checksumType, int stripeCount, boolean delta)
+			throws IOException {
+		setFilename(filename);
+		setFileSize(fileSize);
+		setChecksumType(checksumType);
+		setStripeOffsets(new long[stripeCount]);
+		setStripeLengths(new long[stripeCount]);
+		setStripeDigests(new int[stripeCount]);
+		setStripesChecked(new boolean[stripeCount]);
+		setFinishedCount(0);
+		setClaimedOffsets(new long[stripeCount]);
+		setClaimedCount(0);
+		setJournal(new File(filename + JOURNAL_SUFFIX));
+		setRangeOffsets(new long[stripeCount]);
+		setRangeLengths(new long[stripeCount]);
+		setRangeCount(0);
+		setProgress(0);
+		setJournaledProgress(0);
+		setBasisLength(0);
+		openFile(delta);
+	}
+
+	/* Accessors and Modifiers */
+
+	public String getFilename() {
+		return _filename;
+	}
+
+	public void setFilename(String filename) {
+		_filename = filename;
+	}
+
+	public long getFileSize() {
+		return _fileSize;
+	}
+
+	public void setFileSize(long fileSize) {
+		_fileSize = fileSize;
+	}
+
+	public ChecksumType getChecksumType() {
+		return _checksumType;
+	}
+
+	public void setChecksumType(ChecksumType checksumType) {
+		_checksumType = checksumType;
+	}
+
+	public FileChannel getFileChannel() {
+		return _fileChannel;
+	}
+
+	public void setFileChannel(FileChannel fileChannel) {
+		_fileChannel = fileChannel;
+	}
+
+	public long[] getStripeOffsets() {
+		return _stripeOffsets;
+	}
+
+	public void setStripeOffsets(long[] stripeOffsets) {
+		_stripeOffsets = stripeOffsets;
+	}
+
+	public long[] getStripeLengths() {
+		return _stripeLengths;
+	}
+
+	public void setStripeLengths(long[] stripeLengths) {
+		_stripeLengths = stripeLengths;
+	}
+
+	public int[] getStripeDigests() {
+		return _stripeDigests;
+	}
+
+	public void setStripeDigests(int[] stripeDigests) {
+		_stripeDigests = stripeDigests;
+	}
+
+	public boolean[] getStripesChecked() {
+		return _stripesChecked;
+	}
+
+	public void setStripesChecked(boolean[] stripesChecked) {
+		_stripesChecked = stripesChecked;
+	}
+
+	public int getFinishedCount() {
+		return _finishedCount;
+	}
+
+	public void setFinishedCount(int finishedCount) {
+		_finishedCount = finishedCount;
+	}
+
+	public long[] getClaimedOffsets() {
+		return _claimedOffsets;
+	}
+
+	public void setClaimedOffsets(long[] claimedOffsets) {
+		_claimedOffsets = claimedOffsets;
+	}
+
+	public int getClaimedCount() {
+		return _claimedCount;
+	}
+
+	public void setClaimedCount(int claimedCount) {
+		_claimedCount = claimedCount;
+	}
+
+	/**
+	 * Checks if any stream is still writing a stripe of the file
+	 *
+	 * @return true if some stripe has been claimed but not finished
+	 */
+	public boolean isBeingWritten() {
+		return getClaimedCount() > getFinishedCount();
+	}
+
+	public boolean isComplete() {
+		return getFinishedCount() == getStripeCount();
+	}
+
+	public int getStripeCount() {
+		return getStripeOffsets().length;
+	}
+
+	public File getJournal() {
+		return _journal;
+	}
+
+	public void setJournal(File journal) {
+		_journal = journal;
+	}
+
+	public long[] getRangeOffsets() {
+		return _rangeOffsets;
+	}
+
+	public void setRangeOffsets(long[] rangeOffsets) {
+		_rangeOffsets = rangeOffsets;
+	}
+
+	public long[] getRangeLengths() {
+		return _rangeLengths;
+	}
+
+	public void setRangeLengths(long[] rangeLengths) {
+		_rangeLengths = rangeLengths;
+	}
+
+	public int getRangeCount() {
+		return _rangeCount;
+	}
+
+	public void setRangeCount(int rangeCount) {
+		_rangeCount = rangeCount;
+	}
+
+	public long getProgress() {
+		return _progress;
+	}
+
+	public void setProgress(long progress) {
+		_progress = progress;
+	}
+
+	public long getJournaledProgress() {
+		return _journaledProgress;
+	}
+
+	public void setJournaledProgress(long journaledProgress) {
+		_journaledProgress = journaledProgress;
+	}
+
+	public FileChannel getBasisChannel() {
+		return _basisChannel;
+	}
+
+	public void setBasisChannel(FileChannel basisChannel) {
+		_basisChannel = basisChannel;
+	}
+
+	public long getBasisLength() {
+		return _basisLength;
+	}
+
+	public void setBasisLength(long basisLength) {
+		_basisLength = basisLength;
+	}
+
+	public int getBlockSize() {
+		return _blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		_blockSize = blockSize;
+	}
+
+	public ByteBuffer getBlockBuffer() {
+		return _blockBuffer;
+	}
+
+	public void setBlockBuffer(ByteBuffer blockBuffer) {
+		_blockBuffer = blockBuffer;
+	}
+
+	public File getTemporary() {
+		return _temporary;
+	}
+
+	public void setTemporary(File temporary) {
+		_temporary = temporary;
+	}
+
+	public boolean hasBasis() {
+		return getBasisChannel() != null;
+	}
+
+	/**
+	 * Gets the number of whole blocks in the basis. A shorter block at the
+	 * end of the basis has no signature and is never copied.
+	 *
+	 * @return number of blocks
+	 */
+	public int getBlockCount() {
+		return (int) (getBasisLength() / getBlockSize());
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Claims a stripe of the file for the stream announced by a first
+	 * segment, if the segment describes this file and the stripe has not
+	 * been claimed yet
+	 *
+	 * @param first
+	 *            valid first segment of the stream
+	 * @return false if the stream belongs to another transfer of the same
+	 *         name
+	 */
+	public boolean claimStripe(UDPSegment first) {
+		if (first.getFileSize() != getFileSize()
+				|| first.getChecksumType() != getChecksumType()
+				|| first.getStripeCount() != getStripeCount()
+				|| getClaimedCount() == getStripeCount()) {
+			return false;
+		}
+		for (int i = 0; i < getClaimedCount(); i++) {
+			if (getClaimedOffsets()[i] == first.getStripeOffset()) {
+				return false;
+			}
+		}
+		getClaimedOffsets()[_claimedCount++] = first.getStripeOffset();
+		return true;
+	}
+
+	/**
+	 * Gives up the claim of a stream on its stripe before it has finished,
+	 * so that another stream may write the stripe
+	 *
+	 * @param stripeOffset
+	 *            offset of the stripe in the file
+	 */
+	public void releaseStripe(long stripeOffset) {
+		for (int i = 0; i < getClaimedCount(); i++) {
+			if (getClaimedOffsets()[i] == stripeOffset) {
+				getClaimedOffsets()[i] = getClaimedOffsets()[--_claimedCount];
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Gets the range recorded for a stripe, adding an empty one if there is
+	 * none
+	 *
+	 * @param stripeOffset
+	 *            offset of the stripe in the file
+	 * @return index of the range of the stripe
+	 */
+	public int openRange(long stripeOffset) {
+		for (int i = 0; i < getRangeCount(); i++) {
+			if (getRangeOffsets()[i] == stripeOffset) {
+				return i;
+			}
+		}
+		assert (getRangeCount() < getRangeOffsets().length);
+		getRangeOffsets()[getRangeCount()] = stripeOffset;
+		getRangeLengths()[getRangeCount()] = 0;
+		return _rangeCount++;
+	}
+
+	/**
+	 * Gets the length of the range of a stripe received in order so far
+	 *
+	 * @param range
+	 *            index of the range of the stripe
+	 * @return length of the range in bytes
+	 */
+	public long getRangeLength(int range) {
+		return getRangeLengths()[range];
+	}
+
+	/**
+	 * Records the progress of a stripe, writing the journal once the stripes
+	 * have progressed by JOURNAL_INTERVAL since it was last written, or at
+	 * once if a range has shrunk.
+	 *
+	 * @param range
+	 *            index of the range of the stripe
+	 * @param length
+	 *            length of the stripe received in order so far, from its
+	 *            start
+	 */
+	public void recordProgress(int range, long length) {
+		if (hasBasis()) {
+			// A delta transfer is not resumed
+			return;
+		}
+		length = Math.min(length, getFileSize() - getRangeOffsets()[range]);
+		long previous = getRangeLengths()[range];
+		getRangeLengths()[range] = length;
+		_progress += length - previous;
+		if (length < previous
+				|| getProgress() - getJournaledProgress() >= JOURNAL_INTERVAL) {
+			writeJournal();
+		}
+	}
+
+	/**
+	 * Computes the checksum of the first bytes of a stripe as written to the
+	 * file
+	 *
+	 * @param stripeOffset
+	 *            offset of the stripe in the file
+	 * @param length
+	 *            number of bytes to checksum
+	 * @param checksumType
+	 *            algorithm to checksum with
+	 * @return the checksum
+	 * @throws IOException
+	 *             if the file cannot be read up to the end of the bytes
+	 */
+	public int checksumRange(long stripeOffset, long length,
+			ChecksumType checksumType) throws IOException {
+		Checksum checksum = checksumType.newChecksum();
+		if (!ChecksumType.update(checksum, getFileChannel(), stripeOffset,
+				length)) {
+			throw new IOException("File ends before offset "
+					+ (stripeOffset + length));
+		}
+		return (int) checksum.getValue();
+	}
+
+	/**
+	 * Computes the signatures of consecutive blocks of the basis, as many as
+	 * an ACK can carry
+	 *
+	 * @param firstBlock
+	 *            index of the first block
+	 * @param checksumType
+	 *            algorithm of the strong checksums
+	 * @param signatures
+	 *            array of at least UDPSegment.MAX_SIGNATURES * 2 to write the
+	 *            weak and strong checksum of each block into
+	 * @return number of blocks whose signatures were written
+	 * @throws IOException
+	 *             if the basis cannot be read
+	 */
+	public int fillSignatures(int firstBlock, ChecksumType checksumType,
+			int[] signatures) throws IOException {
+		if (!hasBasis() || firstBlock < 0) {
+			return 0;
+		}
+		int count = Math.min(UDPSegment.MAX_SIGNATURES, getBlockCount()
+				- firstBlock);
+		ByteBuffer block = getBlockBuffer();
+		Checksum strong = checksumType.newChecksum();
+
+		for (int i = 0; i < count; i++) {
+			long position = (long) (firstBlock + i) * getBlockSize();
+			block.clear();
+			while (block.hasRemaining()) {
+				if (getBasisChannel().read(block,
+						position + block.position()) < 0) {
+					throw new IOException("Basis ends before block "
+							+ (firstBlock + i));
+				}
+			}
+			signatures[i * 2] = RollingChecksum.of(block.array(), 0,
+					getBlockSize());
+			strong.reset();
+			strong.update(block.array(), 0, getBlockSize());
+			signatures[i * 2 + 1] = (int) strong.getValue();
+		}
+		return Math.max(count, 0);
+	}
+
+	/**
+	 * Records a stripe whose stream has finished. Once all stripes have
+	 * finished, the file is checked and closed.
+	 *
+	 * @param offset
+	 *            offset of the stripe in the file
+	 * @param length
+	 *            length of the stripe reported by the sender
+	 * @param digest
+	 *            checksum of the stripe reported by the sender
+	 * @param checked
+	 *            true if the stripe as written by its stream matches them
+	 * @return false if this was the last stripe and the file failed its
+	 *         integrity check
+	 * @throws IOException
+	 *             if the file cannot be closed, or cannot replace its basis
+	 */
+	public boolean finishStripe(long offset, long length, int digest,
+			boolean checked) throws IOException {
+		int index = getFinishedCount();
+		getStripeOffsets()[index] = offset;
+		getStripeLengths()[index] = length;
+		getStripeDigests()[index] = digest;
+		getStripesChecked()[index] = checked;
+		_finishedCount++;
+		if (!isComplete()) {
+			return true;
+		}
+
+		boolean intact = verify();
+		close();
+		deleteJournal();
+		if (hasBasis()) {
+			replaceBasis(intact);
+		}
+		if (!intact) {
+			if (Log.isEnabled(LogLevel.ERROR)) {
+				Log.log(LogLevel.ERROR, "File failed its integrity check: "
+						+ getFilename());
+			}
+			return false;
+		}
+		if (Log.isEnabled(LogLevel.INFO)) {
+			Log.log(LogLevel.INFO, "File passed its integrity check: "
+					+ getFilename());
+		}
+		return true;
+	}
+
+	/**
+	 * Closes the file once no stream is left writing it, before every stripe
+	 * has arrived. The journal is brought up to date first, so that
+	 * a later transfer resumes from the stripes received so far; a delta
+	 * transfer is not resumed, so the file written next to the basis is
+	 * deleted instead.
+	 */
+	public void abort() {
+		try {
+			if (hasBasis()) {
+				getBasisChannel().close();
+				getFileChannel().close();
+				Files.deleteIfExists(getTemporary().toPath());
+			} else {
+				writeJournal();
+				getFileChannel().close();
+			}
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/* Private Methods */
+
+	/**
+	 * Creates the file, along with any missing parent directories, and
+	 * extends it to the size announced by the sender. A file of that size
+	 * with a journal is left as it is, and the ranges of the journal are
+	 * offered to the streams; a stale journal is deleted. Otherwise, for a
+	 * delta transfer, an existing file of at least one block is opened as
+	 * basis and the file is created next to it.
+	 *
+	 * @param delta
+	 *            true if the sender asks for a delta transfer
+	 * @throws IOException
+	 *             if the file cannot be created or opened
+	 */
+	private void openFile(boolean delta) throws IOException {
+		try {
+			File file = new File(getFilename());
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+			boolean resuming = file.length() == getFileSize() && readJournal();
+			if (!resuming && delta && file.isFile()
+					&& file.length() >= MIN_BLOCK_SIZE) {
+				openBasis(file);
+				file = getTemporary();
+			}
+			if (resuming) {
+				if (Log.isEnabled(LogLevel.DEBUG)) {
+					Log.log(LogLevel.DEBUG, "Resuming " + getFilename()
+							+ " with {} bytes received", getProgress());
+				}
+				setFileChannel(FileChannel.open(file.toPath(),
+						StandardOpenOption.WRITE, StandardOpenOption.READ));
+			} else {
+				deleteJournal();
+				setFileChannel(FileChannel.open(file.toPath(),
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.READ,
+						StandardOpenOption.TRUNCATE_EXISTING));
+				if (getFileSize() > 0) {
+					getFileChannel().write(ByteBuffer.allocate(1),
+							getFileSize() - 1);
+				}
+			}
+		} catch (IOException e) {
+			// Nothing is left open for a file that cannot be written
+			if (getFileChannel() != null) {
+				getFileChannel().close();
+			}
+			if (hasBasis()) {
+				getBasisChannel().close();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads every stripe not checked as it was written back from the file and
+	 * compares its checksum with the one reported by the sender
+	 *
+	 * @return true if every stripe matches and together they make up the
+	 *         whole file
+	 */
+	private boolean verify() {
+		Checksum checksum = getChecksumType().newChecksum();
+		long total = 0;
+
+		for (int i = 0; i < getStripeCount(); i++) {
+			total += getStripeLengths()[i];
+			if (getStripesChecked()[i]) {
+				continue;
+			}
+			if (Log.isEnabled(LogLevel.DEBUG)) {
+				Log.log(LogLevel.DEBUG, "Reading back stripe at {} of "
+						+ getFilename(), getStripeOffsets()[i]);
+			}
+			checksum.reset();
+			try {
+				if (!ChecksumType.update(checksum, getFileChannel(),
+						getStripeOffsets()[i], getStripeLengths()[i])) {
+					return false;
+				}
+			} catch (IOException e) {
+				if (DEBUG_MODE) {
+					e.printStackTrace();
+				}
+				return false;
+			}
+			if ((int) checksum.getValue() != getStripeDigests()[i]) {
+				return false;
+			}
+		}
+		return total == getFileSize();
+	}
+
+	private void close() throws IOException {
+		getFileChannel().close();
+	}
+
+	/**
+	 * Opens an existing copy of the file as the basis of a delta transfer.
+	 * The basis is cut into blocks of about the square root of its length,
+	 * which keeps both the number of signatures and the bytes sent for a
+	 * changed block small.
+	 *
+	 * @param file
+	 *            existing copy of the file
+	 * @throws IOException
+	 *             if the copy cannot be opened
+	 */
+	private void openBasis(File file) throws IOException {
+		setBasisChannel(FileChannel.open(file.toPath(),
+				StandardOpenOption.READ));
+		setBasisLength(getBasisChannel().size());
+		int blockSize = Integer.highestOneBit((int) Math.sqrt(getBasisLength()));
+		setBlockSize(Math.max(MIN_BLOCK_SIZE,
+				Math.min(blockSize, MAX_BLOCK_SIZE)));
+		setBlockBuffer(ByteBuffer.allocate(getBlockSize()));
+		setTemporary(new File(getFilename() + DELTA_SUFFIX));
+		if (Log.isEnabled(LogLevel.DEBUG)) {
+			Log.log(LogLevel.DEBUG, "Basis of " + getFilename()
+					+ ": {} blocks of {}", getBlockCount(), getBlockSize());
+		}
+	}
+
+	/**
+	 * Ends a delta transfer: the file replaces the basis if it passed its
+	 * check, and is deleted otherwise
+	 *
+	 * @param intact
+	 *            true if the file passed its check
+	 * @throws IOException
+	 *             if the basis cannot be closed, replaced or deleted
+	 */
+	private void replaceBasis(boolean intact) throws IOException {
+		getBasisChannel().close();
+		if (intact) {
+			Files.move(getTemporary().toPath(), new File(getFilename())
+					.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			Files.deleteIfExists(getTemporary().toPath());
+		}
+	}
+
+	/**
+	 * Reads the ranges recorded by the journal of the file, if there is one
+	 * for a file of the size announced by the sender. Ranges outside of the
+	 * file are dropped.
+	 *
+	 * @return true if the journal was read
+	 */
+	private boolean readJournal() {
+		if (!getJournal().isFile()) {
+			return false;
+		}
+		ByteBuffer journal;
+		try {
+			journal = ByteBuffer.wrap(Files.readAllBytes(getJournal()
+					.toPath()));
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+			return false;
+		}
+		if (journal.remaining() < JOURNAL_HEADER_SIZE
+				|| journal.getLong() != getFileSize()) {
+			return false;
+		}
+		int rangeCount = journal.getInt();
+		if (rangeCount < 0
+				|| journal.remaining() != (long) rangeCount * JOURNAL_RANGE_SIZE) {
+			return false;
+		}
+
+		// Room for the ranges of the journal and one for each stripe
+		setRangeOffsets(new long[rangeCount + getStripeCount()]);
+		setRangeLengths(new long[rangeCount + getStripeCount()]);
+		for (int i = 0; i < rangeCount; i++) {
+			long offset = journal.getLong();
+			long length = journal.getLong();
+			if (offset < 0 || length <= 0 || offset > getFileSize() - length) {
+				continue;
+			}
+			getRangeOffsets()[getRangeCount()] = offset;
+			getRangeLengths()[getRangeCount()] = length;
+			_rangeCount++;
+			_progress += length;
+		}
+		setJournaledProgress(getProgress());
+		return true;
+	}
+
+	/**
+	 * Writes the ranges received so far to the journal. The journal is
+	 * written to a temporary file first and then moved over the old one, so
+	 * that a receiver stopped halfway leaves either journal whole. A journal
+	 * that cannot be written costs only the ability to resume, so the
+	 * transfer carries on.
+	 */
+	private void writeJournal() {
+		ByteBuffer journal = ByteBuffer.allocate(JOURNAL_HEADER_SIZE
+				+ getRangeCount() * JOURNAL_RANGE_SIZE);
+		journal.putLong(getFileSize());
+		journal.putInt(getRangeCount());
+		for (int i = 0; i < getRangeCount(); i++) {
+			journal.putLong(getRangeOffsets()[i]);
+			journal.putLong(getRangeLengths()[i]);
+		}
+
+		File temporary = new File(getJournal().getPath() + ".tmp");
+		try {
+			Files.write(temporary.toPath(), journal.array());
+			Files.move(temporary.toPath(), getJournal().toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+		}
+		setJournaledProgress(getProgress());
+	}
+
+	private void deleteJournal() {
+		try {
+			Files.deleteIfExists(getJournal().toPath());
+		} catch (IOException e) {
+			if (DEBUG_MODE) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
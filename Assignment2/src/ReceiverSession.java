@@ -0,0 +1,580 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.HashMap;
+
+/**
+ *
+ * The state of a session of the FileReceiver with a single sender, told apart
+ * from the sessions of other senders by the address its datagrams come from.
+ * A session carries one or more files, each as an InboundStream told apart
+ * by the stream id of its segments, and is over once as many streams as
+ * announced by the sender have been received.
+ *
+ * Segments received in order may be acknowledged together: an ACK is sent
+ * once the configured number of them has arrived, or once the oldest has
+ * waited for the configured delay, whichever comes first. Segments that open
+ * or end a stream, arrive out of order, fill a gap or repeat a segment
+ * already received are acknowledged at once, as the sender needs to hear of
+ * those without delay, and so are segments the sender flags as being the
+ * last it can send until they are acknowledged.
+ *
+ * Parity segments of a stream with forward error correction are not
+ * acknowledged. The segments they rebuild are received and acknowledged as
+ * if they had arrived with the parity segment.
+ *
+ * After its last stream, a session lingers until the sender has been quiet
+ * for LINGER_DELAY, acknowledging retransmissions in case the sender did not
+ * receive their ACK, and is then closed by the FileReceiver. Before that, a
+ * sender that falls silent for IDLE_TIMEOUT is taken to be gone, and the
+ * session is aborted so that it stops holding its files and its place among
+ * the sessions of the receiver.
+ *
+ * A failure to open or write a file, a file failing its integrity check or a
+ * failure to send an ACK aborts the session. Outside of daemon mode this
+ * ends the receiver, with the termination code of the failure; in daemon
+ * mode the session is closed along with the files it was writing, and the
+ * sessions of other senders carry on.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class ReceiverSession {
+
+	/* Constants */
+	// Time without any retransmission from sender before closing in msec
+	private static final int		LINGER_DELAY	= 1000;
+	// Time without any datagram from sender before giving up on an
+	// unfinished session in msec, several times the longest retransmission
+	// timeout of a sender
+	private static final int		IDLE_TIMEOUT	= 10000;
+
+	/* Member Variables */
+	private FileReceiver			_receiver;
+	private SocketAddress			_clientAddress;
+	private HashMap<Integer, InboundStream>	_streams;
+	// Number of streams in the session, 0 until the first has been opened
+	private int						_streamCount;
+	private int						_finishedCount;
+	// Corrupted segments discarded and not rebuilt from parity since
+	private int						_corruptedCount;
+	// Data segments written to files and ACKs sent over the whole session
+	private int						_segmentCount;
+	private int						_ackCount;
+	// Segments rebuilt from parity segments
+	private int						_rebuiltCount;
+	private WheelTask				_lingerTimer;
+	private WheelTask				_idleTimer;
+	private boolean					_finished;
+	private boolean					_aborted;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param receiver
+	 *            receiver the session belongs to
+	 * @param clientAddress
+	 *            address the datagrams of the session come from
+	 */
+	public ReceiverSession(FileReceiver receiver, SocketAddress clientAddress) {
+		setReceiver(receiver);
+		setClientAddress(clientAddress);
+		setStreams(new HashMap<Integer, InboundStream>());
+		setStreamCount(0);
+		setFinishedCount(0);
+		setCorruptedCount(0);
+		setSegmentCount(0);
+		setAckCount(0);
+		setFinished(false);
+		setAborted(false);
+		setLingerTimer(new WheelTask() {
+			@Override
+			public void run() {
+				// Sender has stopped retransmitting
+				getReceiver().closeSession(ReceiverSession.this);
+			}
+		});
+		setIdleTimer(new WheelTask() {
+			@Override
+			public void run() {
+				// Sender has stopped sending before the end of the session
+				abort(8);
+			}
+		});
+	}
+
+	/* Accessors and Modifiers */
+
+	public FileReceiver getReceiver() {
+		return _receiver;
+	}
+
+	public void setReceiver(FileReceiver receiver) {
+		_receiver = receiver;
+	}
+
+	public SocketAddress getClientAddress() {
+		return _clientAddress;
+	}
+
+	public void setClientAddress(SocketAddress clientAddress) {
+		_clientAddress = clientAddress;
+	}
+
+	public HashMap<Integer, InboundStream> getStreams() {
+		return _streams;
+	}
+
+	public void setStreams(HashMap<Integer, InboundStream> streams) {
+		_streams = streams;
+	}
+
+	public int getStreamCount() {
+		return _streamCount;
+	}
+
+	public void setStreamCount(int streamCount) {
+		_streamCount = streamCount;
+	}
+
+	public int getFinishedCount() {
+		return _finishedCount;
+	}
+
+	public void setFinishedCount(int finishedCount) {
+		_finishedCount = finishedCount;
+	}
+
+	public int getCorruptedCount() {
+		return _corruptedCount;
+	}
+
+	public void setCorruptedCount(int corruptedCount) {
+		_corruptedCount = corruptedCount;
+	}
+
+	public int getSegmentCount() {
+		return _segmentCount;
+	}
+
+	public void setSegmentCount(int segmentCount) {
+		_segmentCount = segmentCount;
+	}
+
+	public int getAckCount() {
+		return _ackCount;
+	}
+
+	public void setAckCount(int ackCount) {
+		_ackCount = ackCount;
+	}
+
+	public int getRebuiltCount() {
+		return _rebuiltCount;
+	}
+
+	public void setRebuiltCount(int rebuiltCount) {
+		_rebuiltCount = rebuiltCount;
+	}
+
+	public WheelTask getLingerTimer() {
+		return _lingerTimer;
+	}
+
+	public void setLingerTimer(WheelTask lingerTimer) {
+		_lingerTimer = lingerTimer;
+	}
+
+	public WheelTask getIdleTimer() {
+		return _idleTimer;
+	}
+
+	public void setIdleTimer(WheelTask idleTimer) {
+		_idleTimer = idleTimer;
+	}
+
+	public boolean isFinished() {
+		return _finished;
+	}
+
+	public void setFinished(boolean finished) {
+		_finished = finished;
+	}
+
+	public boolean isAborted() {
+		return _aborted;
+	}
+
+	public void setAborted(boolean aborted) {
+		_aborted = aborted;
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Processes a segment received from the sender of the session. The first
+	 * valid segment of a stream holds the filename, the following ones the
+	 * contents of the file, and segments arriving after the session is over
+	 * are retransmissions to be acknowledged again. Corrupted segments are
+	 * counted, so that the sender can tell them apart from segments lost to
+	 * congestion, unless later rebuilt from parity, as these are never
+	 * retransmitted. Until the session is over, every datagram restarts the
+	 * idle timer.
+	 *
+	 * @param seg
+	 *            segment received from the sender
+	 */
+	public void receive(UDPSegment seg) {
+		if (isFinished()) {
+			linger(seg);
+			return;
+		}
+		getIdleTimer().cancel();
+		if (!seg.isValid()) {
+			_corruptedCount++;
+		} else {
+			InboundStream stream = getStreams().get(seg.getStreamId());
+			if (seg.isParity()) {
+				if (stream != null) {
+					receiveParity(stream, seg);
+				}
+			} else if (stream == null) {
+				openStream(seg);
+			} else {
+				receiveFile(stream, seg);
+			}
+		}
+		if (!isFinished() && !isAborted() && !getStreams().isEmpty()) {
+			getReceiver().getWheel().schedule(getIdleTimer(), IDLE_TIMEOUT);
+		}
+	}
+
+	/* Private Methods */
+
+	/**
+	 * Opens a stream from its first segment, which holds the filename, the
+	 * size of the file, the number of streams in the session, the stripe of
+	 * the file sent by the stream and the segment size proposed by the
+	 * sender. The stream uses the smaller of the proposed size and the size
+	 * configured for the receiver. ACK is sent only if the segment is in
+	 * order, and the stream is not opened while its file is being written by
+	 * another transfer, nor at all if its name leads out of the root of the
+	 * receiver
+	 *
+	 * @param first
+	 *            valid segment of a stream not opened yet
+	 */
+	private void openStream(UDPSegment first) {
+		if (first.getSeqNum() != 1 || !first.containsValidFileInfo()
+				|| getReceiver().resolveFilename(first.getFilename()) == null) {
+			return;
+		}
+		ReceivedFile file;
+		try {
+			file = getReceiver().openFile(first);
+		} catch (IOException e) {
+			Log.log(LogLevel.ERROR, "Failed to create new file", e);
+			abort(2);
+			return;
+		}
+		if (file == null) {
+			// Retransmitted by the sender until the other transfer is over
+			return;
+		}
+		TransferConfig config = getReceiver().getConfig();
+		int segmentSize = config.acceptSegmentSize(first
+				.getProposedSegmentSize());
+		final InboundStream stream = new InboundStream(first, file,
+				segmentSize, config.getReorderCapacity(segmentSize));
+		stream.setDecompressor(getReceiver().getDecompressor());
+		stream.setAckTimer(new WheelTask() {
+			@Override
+			public void run() {
+				// Oldest segment held back has waited long enough
+				sendAck(stream, stream.getUnackedSeqNum(),
+						stream.getUnackedDelay());
+			}
+		});
+		getStreams().put(stream.getStreamId(), stream);
+		setStreamCount(first.getStreamCount());
+		sendAck(stream, first);
+	}
+
+	/**
+	 * Processes a valid segment of a stream and acknowledges it, at once or
+	 * along with the segments that follow it. A finished stream hands its
+	 * stripe over to its file for checking. The session is over once every
+	 * stream announced by the sender is, and is aborted if the segment cannot
+	 * be written or its file fails its check.
+	 *
+	 * @param stream
+	 *            stream the segment belongs to
+	 * @param seg
+	 *            valid segment of the stream
+	 */
+	private void receiveFile(InboundStream stream, UDPSegment seg) {
+		boolean urgent = stream.hasGap() || stream.isDuplicate(seg.getSeqNum())
+				|| seg.isAckNow();
+		boolean streamFinished;
+		int written = stream.getDataCount();
+		try {
+			streamFinished = stream.receive(seg);
+		} catch (IOException e) {
+			Log.log(LogLevel.ERROR, "Failed to write to file", e);
+			abort(5);
+			return;
+		}
+		// Duplicates, parity and control segments are left out
+		_segmentCount += stream.getDataCount() - written;
+		if (streamFinished) {
+			try {
+				if (!getReceiver().finishStripe(stream)) {
+					abort(7);
+					return;
+				}
+			} catch (IOException e) {
+				Log.log(LogLevel.ERROR, "Failed to close file", e);
+				abort(6);
+				return;
+			}
+			_finishedCount++;
+			if (getFinishedCount() == getStreamCount()) {
+				setFinished(true);
+			}
+		}
+
+		TransferConfig config = getReceiver().getConfig();
+		if (urgent || streamFinished || stream.hasGap()) {
+			sendAck(stream, seg);
+		} else {
+			stream.holdAck(seg.getSeqNum(), delayOf(seg));
+			if (stream.getUnackedCount() >= config.getAckEvery()) {
+				sendAck(stream, stream.getUnackedSeqNum(),
+						stream.getUnackedDelay());
+			} else if (stream.getAckTimer().getWheel() == null) {
+				getReceiver().getWheel().schedule(stream.getAckTimer(),
+						config.getAckDelay());
+			}
+		}
+		if (isFinished() && !isAborted()) {
+			getReceiver().getWheel().schedule(getLingerTimer(), LINGER_DELAY);
+		}
+	}
+
+	/**
+	 * Processes a valid parity segment of a stream, and receives the
+	 * segments of its group it rebuilds that have not been received since
+	 *
+	 * @param stream
+	 *            stream the segment belongs to
+	 * @param parity
+	 *            valid parity segment of the stream
+	 */
+	private void receiveParity(InboundStream stream, UDPSegment parity) {
+		int count = stream.receiveParity(parity);
+		if (count == 0) {
+			return;
+		}
+		SegmentPool pool = getReceiver().getSegmentPool();
+		UDPSegment rebuilt = pool.acquire();
+		for (int i = 0; i < count && !isAborted(); i++) {
+			if (stream.fillRebuilt(i, rebuilt)) {
+				rebuilt.setTimestamp(parity.getTimestamp());
+				_rebuiltCount++;
+				// Not to be blamed for a timeout by the sender any more
+				if (_corruptedCount > 0) {
+					_corruptedCount--;
+				}
+				Log.log(LogLevel.DEBUG, "Rebuilt segment {} of stream {}",
+						rebuilt.getSeqNum(), stream.getStreamId());
+				receiveFile(stream, rebuilt);
+			}
+		}
+		pool.release(rebuilt);
+	}
+
+	/**
+	 * Keeps acknowledging retransmissions after the session is over in case
+	 * the sender did not receive their ACK. The session ends once the sender
+	 * has been quiet for LINGER_DELAY.
+	 *
+	 * @param seg
+	 *            segment received after the session is over
+	 */
+	private void linger(UDPSegment seg) {
+		getLingerTimer().cancel();
+		getReceiver().getWheel().schedule(getLingerTimer(), LINGER_DELAY);
+		if (!seg.isValid() || seg.isParity()) {
+			return;
+		}
+		InboundStream stream = getStreams().get(seg.getStreamId());
+		if (stream != null && stream.isDuplicate(seg.getSeqNum())) {
+			sendAck(stream, seg);
+		}
+	}
+
+	/**
+	 * Sends an ACK for a stream to the sender, caused by a segment just
+	 * received
+	 *
+	 * @param stream
+	 *            stream to acknowledge
+	 * @param seg
+	 *            segment that caused the ACK
+	 */
+	private void sendAck(InboundStream stream, UDPSegment seg) {
+		sendAck(stream, seg.getSeqNum(), delayOf(seg),
+				seg.isSignatures() ? seg.getFirstBlock() : -1);
+	}
+
+	/**
+	 * Sends an ACK for a stream to the sender, caused by segments held back
+	 *
+	 * @param stream
+	 *            stream to acknowledge
+	 * @param echoSeqNum
+	 *            sequence number of the oldest segment held back
+	 * @param delay
+	 *            one-way delay of that segment in usec
+	 */
+	private void sendAck(InboundStream stream, int echoSeqNum, int delay) {
+		sendAck(stream, echoSeqNum, delay, -1);
+	}
+
+	/**
+	 * Sends an ACK for a stream to the sender, acknowledging all segments of
+	 * the stream received so far, including any held back. ACKs use the
+	 * checksum algorithm chosen by the sender for the stream, and carry the
+	 * one-way delay of the segment that caused the ACK and the segment size
+	 * accepted for the stream. Until the sender has answered the offer of a
+	 * stream to resume, ACKs of its first segment carry the offer, and so
+	 * they do the basis offered for a delta transfer. The ACK of a request
+	 * for signatures of the basis carries them.
+	 *
+	 * @param stream
+	 *            stream to acknowledge
+	 * @param echoSeqNum
+	 *            sequence number of the segment that caused the ACK
+	 * @param delay
+	 *            one-way delay of that segment in usec
+	 * @param firstBlock
+	 *            first block whose signatures that segment asked for, -1 if
+	 *            it is not a signature request
+	 */
+	private void sendAck(InboundStream stream, int echoSeqNum, int delay,
+			int firstBlock) {
+		stream.getAckTimer().cancel();
+		stream.setUnackedCount(0);
+		Log.log(LogLevel.DEBUG, "Sending ACK for {} of stream {}", echoSeqNum,
+				stream.getStreamId());
+		int[] sackBlocks = getReceiver().getSackBlocks();
+		int blockCount = stream.fillSackBlocks(echoSeqNum, sackBlocks);
+		UDPSegment ack = getReceiver().getAckSegment();
+		ack.setChecksumType(stream.getChecksumType());
+		ack.makeAck(stream.getStreamId(), stream.getCurrSeqNum(), echoSeqNum,
+				delay, getCorruptedCount(), stream.getSegmentSize(), sackBlocks,
+				blockCount);
+		if (echoSeqNum == 1 && stream.hasResumeOffer()) {
+			ack.putResumeOffer(stream.getResumeOffset(),
+					stream.getResumeDigest());
+		} else if (echoSeqNum == 1 && stream.hasBasisOffer()) {
+			ack.putBasis(stream.getBasisLength(), stream.getBlockSize());
+		} else if (firstBlock >= 0) {
+			int[] signatures = getReceiver().getSignatures();
+			try {
+				ack.putSignatures(firstBlock, signatures,
+						stream.fillSignatures(firstBlock, signatures));
+			} catch (IOException e) {
+				Log.log(LogLevel.ERROR, "Failed to read basis", e);
+				abort(5);
+				return;
+			}
+		}
+		try {
+			ack.send(getReceiver().getChannel(), getClientAddress());
+		} catch (IOException e) {
+			Log.log(LogLevel.ERROR, "Failed to send ACK", e);
+			abort(4);
+			return;
+		}
+		_ackCount++;
+	}
+
+	/**
+	 * Gives up on the session after a failure. The timers of the session are
+	 * stopped and the files of the streams that have not finished are
+	 * closed, to be resumed by a later transfer. Outside of daemon mode the
+	 * receiver then exits; in daemon mode the session is closed.
+	 *
+	 * @param status
+	 *            termination code of the failure, as listed by FileReceiver
+	 */
+	private void abort(int status) {
+		if (Log.isEnabled(LogLevel.ERROR)) {
+			Log.log(LogLevel.ERROR, "Aborting session of "
+					+ getClientAddress() + " with code {}", status);
+		}
+		setAborted(true);
+		getLingerTimer().cancel();
+		getIdleTimer().cancel();
+		for (InboundStream stream : getStreams().values()) {
+			stream.getAckTimer().cancel();
+			if (stream.getFile() != null) {
+				getReceiver().abortStripe(stream);
+			}
+		}
+		if (!getReceiver().getConfig().isDaemon()) {
+			System.exit(status);
+		}
+		getReceiver().closeSession(this);
+	}
+
+	/**
+	 * Gets the one-way delay of a segment just received
+	 *
+	 * @param seg
+	 *            segment just received
+	 * @return time it was received on the clock of the receiver minus its
+	 *         timestamp in usec
+	 */
+	private int delayOf(UDPSegment seg) {
+		return getReceiver().getReceiveTime() - seg.getTimestamp();
+	}
+
+	/**
+	 * Gets the number of ACKs sent for each data segment written
+	 *
+	 * @return ratio of ACKs to data segments, counting at least one segment
+	 */
+	private double getAckRatio() {
+		return (double) getAckCount() / Math.max(1, getSegmentCount());
+	}
+
+	/**
+	 * Sums up the session on one line, for the log once it has closed
+	 *
+	 * @return data segments written, ACKs sent and their ratio, and
+	 *         corrupted and rebuilt segments
+	 */
+	public String getSummary() {
+		return String.format("Session of %s closed: %d data segments, "
+				+ "%d ACKs (%.2f per segment), %d corrupted, %d rebuilt",
+				getClientAddress(), getSegmentCount(), getAckCount(),
+				getAckRatio(), getCorruptedCount(), getRebuiltCount());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append("Session: " + getClientAddress() + "\n");
+		result.append("Data segments written: " + getSegmentCount() + "\n");
+		result.append("Corrupted segments not rebuilt: "
+				+ getCorruptedCount() + "\n");
+		result.append("Segments rebuilt: " + getRebuiltCount() + "\n");
+		result.append("ACKs sent: " + getAckCount() + "\n");
+		result.append(String.format("ACKs per segment: %.2f\n",
+				getAckRatio()));
+		return result.toString();
+	}
+}
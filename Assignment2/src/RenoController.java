@@ -0,0 +1,160 @@
+/**
+ *
+ * Congestion control in the style of TCP Reno (RFC 5681). The window starts
+ * small and grows by one segment per segment acknowledged (slow start) until
+ * it reaches the slow start threshold, then by one segment per window of
+ * segments acknowledged (additive increase). A loss halves the window and
+ * sets the threshold to the new window (multiplicative decrease).
+ *
+ * Losses are only detected by retransmission timeouts. As every segment has
+ * its own timer, a timeout plays the role of fast retransmit in TCP and
+ * halves the window rather than closing it. Segments sent before the last
+ * decrease belong to the same loss event and do not decrease the window
+ * again.
+ *
+ * Each corrupted segment reported by the receiver accounts for one later
+ * timeout, which then does not decrease the window, so that random
+ * corruption does not cost throughput. No more timeouts than one window are
+ * accounted for at a time, so that reports of corrupted segments that never
+ * time out cannot pile up and hide congestion.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public class RenoController implements CongestionController {
+
+	/* Constants */
+	// Window at the start of a transfer in segments
+	public static final int	INITIAL_WINDOW	= 4;
+	// Smallest window after a loss in segments
+	public static final int	MIN_WINDOW		= 2;
+
+	/* Member Variables */
+	private int				_maxWindow;
+	private int				_window;
+	private int				_ssthresh;
+	// Segments acknowledged towards the next increase in congestion avoidance
+	private int				_ackedCount;
+	// Timeouts still to be blamed on corruption
+	private int				_corruptedCount;
+	// Time of the last decrease in nsec
+	private long			_lastDecrease;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxWindow
+	 *            largest window allowed in segments
+	 */
+	public RenoController(int maxWindow) {
+		setMaxWindow(maxWindow);
+		setWindow(Math.min(INITIAL_WINDOW, maxWindow));
+		setSsthresh(maxWindow);
+		setAckedCount(0);
+		setCorruptedCount(0);
+		setLastDecrease(System.nanoTime());
+	}
+
+	/* Accessors and Modifiers */
+
+	public int getMaxWindow() {
+		return _maxWindow;
+	}
+
+	public void setMaxWindow(int maxWindow) {
+		_maxWindow = maxWindow;
+	}
+
+	@Override
+	public int getWindow() {
+		return _window;
+	}
+
+	public void setWindow(int window) {
+		_window = window;
+	}
+
+	public int getSsthresh() {
+		return _ssthresh;
+	}
+
+	public void setSsthresh(int ssthresh) {
+		_ssthresh = ssthresh;
+	}
+
+	public int getAckedCount() {
+		return _ackedCount;
+	}
+
+	public void setAckedCount(int ackedCount) {
+		_ackedCount = ackedCount;
+	}
+
+	public int getCorruptedCount() {
+		return _corruptedCount;
+	}
+
+	public void setCorruptedCount(int corruptedCount) {
+		_corruptedCount = corruptedCount;
+	}
+
+	public long getLastDecrease() {
+		return _lastDecrease;
+	}
+
+	public void setLastDecrease(long lastDecrease) {
+		_lastDecrease = lastDecrease;
+	}
+
+	/* Public methods */
+
+	@Override
+	public void onAck(int ackedCount) {
+		if (getWindow() < getSsthresh()) {
+			setWindow(getWindow() + ackedCount);
+		} else {
+			_ackedCount += ackedCount;
+			while (_ackedCount >= getWindow()) {
+				_ackedCount -= getWindow();
+				_window++;
+			}
+		}
+		setWindow(Math.min(getWindow(), getMaxWindow()));
+	}
+
+	@Override
+	public void onDelay(int delay) {
+	}
+
+	@Override
+	public void onLoss(long sendTime) {
+		if (getCorruptedCount() > 0) {
+			_corruptedCount--;
+			return;
+		}
+		if (sendTime - getLastDecrease() < 0) {
+			return;
+		}
+		setSsthresh(Math.max(getWindow() / 2, MIN_WINDOW));
+		setWindow(Math.min(getSsthresh(), getMaxWindow()));
+		setAckedCount(0);
+		setLastDecrease(System.nanoTime());
+	}
+
+	@Override
+	public void onCorruption(int corruptedCount) {
+		// No more timeouts than a window can be pending at once
+		setCorruptedCount(Math.min(getCorruptedCount() + corruptedCount,
+				getWindow()));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append("Congestion window: " + getWindow() + "\n");
+		result.append("Slow start threshold: " + getSsthresh() + "\n");
+		return result.toString();
+	}
+}
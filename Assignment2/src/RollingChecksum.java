@@ -0,0 +1,90 @@
+/**
+ *
+ * The weak checksum of a delta transfer, an Adler-32 style sum over a block of
+ * bytes that can be rolled along a file one byte at a time. Rolling the
+ * window costs a few additions whatever the size of the block, so the sender
+ * can look for the blocks of the receiver at every offset of its file, and
+ * only computes the strong checksum of a block when the weak ones match.
+ *
+ * The checksum is made of two sums modulo 2^16: a, the sum of the bytes of
+ * the window, and b, the sum of the bytes weighted by their distance from
+ * the end of the window.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class RollingChecksum {
+
+	/* Member Variables */
+	private int	_a;
+	private int	_b;
+	// Number of bytes in the window
+	private int	_length;
+
+	/* Accessors and Modifiers */
+
+	public int getLength() {
+		return _length;
+	}
+
+	/**
+	 * Gets the checksum of the bytes in the window
+	 *
+	 * @return b in the high 16 bits and a in the low 16 bits
+	 */
+	public int getValue() {
+		return (_b << 16) | (_a & 0xFFFF);
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Computes the checksum of a new window
+	 *
+	 * @param data
+	 *            array holding the window
+	 * @param offset
+	 *            offset of the window in data
+	 * @param length
+	 *            length of the window
+	 */
+	public void reset(byte[] data, int offset, int length) {
+		_a = 0;
+		_b = 0;
+		for (int i = offset; i < offset + length; i++) {
+			_a += data[i] & 0xFF;
+			_b += _a;
+		}
+		_length = length;
+	}
+
+	/**
+	 * Slides the window forward by one byte
+	 *
+	 * @param out
+	 *            byte leaving the window at its start
+	 * @param in
+	 *            byte entering the window at its end
+	 */
+	public void roll(byte out, byte in) {
+		_a += (in & 0xFF) - (out & 0xFF);
+		_b += _a - getLength() * (out & 0xFF);
+	}
+
+	/**
+	 * Computes the checksum of a block of bytes
+	 *
+	 * @param data
+	 *            array holding the block
+	 * @param offset
+	 *            offset of the block in data
+	 * @param length
+	 *            length of the block
+	 * @return the checksum, as returned by getValue
+	 */
+	public static int of(byte[] data, int offset, int length) {
+		RollingChecksum checksum = new RollingChecksum();
+		checksum.reset(data, offset, length);
+		return checksum.getValue();
+	}
+}
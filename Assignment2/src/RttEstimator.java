@@ -0,0 +1,164 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * This class estimates the round trip time of a transfer and derives the
+ * retransmission timeout (RTO) from it, following the Jacobson/Karels
+ * algorithm used by TCP (RFC 6298).
+ *
+ * Samples must only be taken from segments that were transmitted once
+ * (Karn's rule), as the ACK of a retransmitted segment cannot be matched to a
+ * particular transmission. Each timeout doubles the RTO until a new sample is
+ * taken.
+ *
+ * An estimator belongs to a single FileSender and is only used from the
+ * thread of its EventLoop, so it is not thread safe.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public class RttEstimator {
+
+	/* Constants */
+	// RTO used before the first sample is taken in msec
+	public static final long	INITIAL_RTO	= 20;
+	// Bounds on the RTO in msec
+	public static final long	MIN_RTO		= 2;
+	public static final long	MAX_RTO		= 2000;
+	// Gains of the smoothed RTT and RTT variation, as shifts
+	private static final int	ALPHA_SHIFT	= 3;	// 1/8
+	private static final int	BETA_SHIFT	= 2;	// 1/4
+	// Multiplier of the RTT variation in the RTO
+	private static final int	K			= 4;
+
+	/* Member Variables */
+	// All times are in usec
+	private long				_srtt;
+	private long				_rttVar;
+	private long				_rto;
+	private boolean				_hasSample;
+	// Time of the last backoff in nsec
+	private long				_lastBackoff;
+
+	/* Constructors */
+	public RttEstimator() {
+		setSrtt(0);
+		setRttVar(0);
+		setRto(TimeUnit.MILLISECONDS.toMicros(INITIAL_RTO));
+		setHasSample(false);
+		setLastBackoff(System.nanoTime());
+	}
+
+	/* Accessors and Modifiers */
+
+	public long getSrtt() {
+		return _srtt;
+	}
+
+	public void setSrtt(long srtt) {
+		_srtt = srtt;
+	}
+
+	public long getRttVar() {
+		return _rttVar;
+	}
+
+	public void setRttVar(long rttVar) {
+		_rttVar = rttVar;
+	}
+
+	public void setRto(long rto) {
+		_rto = rto;
+	}
+
+	public boolean hasSample() {
+		return _hasSample;
+	}
+
+	public void setHasSample(boolean hasSample) {
+		_hasSample = hasSample;
+	}
+
+	public long getLastBackoff() {
+		return _lastBackoff;
+	}
+
+	public void setLastBackoff(long lastBackoff) {
+		_lastBackoff = lastBackoff;
+	}
+
+	/* Public methods */
+
+	/**
+	 * Gets the current retransmission timeout
+	 *
+	 * @return RTO in msec, rounded up
+	 */
+	public long getRto() {
+		return (_rto + 999) / 1000;
+	}
+
+	/**
+	 * Updates the estimate with a new RTT measurement
+	 *
+	 * @param sendTime
+	 *            time the segment was sent in nsec, as given by nanoTime
+	 * @param ackTime
+	 *            time its ACK was received in nsec, as given by nanoTime
+	 */
+	public void addSample(long sendTime, long ackTime) {
+		long rtt = Math.max(1, TimeUnit.NANOSECONDS.toMicros(ackTime
+				- sendTime));
+
+		if (!hasSample()) {
+			setSrtt(rtt);
+			setRttVar(rtt / 2);
+			setHasSample(true);
+		} else {
+			long delta = Math.abs(_srtt - rtt);
+			setRttVar(_rttVar + ((delta - _rttVar) >> BETA_SHIFT));
+			setSrtt(_srtt + ((rtt - _srtt) >> ALPHA_SHIFT));
+		}
+		setRto(clamp(_srtt + K * _rttVar));
+	}
+
+	/**
+	 * Doubles the RTO after a segment timed out. A segment that was last sent
+	 * before the previous backoff timed out with the old RTO, so it does not
+	 * cause the RTO to be doubled again. This prevents a window of segments
+	 * timing out together from backing off once per segment.
+	 *
+	 * @param sendTime
+	 *            time the segment that timed out was last sent in nsec
+	 */
+	public void backoff(long sendTime) {
+		if (sendTime - getLastBackoff() < 0) {
+			return;
+		}
+		setRto(clamp(_rto * 2));
+		setLastBackoff(System.nanoTime());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append("SRTT: " + getSrtt() + " usec\n");
+		result.append("RTTVAR: " + getRttVar() + " usec\n");
+		result.append("RTO: " + getRto() + " msec\n");
+		return result.toString();
+	}
+
+	/* Private methods */
+
+	/**
+	 * Keeps an RTO within MIN_RTO and MAX_RTO
+	 *
+	 * @param rto
+	 *            RTO in usec
+	 * @return bounded RTO in usec
+	 */
+	private static long clamp(long rto) {
+		return Math.min(TimeUnit.MILLISECONDS.toMicros(MAX_RTO),
+				Math.max(TimeUnit.MILLISECONDS.toMicros(MIN_RTO), rto));
+	}
+}
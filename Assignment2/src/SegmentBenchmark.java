@@ -0,0 +1,214 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * This class measures the cost of encoding, decoding and acknowledging
+ * segments, and the number of bytes allocated for each of them. Every path
+ * used by a transfer should allocate nothing once warmed up.
+ *
+ * @input The class may be invoked with the number of iterations to run.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public class SegmentBenchmark {
+
+	/* Constants */
+	private static final int	DEFAULT_ITERATIONS	= 2000000;
+	private static final int	WARMUP_ITERATIONS	= 200000;
+
+	/* Member Variables */
+	private SegmentPool			_segmentPool;
+	private UDPSegment			_received;
+	private UDPSegment			_ack;
+	private int[]				_sackBlocks;
+	private ChecksumType		_checksumType;
+	private long				_sink;
+
+	/* Constructors */
+	public SegmentBenchmark(boolean direct, ChecksumType checksumType) {
+		setChecksumType(checksumType);
+		setSegmentPool(new SegmentPool(FileSender.MSS, direct));
+		setReceived(new UDPSegment(direct ? ByteBuffer
+				.allocateDirect(FileSender.MSS) : ByteBuffer
+				.allocate(FileSender.MSS)));
+		setAck(new UDPSegment());
+		getReceived().setChecksumType(checksumType);
+		getAck().setChecksumType(checksumType);
+		setSackBlocks(new int[UDPSegment.MAX_SACK_BLOCKS * 2]);
+		for (int i = 0; i < getSackBlocks().length; i++) {
+			getSackBlocks()[i] = i * 3;
+		}
+	}
+
+	/* Accessors and Modifiers */
+
+	public SegmentPool getSegmentPool() {
+		return _segmentPool;
+	}
+
+	public void setSegmentPool(SegmentPool segmentPool) {
+		_segmentPool = segmentPool;
+	}
+
+	public UDPSegment getReceived() {
+		return _received;
+	}
+
+	public void setReceived(UDPSegment received) {
+		_received = received;
+	}
+
+	public UDPSegment getAck() {
+		return _ack;
+	}
+
+	public void setAck(UDPSegment ack) {
+		_ack = ack;
+	}
+
+	public int[] getSackBlocks() {
+		return _sackBlocks;
+	}
+
+	public void setSackBlocks(int[] sackBlocks) {
+		_sackBlocks = sackBlocks;
+	}
+
+	public ChecksumType getChecksumType() {
+		return _checksumType;
+	}
+
+	public void setChecksumType(ChecksumType checksumType) {
+		_checksumType = checksumType;
+	}
+
+	/* Public methods */
+
+	/**
+	 * Send path: takes a segment from the pool, fills in its header and data,
+	 * checksums it and gives it back once "acknowledged"
+	 */
+	public void sendSegment(int seqNum) {
+		UDPSegment seg = getSegmentPool().acquire();
+		seg.reset(1, seqNum, UDPSegment.DATA_TYPE);
+		seg.setChecksumType(getChecksumType());
+		seg.getBuffer().putInt(UDPSegment.DATA_OFFSET, seqNum);
+		seg.setDataLen(UDPSegment.DATA_SIZE);
+		seg.setChecksum(seg.calculateChecksum());
+		_sink += seg.getLength();
+		getSegmentPool().release(seg);
+	}
+
+	/**
+	 * Receive path: validates a full sized segment and reads its header
+	 */
+	public void receiveSegment(int seqNum) {
+		UDPSegment seg = getReceived();
+		seg.setSeqNum(seqNum);
+		seg.setLength(FileSender.MSS);
+		if (seg.isValid()) {
+			_sink++;
+		}
+		_sink += seg.getSeqNum() + seg.getType();
+	}
+
+	/**
+	 * ACK path: builds an ACK with the maximum number of SACK blocks, then
+	 * validates and reads it back
+	 */
+	public void acknowledge(int seqNum) {
+		UDPSegment ack = getAck();
+		ack.makeAck(1, seqNum, seqNum, seqNum, 0, FileSender.MSS,
+				getSackBlocks(), UDPSegment.MAX_SACK_BLOCKS);
+		if (ack.isValid() && ack.isAck()) {
+			_sink += ack.getCumulativeAck() + ack.getEchoSeqNum()
+					+ ack.getDelay() + ack.getCorruptedCount();
+			for (int i = 0; i < ack.getSackBlockCount(); i++) {
+				_sink += ack.getSackEnd(i) - ack.getSackStart(i);
+			}
+		}
+	}
+
+	/**
+	 * Runs every path and prints the time taken and bytes allocated per
+	 * operation
+	 *
+	 * @param iterations
+	 *            number of operations to measure for each path
+	 */
+	public void run(int iterations) {
+		String[] names = { "send", "receive", "ack" };
+		for (int path = 0; path < names.length; path++) {
+			runPath(path, WARMUP_ITERATIONS);
+
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			runPath(path, iterations);
+			long time = System.nanoTime() - start;
+			long allocated = allocatedBytes() - allocatedBefore;
+
+			System.out.printf("%-8s %-8s %8.1f ns/op %8.3f bytes/op%n",
+					getChecksumType(), names[path],
+					(double) time / iterations, (double) allocated / iterations);
+		}
+		System.out.println(getSegmentPool().toString().trim());
+		System.out.println("(" + _sink + ")");
+	}
+
+	/**
+	 * Main method that runs the benchmark.
+	 *
+	 * @param args
+	 *            Array of Strings. May contain the number of iterations,
+	 *            followed by "direct" to use direct buffers. Every checksum
+	 *            algorithm is measured.
+	 */
+	public static void main(String[] args) {
+		int iterations = DEFAULT_ITERATIONS;
+		boolean direct = false;
+		if (args.length > 0) {
+			iterations = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1) {
+			direct = args[1].equals("direct");
+		}
+		for (ChecksumType type : ChecksumType.values()) {
+			new SegmentBenchmark(direct, type).run(iterations);
+		}
+	}
+
+	/* Private methods */
+
+	private void runPath(int path, int iterations) {
+		for (int i = 0; i < iterations; i++) {
+			switch (path) {
+				case 0:
+					sendSegment(i);
+					break;
+				case 1:
+					receiveSegment(i);
+					break;
+				default:
+					acknowledge(i);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of bytes allocated by the current thread so far
+	 *
+	 * @return bytes allocated, or 0 if the JVM cannot tell
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,308 @@
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ *
+ * Compresses the payload of data segments on the sender and decompresses it
+ * on the receiver. Each segment is compressed on its own, so that it can be
+ * decompressed whatever order it arrives in, and is only sent compressed if
+ * that saves at least a sixteenth of its payload.
+ *
+ * Compressing data that is already compressed, such as audio or images,
+ * costs as much time as compressing text and saves nothing. Before
+ * compressing a segment, its entropy is estimated from a sample of its bytes,
+ * and a segment whose bytes are close to random is sent as it is. A segment
+ * that is not worth compressing also sends the next few segments of the
+ * stream as they are without a look, twice as many each time up to
+ * MAX_BACKOFF, so that a stream of incompressible data costs next to nothing,
+ * while a file that turns compressible part way through is still noticed.
+ *
+ * Instances hold a Deflater and an Inflater and are not thread safe; end
+ * must be called once an instance is no longer used.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class SegmentCompressor {
+
+	/* Constants */
+	// Number of bytes of a segment sampled to estimate its entropy
+	private static final int		SAMPLE_SIZE		= 1024;
+	// Entropy in bits per byte above which a sample is taken as random
+	private static final double		MAX_ENTROPY		= 7.2;
+	// A segment is sent compressed if that saves 1/2^MIN_SAVING_SHIFT of it
+	private static final int		MIN_SAVING_SHIFT	= 4;
+	// Bounds of the number of segments sent as they are without a look
+	private static final int		MIN_BACKOFF		= 4;
+	private static final int		MAX_BACKOFF		= 256;
+
+	/* Member Variables */
+	private CompressionType			_type;
+	private Deflater				_deflater;
+	private Inflater				_inflater;
+	private byte[]					_input;
+	private byte[]					_output;
+	private ByteBuffer				_outputBuffer;
+	private int[]					_histogram;
+	// Segments still to send as they are, and how many to skip next time
+	private int						_skipCount;
+	private int						_backoff;
+	// Payload bytes of the segments compressed, before and after
+	private long					_rawBytes;
+	private long					_compressedBytes;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param type
+	 *            codec segments are compressed with
+	 */
+	public SegmentCompressor(CompressionType type) {
+		setType(type);
+		setDeflater(new Deflater(Deflater.BEST_SPEED, true));
+		setInflater(new Inflater(true));
+		setInput(new byte[UDPSegment.MAX_SEGMENT_SIZE]);
+		setOutput(new byte[UDPSegment.MAX_SEGMENT_SIZE]);
+		setOutputBuffer(ByteBuffer.wrap(getOutput()));
+		setHistogram(new int[256]);
+		setSkipCount(0);
+		setBackoff(MIN_BACKOFF);
+	}
+
+	/* Accessors and Modifiers */
+
+	public CompressionType getType() {
+		return _type;
+	}
+
+	public void setType(CompressionType type) {
+		_type = type;
+	}
+
+	public Deflater getDeflater() {
+		return _deflater;
+	}
+
+	public void setDeflater(Deflater deflater) {
+		_deflater = deflater;
+	}
+
+	public Inflater getInflater() {
+		return _inflater;
+	}
+
+	public void setInflater(Inflater inflater) {
+		_inflater = inflater;
+	}
+
+	public byte[] getInput() {
+		return _input;
+	}
+
+	public void setInput(byte[] input) {
+		_input = input;
+	}
+
+	public byte[] getOutput() {
+		return _output;
+	}
+
+	public void setOutput(byte[] output) {
+		_output = output;
+	}
+
+	public ByteBuffer getOutputBuffer() {
+		return _outputBuffer;
+	}
+
+	public void setOutputBuffer(ByteBuffer outputBuffer) {
+		_outputBuffer = outputBuffer;
+	}
+
+	public int[] getHistogram() {
+		return _histogram;
+	}
+
+	public void setHistogram(int[] histogram) {
+		_histogram = histogram;
+	}
+
+	public int getSkipCount() {
+		return _skipCount;
+	}
+
+	public void setSkipCount(int skipCount) {
+		_skipCount = skipCount;
+	}
+
+	public int getBackoff() {
+		return _backoff;
+	}
+
+	public void setBackoff(int backoff) {
+		_backoff = backoff;
+	}
+
+	public long getRawBytes() {
+		return _rawBytes;
+	}
+
+	public void setRawBytes(long rawBytes) {
+		_rawBytes = rawBytes;
+	}
+
+	public long getCompressedBytes() {
+		return _compressedBytes;
+	}
+
+	public void setCompressedBytes(long compressedBytes) {
+		_compressedBytes = compressedBytes;
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Compresses the payload of a data segment in place, if it is worth it
+	 *
+	 * @param seg
+	 *            data segment whose payload, attached or not, is final
+	 * @return true if the segment now holds its payload compressed
+	 */
+	public boolean compress(UDPSegment seg) {
+		if (getType() == CompressionType.NONE) {
+			return false;
+		}
+		if (getSkipCount() > 0) {
+			setSkipCount(getSkipCount() - 1);
+			return false;
+		}
+		int length = seg.getData(getInput());
+		int compressed = length;
+		if (entropyOf(getInput(), length) <= MAX_ENTROPY) {
+			compressed = deflate(length);
+		}
+		if (compressed > length - (length >> MIN_SAVING_SHIFT)) {
+			setSkipCount(getBackoff());
+			setBackoff(Math.min(getBackoff() * 2, MAX_BACKOFF));
+			return false;
+		}
+
+		setBackoff(MIN_BACKOFF);
+		seg.putCompressedData(getOutput(), compressed, getType());
+		setRawBytes(getRawBytes() + length);
+		setCompressedBytes(getCompressedBytes() + compressed);
+		return true;
+	}
+
+	/**
+	 * Decompresses the payload of a data segment
+	 *
+	 * @param seg
+	 *            valid data segment flagged as compressed
+	 * @param maxLength
+	 *            largest payload a segment of the stream holds
+	 * @return buffer holding the payload, valid until the next call, or null
+	 *         if it does not decompress to at most maxLength bytes
+	 */
+	public ByteBuffer decompress(UDPSegment seg, int maxLength) {
+		if (seg.getCompressionType() != CompressionType.DEFLATE) {
+			return null;
+		}
+		int length = seg.getData(getInput());
+		Inflater inflater = getInflater();
+		inflater.reset();
+		inflater.setInput(getInput(), 0, length);
+		int inflated = 0;
+		try {
+			while (!inflater.finished() && inflated < maxLength) {
+				int lengthOut = inflater.inflate(getOutput(), inflated,
+						maxLength - inflated);
+				if (lengthOut == 0 && inflater.needsInput()) {
+					break;
+				}
+				inflated += lengthOut;
+			}
+		} catch (DataFormatException e) {
+			return null;
+		}
+		if (!inflater.finished()) {
+			return null;
+		}
+		ByteBuffer buffer = getOutputBuffer();
+		buffer.clear();
+		buffer.limit(inflated);
+		return buffer;
+	}
+
+	/**
+	 * Frees the memory held by the codecs
+	 */
+	public void end() {
+		getDeflater().end();
+		getInflater().end();
+	}
+
+	@Override
+	public String toString() {
+		return "Compressed " + getRawBytes() + " bytes into "
+				+ getCompressedBytes();
+	}
+
+	/* Private Methods */
+
+	/**
+	 * Estimates the entropy of data from up to SAMPLE_SIZE bytes spread
+	 * evenly over it. Order 0 entropy misses repeated runs of random bytes,
+	 * but those are rare outside of test data.
+	 *
+	 * @param data
+	 *            array holding the data from its start
+	 * @param length
+	 *            length of the data
+	 * @return entropy of the sample in bits per byte
+	 */
+	private double entropyOf(byte[] data, int length) {
+		int[] histogram = getHistogram();
+		int stride = Math.max(1, length / SAMPLE_SIZE);
+		int sampled = 0;
+		for (int i = 0; i < length; i += stride) {
+			histogram[data[i] & 0xFF]++;
+			sampled++;
+		}
+
+		double entropy = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] > 0) {
+				double p = (double) histogram[i] / sampled;
+				entropy -= p * Math.log(p);
+				histogram[i] = 0;
+			}
+		}
+		return entropy / Math.log(2);
+	}
+
+	/**
+	 * Deflates data from the input into the output
+	 *
+	 * @param length
+	 *            length of the data
+	 * @return length of the deflated data, or more than length if it did not
+	 *         fit in length bytes
+	 */
+	private int deflate(int length) {
+		Deflater deflater = getDeflater();
+		deflater.reset();
+		deflater.setInput(getInput(), 0, length);
+		deflater.finish();
+		int deflated = 0;
+		while (!deflater.finished() && deflated < length) {
+			deflated += deflater.deflate(getOutput(), deflated, length
+					- deflated);
+		}
+		return deflater.finished() ? deflated : length + 1;
+	}
+}
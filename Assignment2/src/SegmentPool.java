@@ -0,0 +1,115 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ *
+ * A pool of segments, each with its own buffer. Segments are taken from the
+ * pool for a datagram and given back once the datagram is no longer needed, so
+ * that a transfer reuses the same buffers instead of allocating new ones for
+ * every segment. New segments are only created when the pool is empty.
+ *
+ * Direct buffers avoid a copy when datagrams are sent and received through a
+ * DatagramChannel. Heap buffers let the file contents and the checksum be
+ * read and written through the backing array instead.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public class SegmentPool {
+
+	/* Member Variables */
+	private int						_bufferSize;
+	private boolean					_direct;
+	private ArrayDeque<UDPSegment>	_free;
+	private int						_created;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param bufferSize
+	 *            size of the buffer of each segment in bytes
+	 * @param direct
+	 *            true to allocate direct buffers, false for heap buffers
+	 */
+	public SegmentPool(int bufferSize, boolean direct) {
+		setBufferSize(bufferSize);
+		setDirect(direct);
+		setFree(new ArrayDeque<UDPSegment>());
+		setCreated(0);
+	}
+
+	/* Accessors and Modifiers */
+
+	public int getBufferSize() {
+		return _bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		_bufferSize = bufferSize;
+	}
+
+	public boolean isDirect() {
+		return _direct;
+	}
+
+	public void setDirect(boolean direct) {
+		_direct = direct;
+	}
+
+	public ArrayDeque<UDPSegment> getFree() {
+		return _free;
+	}
+
+	public void setFree(ArrayDeque<UDPSegment> free) {
+		_free = free;
+	}
+
+	public int getCreated() {
+		return _created;
+	}
+
+	public void setCreated(int created) {
+		_created = created;
+	}
+
+	/* Public methods */
+
+	/**
+	 * Takes a segment from the pool, creating one if the pool is empty
+	 *
+	 * @return a segment whose contents are undefined
+	 */
+	public UDPSegment acquire() {
+		UDPSegment segment = getFree().pollFirst();
+		if (segment == null) {
+			ByteBuffer buffer = isDirect() ? ByteBuffer
+					.allocateDirect(getBufferSize()) : ByteBuffer
+					.allocate(getBufferSize());
+			segment = new UDPSegment(buffer);
+			_created++;
+		}
+		return segment;
+	}
+
+	/**
+	 * Gives a segment back to the pool. The segment must not be used by the
+	 * caller afterwards.
+	 *
+	 * @param segment
+	 *            segment taken from this pool
+	 */
+	public void release(UDPSegment segment) {
+		assert (segment.getBuffer().capacity() == getBufferSize());
+		getFree().offerFirst(segment);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append("Segments created: " + getCreated() + "\n");
+		result.append("Segments free: " + getFree().size() + "\n");
+		return result.toString();
+	}
+}
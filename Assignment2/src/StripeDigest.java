@@ -0,0 +1,237 @@
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ *
+ * The checksum of a stripe as its stream writes it, so that the stripe can
+ * be checked against the checksum of the sender without reading the file
+ * back. Segments are written in whatever order they arrive, so each data
+ * segment is checksummed on its own as it is written, and its checksum is
+ * folded into that of the stripe once the segment is delivered in order
+ * (see CrcCombiner).
+ *
+ * A data segment delivered without having been checksummed, such as a
+ * delta segment whose bytes partly come from the basis, leaves the checksum
+ * of the stripe unknown, in which case the stripe is read back instead.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+class StripeDigest {
+
+	/* Member Variables */
+	private ChecksumType			_checksumType;
+	private Checksum				_checksum;
+	// Combines with a full data segment, by far the most common length
+	private CrcCombiner				_segmentCombiner;
+	private int						_dataSize;
+	// Checksum and length of the segments written but not yet delivered, by
+	// sequence number modulo the size of the ring, and the sequence number
+	// of each
+	private int[]					_segmentDigests;
+	private int[]					_segmentLengths;
+	private int[]					_segmentSeqNums;
+	// Checksum and length of the stripe delivered so far
+	private int						_value;
+	private long					_length;
+	private boolean					_complete;
+
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 *
+	 * @param checksumType
+	 *            algorithm the stripe is checksummed with
+	 * @param capacity
+	 *            number of segments accepted ahead of a missing segment
+	 * @param dataSize
+	 *            data size of the segments of the stream
+	 */
+	public StripeDigest(ChecksumType checksumType, int capacity, int dataSize) {
+		setChecksumType(checksumType);
+		setChecksum(checksumType.newChecksum());
+		setSegmentCombiner(new CrcCombiner(checksumType, dataSize));
+		setDataSize(dataSize);
+		setSegmentDigests(new int[capacity]);
+		setSegmentLengths(new int[capacity]);
+		setSegmentSeqNums(new int[capacity]);
+		start(0, 0);
+	}
+
+	/* Accessors and Modifiers */
+
+	public ChecksumType getChecksumType() {
+		return _checksumType;
+	}
+
+	public void setChecksumType(ChecksumType checksumType) {
+		_checksumType = checksumType;
+	}
+
+	public Checksum getChecksum() {
+		return _checksum;
+	}
+
+	public void setChecksum(Checksum checksum) {
+		_checksum = checksum;
+	}
+
+	public CrcCombiner getSegmentCombiner() {
+		return _segmentCombiner;
+	}
+
+	public void setSegmentCombiner(CrcCombiner segmentCombiner) {
+		_segmentCombiner = segmentCombiner;
+	}
+
+	public int getDataSize() {
+		return _dataSize;
+	}
+
+	public void setDataSize(int dataSize) {
+		_dataSize = dataSize;
+	}
+
+	public int[] getSegmentDigests() {
+		return _segmentDigests;
+	}
+
+	public void setSegmentDigests(int[] segmentDigests) {
+		_segmentDigests = segmentDigests;
+	}
+
+	public int[] getSegmentLengths() {
+		return _segmentLengths;
+	}
+
+	public void setSegmentLengths(int[] segmentLengths) {
+		_segmentLengths = segmentLengths;
+	}
+
+	public int[] getSegmentSeqNums() {
+		return _segmentSeqNums;
+	}
+
+	public void setSegmentSeqNums(int[] segmentSeqNums) {
+		_segmentSeqNums = segmentSeqNums;
+	}
+
+	public int getValue() {
+		return _value;
+	}
+
+	public void setValue(int value) {
+		_value = value;
+	}
+
+	public long getLength() {
+		return _length;
+	}
+
+	public void setLength(long length) {
+		_length = length;
+	}
+
+	public boolean isComplete() {
+		return _complete;
+	}
+
+	public void setComplete(boolean complete) {
+		_complete = complete;
+	}
+
+	/* Public Methods */
+
+	/**
+	 * Starts the checksum of the stripe over from the part already in the
+	 * file
+	 *
+	 * @param length
+	 *            length of the part the stream resumes after
+	 * @param value
+	 *            checksum of that part
+	 */
+	public void start(long length, int value) {
+		setLength(length);
+		setValue(value);
+		setComplete(true);
+	}
+
+	/**
+	 * Checksums the data of a segment as it is written
+	 *
+	 * @param seg
+	 *            data segment whose data, uncompressed, is written as it is
+	 */
+	public void add(UDPSegment seg) {
+		Checksum checksum = getChecksum();
+		checksum.reset();
+		seg.updateDataChecksum(checksum);
+		record(seg.getSeqNum(), (int) checksum.getValue(), seg.getDataLen());
+	}
+
+	/**
+	 * Checksums the data of a segment as it is written
+	 *
+	 * @param seqNum
+	 *            sequence number of the segment
+	 * @param data
+	 *            buffer backed by an array holding the data written, from its
+	 *            position to its limit
+	 */
+	public void add(int seqNum, ByteBuffer data) {
+		Checksum checksum = getChecksum();
+		checksum.reset();
+		checksum.update(data.array(), data.arrayOffset() + data.position(),
+				data.remaining());
+		record(seqNum, (int) checksum.getValue(), data.remaining());
+	}
+
+	/**
+	 * Folds the checksum of a data segment delivered in order into that of
+	 * the stripe
+	 *
+	 * @param seqNum
+	 *            sequence number of the segment
+	 */
+	public void deliver(int seqNum) {
+		int slot = seqNum % getSegmentSeqNums().length;
+		if (getSegmentSeqNums()[slot] != seqNum) {
+			setComplete(false);
+			return;
+		}
+		int length = getSegmentLengths()[slot];
+		int digest = getSegmentDigests()[slot];
+		if (length == getDataSize()) {
+			setValue(getSegmentCombiner().combine(getValue(), digest));
+		} else {
+			setValue(CrcCombiner.combine(getChecksumType(), getValue(), digest,
+					length));
+		}
+		setLength(getLength() + length);
+	}
+
+	/**
+	 * Checks the stripe as written against the checksum of the sender
+	 *
+	 * @param length
+	 *            length of the stripe reported by the sender
+	 * @param digest
+	 *            checksum of the stripe reported by the sender
+	 * @return true if every data segment was checksummed and the stripe
+	 *         matches, false if it must be read back to be checked
+	 */
+	public boolean matches(long length, int digest) {
+		return isComplete() && getLength() == length && getValue() == digest;
+	}
+
+	/* Private Methods */
+
+	private void record(int seqNum, int digest, int length) {
+		int slot = seqNum % getSegmentSeqNums().length;
+		getSegmentDigests()[slot] = digest;
+		getSegmentLengths()[slot] = length;
+		getSegmentSeqNums()[slot] = seqNum;
+	}
+}
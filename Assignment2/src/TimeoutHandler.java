@@ -1,27 +1,41 @@
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.util.TimerTask;
-
-public class TimeoutHandler extends TimerTask {
+import java.net.SocketAddress;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * 
+ * Retransmits a segment each time its timer on the TimingWheel expires, until
+ * the segment has been acknowledged. Every timeout backs off the RTO of the
+ * transfer, is reported as a loss to the congestion controller and marks the
+ * segment as retransmitted, so that its ACK is not used as an RTT sample.
+ * 
+ * A handler is reused for every segment that takes its place in the window.
+ * The datagram is sent straight from the buffer of the segment. Handlers run
+ * on the thread of the EventLoop that owns the wheel and the channel.
+ * 
+ * @author Victor Hazali A0110741X
+ * 
+ */
+public class TimeoutHandler extends WheelTask {
 
 	/* Constants */
 	public static final boolean	DEBUG_MODE	= false;
 
 	/* Member Variables */
 	private UDPSegment			_segment;
-	private DatagramSocket		_socket;
-	private InetAddress			_targetIp;
-	private int					_targetPort;
+	private DatagramChannel		_channel;
+	private SocketAddress		_target;
+	private RttEstimator		_rttEstimator;
+	private CongestionController	_congestionController;
 
 	/* Constructors */
-	public TimeoutHandler(UDPSegment seg, DatagramSocket skt, InetAddress ip,
-			int port) {
-		setSegment(seg);
-		setSocket(skt);
-		setTargetIp(ip);
-		setTargetPort(port);
+	public TimeoutHandler(DatagramChannel channel, SocketAddress target,
+			RttEstimator rttEstimator,
+			CongestionController congestionController) {
+		setChannel(channel);
+		setTarget(target);
+		setRttEstimator(rttEstimator);
+		setCongestionController(congestionController);
 	}
 
 	/* Accessors and Modifiers */
@@ -34,43 +48,80 @@ public class TimeoutHandler extends TimerTask {
 		_segment = segment;
 	}
 
-	public DatagramSocket getSocket() {
-		return _socket;
+	public DatagramChannel getChannel() {
+		return _channel;
+	}
+
+	public void setChannel(DatagramChannel channel) {
+		_channel = channel;
 	}
 
-	public void setSocket(DatagramSocket socket) {
-		_socket = socket;
+	public SocketAddress getTarget() {
+		return _target;
 	}
 
-	public InetAddress getTargetIp() {
-		return _targetIp;
+	public void setTarget(SocketAddress target) {
+		_target = target;
 	}
 
-	public void setTargetIp(InetAddress targetIp) {
-		_targetIp = targetIp;
+	public RttEstimator getRttEstimator() {
+		return _rttEstimator;
 	}
 
-	public int getTargetPort() {
-		return _targetPort;
+	public void setRttEstimator(RttEstimator rttEstimator) {
+		_rttEstimator = rttEstimator;
 	}
 
-	public void setTargetPort(int targetPort) {
-		_targetPort = targetPort;
+	public CongestionController getCongestionController() {
+		return _congestionController;
+	}
+
+	public void setCongestionController(
+			CongestionController congestionController) {
+		_congestionController = congestionController;
 	}
 
 	/* Public methods */
+
+	/**
+	 * Sends a segment and starts its retransmission timer
+	 * 
+	 * @param seg
+	 *            segment to send, with its checksum set
+	 * @param wheel
+	 *            wheel to run the timer on
+	 */
+	public void start(UDPSegment seg, TimingWheel wheel) {
+		setSegment(seg);
+		sendPacket();
+		long rto = getRttEstimator().getRto();
+		wheel.schedule(this, rto, rto);
+	}
+
+	/**
+	 * Retransmits the segment after a timeout
+	 */
 	@Override
 	public void run() {
-		if (getSegment().isAck()) {
+		if (isCancelled() || getWheel() != null) {
+			// Timer was stopped or restarted for another segment after it
+			// expired
+			return;
+		}
+		UDPSegment seg = getSegment();
+		if (seg.isAckRcvd()) {
 			this.cancel();
 		}
 		else {
-			if (DEBUG_MODE) {
-				System.out.println("Timeout for segmet: "
-						+ getSegment().getSeqNum());
-				System.out.println("Sending: " + getSegment().toString());
-			}
+			Log.log(LogLevel.DEBUG,
+					"Timeout for segment {} of stream {}, flags {}, {} bytes",
+					seg.getSeqNum(), seg.getStreamId(), seg.getFlags(),
+					seg.getDataLen());
+			seg.setRetransmitted(true);
+			getRttEstimator().backoff(seg.getSendTime());
+			getCongestionController().onLoss(seg.getSendTime());
 			sendPacket();
+			setPeriod(getRttEstimator().getRto());
 		}
 	}
 
@@ -80,22 +131,16 @@ public class TimeoutHandler extends TimerTask {
 		result.append("Current segment: \n");
 		result.append(getSegment().toString());
 		result.append("Connected to: \n");
-		result.append("Target IP address: " + getTargetIp() + "\n");
-		result.append("Target port number: " + getTargetPort() + "\n");
+		result.append("Target address: " + getTarget() + "\n");
 		return result.toString();
 	}
 
 	/* Private methods */
 	private void sendPacket() {
-		byte[] payload = new byte[FileSender.MSS];
-		getSegment().makePayload(payload);
-		if (DEBUG_MODE) {
-			System.out.println("sending payload: " + new String(payload));
-		}
+		UDPSegment seg = getSegment();
 		try {
-			getSocket().send(
-					new DatagramPacket(payload, getSegment().getLength(),
-							getTargetIp(), getTargetPort()));
+			seg.setSendTime(System.nanoTime());
+			seg.send(getChannel(), getTarget());
 		} catch (IOException e) {
 			if (DEBUG_MODE) {
 				e.printStackTrace();
@@ -103,4 +148,4 @@ public class TimeoutHandler extends TimerTask {
 		}
 	}
 
-}
+}
\ No newline at end of file
@@ -0,0 +1,287 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * A hashed timing wheel that runs all retransmission timers of a transfer on the
+ * thread that owns it, normally an EventLoop that advances the wheel between
+ * waits for datagrams.
+ *
+ * Time is divided into ticks. A task that expires at a given tick is chained
+ * into the slot (tick mod number of slots), so scheduling and cancelling a task
+ * takes constant time regardless of how many tasks are pending. On every tick
+ * the wheel collects all tasks in the current slot that are due and runs them
+ * as one batch. Tasks due in a later rotation of the wheel stay in the slot.
+ *
+ * The wheel is not thread safe: tasks must only be scheduled and cancelled
+ * from the thread that advances it, including by the tasks themselves.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public class TimingWheel {
+
+	/* Constants */
+	// Duration of a tick in msec
+	public static final long		DEFAULT_TICK		= 1;
+	// Number of slots, must be a power of 2
+	public static final int			DEFAULT_WHEEL_SIZE	= 512;
+
+	/* Member Variables */
+	private long					_tickNanos;
+	private WheelTask[]				_slots;
+	private long					_currentTick;
+	private long					_startTime;
+	private int						_pendingCount;
+	private List<WheelTask>			_expired;
+
+	/* Constructors */
+	public TimingWheel() {
+		this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param tick
+	 *            duration of a tick in msec
+	 * @param wheelSize
+	 *            number of slots in the wheel, must be a power of 2
+	 */
+	public TimingWheel(long tick, int wheelSize) {
+		assert (tick > 0);
+		assert (Integer.bitCount(wheelSize) == 1);
+		setTickNanos(TimeUnit.MILLISECONDS.toNanos(tick));
+		setSlots(new WheelTask[wheelSize]);
+		setCurrentTick(0);
+		setPendingCount(0);
+		setExpired(new ArrayList<WheelTask>());
+		setStartTime(System.nanoTime());
+	}
+
+	/* Accessors and Modifiers */
+
+	public long getTickNanos() {
+		return _tickNanos;
+	}
+
+	public void setTickNanos(long tickNanos) {
+		_tickNanos = tickNanos;
+	}
+
+	public WheelTask[] getSlots() {
+		return _slots;
+	}
+
+	public void setSlots(WheelTask[] slots) {
+		_slots = slots;
+	}
+
+	public long getCurrentTick() {
+		return _currentTick;
+	}
+
+	public void setCurrentTick(long currentTick) {
+		_currentTick = currentTick;
+	}
+
+	public long getStartTime() {
+		return _startTime;
+	}
+
+	public void setStartTime(long startTime) {
+		_startTime = startTime;
+	}
+
+	public int getPendingCount() {
+		return _pendingCount;
+	}
+
+	public void setPendingCount(int pendingCount) {
+		_pendingCount = pendingCount;
+	}
+
+	public List<WheelTask> getExpired() {
+		return _expired;
+	}
+
+	public void setExpired(List<WheelTask> expired) {
+		_expired = expired;
+	}
+
+	/* Public methods */
+
+	/**
+	 * Advances the wheel up to the given time, running every task that
+	 * expires on the way. When no task is pending the wheel skips straight to
+	 * the current tick.
+	 *
+	 * @param now
+	 *            current time in nsec, as given by System.nanoTime()
+	 * @return time in nsec until the next tick, or -1 if no task is pending
+	 */
+	public long advance(long now) {
+		long elapsedTicks = (now - getStartTime()) / getTickNanos();
+		while (getCurrentTick() < elapsedTicks) {
+			if (getPendingCount() == 0) {
+				setCurrentTick(elapsedTicks);
+				break;
+			}
+			fireExpired(collectExpired());
+		}
+		if (getPendingCount() == 0) {
+			return -1;
+		}
+		return getStartTime() + (getCurrentTick() + 1) * getTickNanos() - now;
+	}
+
+	/**
+	 * Schedules a task to be run once after the given delay
+	 *
+	 * @param task
+	 *            task to be run
+	 * @param delay
+	 *            delay in msec before the task is run
+	 */
+	public void schedule(WheelTask task, long delay) {
+		schedule(task, delay, 0);
+	}
+
+	/**
+	 * Schedules a task to be run after the given delay, and then repeatedly
+	 * every period until it is cancelled. The period is read from the task
+	 * each time it is rescheduled, so a task may change its own period.
+	 *
+	 * @param task
+	 *            task to be run
+	 * @param delay
+	 *            delay in msec before the task is first run
+	 * @param period
+	 *            time in msec between runs, or 0 to run the task once
+	 */
+	public void schedule(WheelTask task, long delay, long period) {
+		assert (task.getWheel() == null);
+		task.setCancelled(false);
+		task.setPeriod(period);
+		insert(task, delay);
+	}
+
+	/**
+	 * Removes a task from the wheel
+	 *
+	 * @param task
+	 *            task to be removed
+	 * @return true if the task was scheduled on this wheel, false otherwise
+	 */
+	public boolean cancel(WheelTask task) {
+		task.setCancelled(true);
+		if (task.getWheel() != this) {
+			return false;
+		}
+		unlink(task);
+		return true;
+	}
+
+	/* Private methods */
+
+	/**
+	 * Chains a task into the slot of the tick it expires at
+	 *
+	 * @param task
+	 *            task to insert, must not currently be in the wheel
+	 * @param delay
+	 *            delay in msec from the current tick
+	 */
+	private void insert(WheelTask task, long delay) {
+		long ticks = Math.max(1, TimeUnit.MILLISECONDS.toNanos(delay)
+				/ getTickNanos());
+		task.setDeadline(getCurrentTick() + ticks);
+
+		int index = slotIndex(task.getDeadline());
+		WheelTask head = getSlots()[index];
+		task.setPrev(null);
+		task.setNext(head);
+		if (head != null) {
+			head.setPrev(task);
+		}
+		getSlots()[index] = task;
+		task.setWheel(this);
+		_pendingCount++;
+	}
+
+	/**
+	 * Removes a task from the chain of its slot
+	 *
+	 * @param task
+	 *            task to remove, must currently be in the wheel
+	 */
+	private void unlink(WheelTask task) {
+		if (task.getPrev() != null) {
+			task.getPrev().setNext(task.getNext());
+		} else {
+			getSlots()[slotIndex(task.getDeadline())] = task.getNext();
+		}
+		if (task.getNext() != null) {
+			task.getNext().setPrev(task.getPrev());
+		}
+		task.setNext(null);
+		task.setPrev(null);
+		task.setWheel(null);
+		_pendingCount--;
+	}
+
+	private int slotIndex(long tick) {
+		return (int) (tick & (getSlots().length - 1));
+	}
+
+	/**
+	 * Advances the wheel by one tick and removes all tasks due at that tick
+	 *
+	 * @return tasks to be run, in the order they were found
+	 */
+	private List<WheelTask> collectExpired() {
+		setCurrentTick(getCurrentTick() + 1);
+		getExpired().clear();
+
+		WheelTask task = getSlots()[slotIndex(getCurrentTick())];
+		while (task != null) {
+			WheelTask next = task.getNext();
+			if (task.getDeadline() <= getCurrentTick()) {
+				unlink(task);
+				getExpired().add(task);
+			}
+			task = next;
+		}
+		return getExpired();
+	}
+
+	/**
+	 * Runs a batch of expired tasks after they have all been removed from the
+	 * wheel, so that they may schedule and cancel tasks freely, then puts the
+	 * periodic tasks that were not cancelled back into the wheel. A
+	 * task that throws is logged as an error without stopping the others.
+	 *
+	 * @param batch
+	 *            tasks to run
+	 */
+	private void fireExpired(List<WheelTask> batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			try {
+				batch.get(i).run();
+			} catch (RuntimeException e) {
+				// Other tasks still run, but the failure must not go unseen
+				Log.log(LogLevel.ERROR, "Timer task failed", e);
+			}
+		}
+
+		for (int i = 0; i < batch.size(); i++) {
+			WheelTask task = batch.get(i);
+			if (task.getPeriod() > 0 && !task.isCancelled()
+					&& task.getWheel() == null) {
+				insert(task, task.getPeriod());
+			}
+		}
+		batch.clear();
+	}
+}
@@ -0,0 +1,566 @@
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ *
+ * This class holds the tunable parameters of a transfer. Parameters are given
+ * on the command line as "--name value" pairs following the positional
+ * arguments of the sender or receiver.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public class TransferConfig {
+
+	/* Constants */
+	// Number of segments that may be in flight when none is specified
+	public static final int				DEFAULT_WINDOW_SIZE		= 1;
+	// Checksum algorithm used when none is specified
+	public static final ChecksumType	DEFAULT_CHECKSUM_TYPE	= ChecksumType.CRC32;
+	// Bytes of segments a receiver accepts ahead of a missing segment
+	public static final int				DEFAULT_REORDER_MEMORY	= 1 << 20;
+	// Whether the sender maps the file instead of reading it by default
+	public static final boolean			DEFAULT_MAPPED_SOURCE	= false;
+	// Congestion control used by the sender when none is specified
+	public static final CongestionType	DEFAULT_CONGESTION_TYPE	= CongestionType.RENO;
+	// Number of files a sender keeps in flight at once by default
+	public static final int				DEFAULT_MAX_STREAMS		= 8;
+	// Number of flows a single file is split over by default
+	public static final int				DEFAULT_STRIPE_COUNT	= 1;
+	// Whether the receiver keeps serving senders once all sessions are over
+	public static final boolean			DEFAULT_DAEMON			= false;
+	// Number of senders a receiver serves at once by default
+	public static final int				DEFAULT_MAX_SESSIONS	= 16;
+	// Largest segment a sender proposes or a receiver accepts by default
+	public static final int				DEFAULT_SEGMENT_SIZE	= FileSender.MSS;
+	// Number of segments in order a receiver acknowledges with one ACK by
+	// default, and longest time in msec an ACK is held back for more
+	public static final int				DEFAULT_ACK_EVERY		= 2;
+	public static final int				DEFAULT_ACK_DELAY		= 10;
+	// Whether the sender only sends what the copy of the receiver lacks by
+	// default
+	public static final boolean			DEFAULT_DELTA			= false;
+	// Codec the sender compresses segments with when none is specified
+	public static final CompressionType	DEFAULT_COMPRESSION_TYPE	= CompressionType.NONE;
+	// Data segments per parity group and parity segments per group sent by
+	// default, none meaning no forward error correction
+	public static final int				DEFAULT_PARITY_GROUP_SIZE	= 0;
+	public static final int				DEFAULT_PARITY_COUNT		= 0;
+	// Least level of the diagnostics written by default
+	public static final LogLevel		DEFAULT_LOG_LEVEL			= LogLevel.INFO;
+	// Directory the receiver saves files under by default, the working one
+	public static final String			DEFAULT_ROOT				= ".";
+
+	/* Member Variables */
+	private int							_windowSize;
+	private ChecksumType				_checksumType;
+	private int							_reorderMemory;
+	private boolean						_mappedSource;
+	private CongestionType				_congestionType;
+	private int							_maxStreams;
+	private int							_stripeCount;
+	private boolean						_daemon;
+	private int							_maxSessions;
+	private int							_segmentSize;
+	private int							_ackEvery;
+	private int							_ackDelay;
+	private boolean						_delta;
+	private CompressionType				_compressionType;
+	private int							_parityGroupSize;
+	private int							_parityCount;
+	private LogLevel					_logLevel;
+	private Path						_root;
+
+	/* Constructors */
+	public TransferConfig() {
+		setWindowSize(DEFAULT_WINDOW_SIZE);
+		setChecksumType(DEFAULT_CHECKSUM_TYPE);
+		setReorderMemory(DEFAULT_REORDER_MEMORY);
+		setMappedSource(DEFAULT_MAPPED_SOURCE);
+		setCongestionType(DEFAULT_CONGESTION_TYPE);
+		setMaxStreams(DEFAULT_MAX_STREAMS);
+		setStripeCount(DEFAULT_STRIPE_COUNT);
+		setDaemon(DEFAULT_DAEMON);
+		setMaxSessions(DEFAULT_MAX_SESSIONS);
+		setSegmentSize(DEFAULT_SEGMENT_SIZE);
+		setAckEvery(DEFAULT_ACK_EVERY);
+		setAckDelay(DEFAULT_ACK_DELAY);
+		setDelta(DEFAULT_DELTA);
+		setCompressionType(DEFAULT_COMPRESSION_TYPE);
+		setParityGroupSize(DEFAULT_PARITY_GROUP_SIZE);
+		setParityCount(DEFAULT_PARITY_COUNT);
+		setLogLevel(DEFAULT_LOG_LEVEL);
+		setRoot(parseRoot(DEFAULT_ROOT));
+	}
+
+	/* Accessors and Modifiers */
+
+	public int getWindowSize() {
+		return _windowSize;
+	}
+
+	public void setWindowSize(int windowSize) {
+		_windowSize = windowSize;
+	}
+
+	public ChecksumType getChecksumType() {
+		return _checksumType;
+	}
+
+	public void setChecksumType(ChecksumType checksumType) {
+		_checksumType = checksumType;
+	}
+
+	public int getReorderMemory() {
+		return _reorderMemory;
+	}
+
+	public void setReorderMemory(int reorderMemory) {
+		_reorderMemory = reorderMemory;
+	}
+
+	public boolean isMappedSource() {
+		return _mappedSource;
+	}
+
+	public void setMappedSource(boolean mappedSource) {
+		_mappedSource = mappedSource;
+	}
+
+	public CongestionType getCongestionType() {
+		return _congestionType;
+	}
+
+	public void setCongestionType(CongestionType congestionType) {
+		_congestionType = congestionType;
+	}
+
+	public int getMaxStreams() {
+		return _maxStreams;
+	}
+
+	public void setMaxStreams(int maxStreams) {
+		_maxStreams = maxStreams;
+	}
+
+	public int getStripeCount() {
+		return _stripeCount;
+	}
+
+	public void setStripeCount(int stripeCount) {
+		_stripeCount = stripeCount;
+	}
+
+	public boolean isDaemon() {
+		return _daemon;
+	}
+
+	public void setDaemon(boolean daemon) {
+		_daemon = daemon;
+	}
+
+	public int getMaxSessions() {
+		return _maxSessions;
+	}
+
+	public void setMaxSessions(int maxSessions) {
+		_maxSessions = maxSessions;
+	}
+
+	public int getSegmentSize() {
+		return _segmentSize;
+	}
+
+	public void setSegmentSize(int segmentSize) {
+		_segmentSize = segmentSize;
+	}
+
+	public int getAckEvery() {
+		return _ackEvery;
+	}
+
+	public void setAckEvery(int ackEvery) {
+		_ackEvery = ackEvery;
+	}
+
+	public int getAckDelay() {
+		return _ackDelay;
+	}
+
+	public void setAckDelay(int ackDelay) {
+		_ackDelay = ackDelay;
+	}
+
+	public boolean isDelta() {
+		return _delta;
+	}
+
+	public void setDelta(boolean delta) {
+		_delta = delta;
+	}
+
+	public CompressionType getCompressionType() {
+		return _compressionType;
+	}
+
+	public void setCompressionType(CompressionType compressionType) {
+		_compressionType = compressionType;
+	}
+
+	public int getParityGroupSize() {
+		return _parityGroupSize;
+	}
+
+	public void setParityGroupSize(int parityGroupSize) {
+		_parityGroupSize = parityGroupSize;
+	}
+
+	public int getParityCount() {
+		return _parityCount;
+	}
+
+	public void setParityCount(int parityCount) {
+		_parityCount = parityCount;
+	}
+
+	public boolean isFec() {
+		return getParityCount() > 0;
+	}
+
+	public LogLevel getLogLevel() {
+		return _logLevel;
+	}
+
+	public void setLogLevel(LogLevel logLevel) {
+		_logLevel = logLevel;
+	}
+
+	/**
+	 * Gets the directory the receiver saves files under
+	 *
+	 * @return absolute and normalized path of the directory
+	 */
+	public Path getRoot() {
+		return _root;
+	}
+
+	public void setRoot(Path root) {
+		_root = root;
+	}
+
+	/**
+	 * Settles the size of the segments of a stream from the size proposed by
+	 * the other end. The smaller of the two sizes wins, and no size below
+	 * FileSender.MSS is ever settled on, since every end accepts that much.
+	 *
+	 * @param proposed
+	 *            largest segment size the other end would use in bytes
+	 * @return segment size to use for the stream in bytes
+	 */
+	public int acceptSegmentSize(int proposed) {
+		return Math.max(FileSender.MSS, Math.min(proposed, getSegmentSize()));
+	}
+
+	/**
+	 * Gets the number of out of order segments that fit in the reorder memory
+	 *
+	 * @param segmentSize
+	 *            bytes taken by each buffered segment
+	 * @return number of segments, at least 1
+	 */
+	public int getReorderCapacity(int segmentSize) {
+		return Math.max(1, getReorderMemory() / segmentSize);
+	}
+
+	/* Public methods */
+
+	/**
+	 * Parses the optional parameters from the command line arguments.
+	 *
+	 * @param args
+	 *            command line arguments
+	 * @param start
+	 *            index of the first optional argument
+	 * @return the parsed configuration
+	 * @throws IllegalArgumentException
+	 *             if an option is unknown, is missing its value or has an
+	 *             invalid value
+	 */
+	public static TransferConfig parse(String[] args, int start) {
+		TransferConfig config = new TransferConfig();
+
+		for (int i = start; i < args.length; i += 2) {
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for "
+						+ args[i]);
+			}
+			String value = args[i + 1];
+
+			switch (args[i]) {
+				case "--window":
+					config.setWindowSize(parsePositive(value));
+					break;
+				case "--checksum":
+					config.setChecksumType(ChecksumType.parse(value));
+					break;
+				case "--reorder-memory":
+					config.setReorderMemory(parsePositive(value));
+					break;
+				case "--source":
+					config.setMappedSource(parseSource(value));
+					break;
+				case "--congestion":
+					config.setCongestionType(CongestionType.parse(value));
+					break;
+				case "--streams":
+					config.setMaxStreams(parsePositive(value));
+					break;
+				case "--stripes":
+					config.setStripeCount(parseStripeCount(value));
+					break;
+				case "--mode":
+					config.setDaemon(parseMode(value));
+					break;
+				case "--max-sessions":
+					config.setMaxSessions(parsePositive(value));
+					break;
+				case "--segment-size":
+					config.setSegmentSize(parseSegmentSize(value));
+					break;
+				case "--ack-every":
+					config.setAckEvery(parsePositive(value));
+					break;
+				case "--ack-delay":
+					config.setAckDelay(parsePositive(value));
+					break;
+				case "--delta":
+					config.setDelta(parseDelta(value));
+					break;
+				case "--compression":
+					config.setCompressionType(CompressionType.parse(value));
+					break;
+				case "--fec":
+					int[] fec = parseFec(value);
+					config.setParityGroupSize(fec[0]);
+					config.setParityCount(fec[1]);
+					break;
+				case "--log-level":
+					config.setLogLevel(LogLevel.parse(value));
+					break;
+				case "--root":
+					config.setRoot(parseRoot(value));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option "
+							+ args[i]);
+			}
+		}
+		return config;
+	}
+
+	/* Private methods */
+
+	/**
+	 * Parses a strictly positive integer
+	 *
+	 * @param value
+	 *            String to parse
+	 * @return the parsed value
+	 * @throws IllegalArgumentException
+	 *             if value is not a positive integer
+	 */
+	private static int parsePositive(String value) {
+		int result = Integer.parseInt(value);
+		if (result <= 0) {
+			throw new IllegalArgumentException("Expected a positive value: "
+					+ value);
+		}
+		return result;
+	}
+
+	/**
+	 * Parses a number of stripes, no more than a receiver accepts
+	 *
+	 * @param value
+	 *            String to parse
+	 * @return the parsed number of stripes
+	 * @throws IllegalArgumentException
+	 *             if value is not a number of stripes in range
+	 */
+	private static int parseStripeCount(String value) {
+		int result = Integer.parseInt(value);
+		if (result <= 0 || result > UDPSegment.MAX_STRIPE_COUNT) {
+			throw new IllegalArgumentException("Stripes must be between 1 and "
+					+ UDPSegment.MAX_STRIPE_COUNT + ": " + value);
+		}
+		return result;
+	}
+
+	/**
+	 * Parses a segment size, which must fit in a UDP datagram and be no
+	 * smaller than the size every receiver accepts
+	 *
+	 * @param value
+	 *            String to parse, in bytes
+	 * @return the parsed segment size
+	 * @throws IllegalArgumentException
+	 *             if value is not a segment size in range
+	 */
+	private static int parseSegmentSize(String value) {
+		int result = Integer.parseInt(value);
+		if (result < FileSender.MSS || result > UDPSegment.MAX_SEGMENT_SIZE) {
+			throw new IllegalArgumentException("Segment size must be between "
+					+ FileSender.MSS + " and " + UDPSegment.MAX_SEGMENT_SIZE
+					+ ": " + value);
+		}
+		return result;
+	}
+
+	/**
+	 * Parses the way the sender reads the file
+	 *
+	 * @param value
+	 *            "stream" to read the file through a stream, or "mapped" to
+	 *            map it into memory
+	 * @return true if the file is to be mapped
+	 * @throws IllegalArgumentException
+	 *             if value is neither
+	 */
+	private static boolean parseSource(String value) {
+		switch (value) {
+			case "stream":
+				return false;
+			case "mapped":
+				return true;
+			default:
+				throw new IllegalArgumentException("Unknown file source: "
+						+ value);
+		}
+	}
+
+	/**
+	 * Parses the way the receiver runs
+	 *
+	 * @param value
+	 *            "single" to exit once the senders are done, or "daemon" to
+	 *            keep serving senders
+	 * @return true if the receiver runs as a daemon
+	 * @throws IllegalArgumentException
+	 *             if value is neither
+	 */
+	private static boolean parseMode(String value) {
+		switch (value) {
+			case "single":
+				return false;
+			case "daemon":
+				return true;
+			default:
+				throw new IllegalArgumentException("Unknown receiver mode: "
+						+ value);
+		}
+	}
+
+	/**
+	 * Parses whether the sender sends files as a delta against the copy of
+	 * the receiver
+	 *
+	 * @param value
+	 *            "on" to send only what the copy of the receiver lacks, or
+	 *            "off" to send every byte
+	 * @return true if files are sent as a delta
+	 * @throws IllegalArgumentException
+	 *             if value is neither
+	 */
+	private static boolean parseDelta(String value) {
+		switch (value) {
+			case "on":
+				return true;
+			case "off":
+				return false;
+			default:
+				throw new IllegalArgumentException("Unknown delta setting: "
+						+ value);
+		}
+	}
+
+	/**
+	 * Parses the forward error correction of the sender
+	 *
+	 * @param value
+	 *            "off", or "N/K" to send K parity segments after every N data
+	 *            segments, with N at most GaloisField.MAX_GROUP_SIZE and K at
+	 *            most GaloisField.MAX_ROWS
+	 * @return the number of data segments per group and of parity segments
+	 *         per group, both 0 if off
+	 * @throws IllegalArgumentException
+	 *             if value is neither or is out of range
+	 */
+	private static int[] parseFec(String value) {
+		if (value.equals("off")) {
+			return new int[] { 0, 0 };
+		}
+		int slash = value.indexOf('/');
+		if (slash < 0) {
+			throw new IllegalArgumentException("Unknown FEC setting: " + value);
+		}
+		int groupSize = Integer.parseInt(value.substring(0, slash));
+		int parityCount = Integer.parseInt(value.substring(slash + 1));
+		if (groupSize <= 0 || groupSize > GaloisField.MAX_GROUP_SIZE
+				|| parityCount <= 0 || parityCount > GaloisField.MAX_ROWS) {
+			throw new IllegalArgumentException("FEC must be at most "
+					+ GaloisField.MAX_GROUP_SIZE + "/" + GaloisField.MAX_ROWS
+					+ ": " + value);
+		}
+		return new int[] { groupSize, parityCount };
+	}
+
+	/**
+	 * Parses the directory the receiver saves files under
+	 *
+	 * @param value
+	 *            path of an existing directory, relative to the working one
+	 *            or absolute
+	 * @return absolute and normalized path of the directory
+	 * @throws IllegalArgumentException
+	 *             if value is not the path of a directory
+	 */
+	private static Path parseRoot(String value) {
+		Path root;
+		try {
+			root = Paths.get(value).toAbsolutePath().normalize();
+		} catch (InvalidPathException e) {
+			throw new IllegalArgumentException("Invalid root: " + value);
+		}
+		if (!Files.isDirectory(root)) {
+			throw new IllegalArgumentException("Root is not a directory: "
+					+ value);
+		}
+		return root;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append("Window size: " + getWindowSize() + "\n");
+		result.append("Checksum: " + getChecksumType() + "\n");
+		result.append("Reorder memory: " + getReorderMemory() + "\n");
+		result.append("Mapped source: " + isMappedSource() + "\n");
+		result.append("Congestion control: " + getCongestionType() + "\n");
+		result.append("Streams in flight: " + getMaxStreams() + "\n");
+		result.append("Stripes: " + getStripeCount() + "\n");
+		result.append("Daemon: " + isDaemon() + "\n");
+		result.append("Max sessions: " + getMaxSessions() + "\n");
+		result.append("Segment size: " + getSegmentSize() + "\n");
+		result.append("ACK every: " + getAckEvery() + " segments\n");
+		result.append("ACK delay: " + getAckDelay() + " msec\n");
+		result.append("Delta: " + isDelta() + "\n");
+		result.append("Compression: " + getCompressionType() + "\n");
+		result.append("FEC: " + (isFec() ? getParityGroupSize() + "/"
+				+ getParityCount() : "off") + "\n");
+		result.append("Log level: " + getLogLevel() + "\n");
+		result.append("Root: " + getRoot() + "\n");
+		return result.toString();
+	}
+}
@@ -1,7 +1,88 @@
-import java.net.DatagramPacket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
-import java.util.zip.CRC32;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
 
+/**
+ *
+ * A segment of the transfer protocol. A segment is a flyweight view over a
+ * ByteBuffer holding the datagram exactly as it is sent: the header fields are
+ * read and written in place, and the data follows the header. The same
+ * segment and buffer are reused for many datagrams (see SegmentPool), so
+ * encoding, decoding and checksumming a segment do not allocate.
+ *
+ * <pre>
+ * | seqNum (4) | checksum (4) | type (2) | flags (2) | timestamp (4) |
+ * | streamId (4) | data |
+ * </pre>
+ *
+ * The checksum covers every other field of the header and the data. The low
+ * bits of the flags hold the id of the ChecksumType used. The timestamp of a
+ * data segment is the time it was sent in usec, on the clock of the sender;
+ * the timestamp of an ACK is the one-way delay of the segment that caused it,
+ * i.e. the time it was received on the clock of the receiver minus its
+ * timestamp. Both clocks are arbitrary, so only changes in the delay are
+ * meaningful.
+ *
+ * A session may carry many files at once, each as a stream of its own with
+ * its own sequence numbers. The stream id tells the streams apart. A large
+ * file may also be split into stripes, byte ranges sent as separate streams.
+ * The data of the first segment of a stream holds the size of the file, the
+ * number of streams in the session, the offset of the stripe in the file, the
+ * number of stripes of the file and the segment size proposed by the sender,
+ * followed by the name to save the file under. The first segment of a stream
+ * is never larger than FileSender.MSS, which every receiver accepts; the
+ * receiver answers with the segment size it accepts, carried by every ACK of
+ * the stream, and the rest of the stream uses that size. The last segment of
+ * a stream is flagged as final and holds the length and checksum of the
+ * bytes of the stream.
+ *
+ * A receiver holding part of a stripe from an earlier transfer may answer the
+ * first segment with an ACK flagged as a resume offer, carrying the length of
+ * the part it holds and its checksum in place of the SACK blocks. The sender
+ * then answers with a segment flagged the same way, holding the offset in the
+ * stripe it resumes from, and the data segments that follow start there.
+ *
+ * In a delta transfer, the receiver answers a first segment flagged as delta
+ * with an ACK flagged the same way, carrying the length of its existing copy
+ * of the file, the basis, and the size of the blocks it cuts the basis into.
+ * The sender asks for the signatures of the blocks with segments flagged as
+ * signature requests, each holding the index of the first block wanted, and
+ * the ACK of each request carries the weak and strong checksums of up to
+ * MAX_SIGNATURES blocks. The contents of the file then follow as delta
+ * segments, each holding the position in the file of the bytes it covers
+ * followed by a list of operations: a positive length followed by that many
+ * literal bytes, or a negative block count followed by the index of the first
+ * of that many consecutive blocks to copy from the basis.
+ *
+ * A stream may protect its contents with forward error correction, flagging
+ * its first segment as such. Its data segments then leave PARITY_OVERHEAD
+ * bytes unused, and every group of consecutive data segments is followed by
+ * parity segments, which take no sequence number of their own: the sequence
+ * number of a parity segment is that of the first segment of its group, and
+ * its data holds the number of segments in the group, the index of its
+ * parity row and the row itself (see GaloisField). A row is computed over
+ * the symbols of the segments, each the length and flags of a segment
+ * followed by its data, padded with zeros to the longest of the group.
+ *
+ * The payload of a data segment may be compressed, in which case the id of
+ * the codec is carried in the flags next to that of the checksum algorithm.
+ * The checksum of the segment covers the compressed payload.
+ *
+ * Instead of being copied into the buffer, the data of a segment may be
+ * attached from another buffer, such as a slice of a memory mapped file. The
+ * header and the attached data are then checksummed and sent in place, the
+ * data never being copied onto the heap.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
 public class UDPSegment {
 
 	/* Constants */
@@ -10,110 +91,340 @@ public class UDPSegment {
 	private static final int	SEQ_OFFSET		= 0;
 	private static final int	SEQ_SIZE		= 4;
 	private static final int	CS_OFFSET		= 4;
-	private static final int	CS_SIZE			= 8;
-	private static final int	TYPE_OFFSET		= 12;
+	private static final int	CS_SIZE			= 4;
+	private static final int	TYPE_OFFSET		= 8;
 	private static final int	TYPE_SIZE		= 2;
-	private static final int	HEADER_SIZE		= CS_SIZE + TYPE_SIZE
-														+ SEQ_SIZE;
-	private static final int	DATA_OFFSET		= 14;
+	private static final int	FLAGS_OFFSET	= 10;
+	private static final int	FLAGS_SIZE		= 2;
+	private static final int	TS_OFFSET		= 12;
+	private static final int	TS_SIZE			= 4;
+	private static final int	STREAM_OFFSET	= 16;
+	private static final int	STREAM_SIZE		= 4;
+	public static final int		HEADER_SIZE		= SEQ_SIZE + CS_SIZE
+														+ TYPE_SIZE + FLAGS_SIZE
+														+ TS_SIZE + STREAM_SIZE;
+	public static final int		DATA_OFFSET		= 20;
 	public static final int		DATA_SIZE		= FileSender.MSS - HEADER_SIZE;
+	// Largest segment a UDP datagram over IPv4 can carry
+	public static final int		MAX_SEGMENT_SIZE	= 65507;
+
+	// Layout of the data of an ACK. Offsets are relative to the data.
+	private static final int	ECHO_OFFSET		= 0;
+	private static final int	ECHO_SIZE		= 4;
+	private static final int	CORRUPT_OFFSET	= ECHO_OFFSET + ECHO_SIZE;
+	private static final int	CORRUPT_SIZE	= 4;
+	private static final int	ACCEPTED_OFFSET	= CORRUPT_OFFSET + CORRUPT_SIZE;
+	private static final int	ACCEPTED_SIZE	= 4;
+	private static final int	SACK_OFFSET		= ACCEPTED_OFFSET
+														+ ACCEPTED_SIZE;
+	private static final int	SACK_BLOCK_SIZE	= 8;
+	public static final int		MAX_SACK_BLOCKS	= 16;
+	// A resume offer takes the place of the SACK blocks
+	private static final int	RESUME_OFFSET_SIZE	= 8;
+	private static final int	RESUME_DIGEST_SIZE	= 4;
+	// So do the basis offered for a delta transfer, and the signatures of
+	// blocks of the basis
+	private static final int	BASIS_LENGTH_SIZE	= 8;
+	private static final int	BLOCK_SIZE_SIZE		= 4;
+	private static final int	FIRST_BLOCK_SIZE	= 4;
+	private static final int	SIGNATURE_SIZE		= 8;
+	// Most signatures an ACK can carry
+	public static final int		MAX_SIGNATURES		= (DATA_SIZE - SACK_OFFSET
+															- FIRST_BLOCK_SIZE)
+															/ SIGNATURE_SIZE;
+
+	// Layout of the data of a delta segment. Offsets are relative to the
+	// data.
+	private static final int	POSITION_OFFSET		= 0;
+	private static final int	POSITION_SIZE		= 8;
+	private static final int	OPS_OFFSET			= POSITION_OFFSET
+															+ POSITION_SIZE;
+	private static final int	OP_SIZE				= 4;
+
+	// Layout of the data of a parity segment. Offsets are relative to the
+	// data.
+	private static final int	GROUP_COUNT_OFFSET	= 0;
+	private static final int	GROUP_COUNT_SIZE	= 2;
+	private static final int	ROW_OFFSET			= GROUP_COUNT_OFFSET
+															+ GROUP_COUNT_SIZE;
+	private static final int	ROW_SIZE			= 2;
+	private static final int	ROW_DATA_OFFSET		= ROW_OFFSET + ROW_SIZE;
+	// Layout of the symbol of a data segment in a parity row
+	private static final int	SYMBOL_LEN_OFFSET	= 0;
+	private static final int	SYMBOL_LEN_SIZE		= 2;
+	private static final int	SYMBOL_FLAGS_OFFSET	= SYMBOL_LEN_OFFSET
+															+ SYMBOL_LEN_SIZE;
+	private static final int	SYMBOL_FLAGS_SIZE	= 2;
+	public static final int		SYMBOL_DATA_OFFSET	= SYMBOL_FLAGS_OFFSET
+															+ SYMBOL_FLAGS_SIZE;
+	// Bytes of data a stream with forward error correction leaves unused in
+	// its data segments, so that a parity segment is no larger than them
+	public static final int		PARITY_OVERHEAD		= ROW_DATA_OFFSET
+															+ SYMBOL_DATA_OFFSET;
+
+	// Layout of the data of the first segment of a stream. Offsets are
+	// relative to the data.
+	private static final int	FILE_SIZE_OFFSET	= 0;
+	private static final int	FILE_SIZE_SIZE		= 8;
+	private static final int	COUNT_OFFSET		= FILE_SIZE_OFFSET
+															+ FILE_SIZE_SIZE;
+	private static final int	COUNT_SIZE			= 4;
+	private static final int	STRIPE_OFFSET		= COUNT_OFFSET
+															+ COUNT_SIZE;
+	private static final int	STRIPE_SIZE			= 8;
+	private static final int	STRIPES_OFFSET		= STRIPE_OFFSET
+															+ STRIPE_SIZE;
+	private static final int	STRIPES_SIZE		= 4;
+	private static final int	PROPOSED_OFFSET		= STRIPES_OFFSET
+															+ STRIPES_SIZE;
+	private static final int	PROPOSED_SIZE		= 4;
+	private static final int	FILENAME_OFFSET		= PROPOSED_OFFSET
+															+ PROPOSED_SIZE;
+	// Longest name the first segment of a stream can hold in bytes
+	public static final int		MAX_FILENAME_SIZE	= DATA_SIZE
+															- FILENAME_OFFSET;
+	// Most stripes a file can be split into
+	public static final int		MAX_STRIPE_COUNT	= 1 << 10;
 
 	public static final char	INVALID_TYPE	= 'I';
 	public static final char	ACK_TYPE		= 'A';
 	public static final char	DATA_TYPE		= 'D';
+	public static final char	PARITY_TYPE		= 'P';
+
+	// Layout of the data of the final segment of a stream. Offsets are
+	// relative to the data.
+	private static final int	DIGEST_LEN_OFFSET	= 0;
+	private static final int	DIGEST_LEN_SIZE		= 8;
+	private static final int	DIGEST_OFFSET		= DIGEST_LEN_OFFSET
+															+ DIGEST_LEN_SIZE;
+	private static final int	DIGEST_SIZE			= 4;
+
+	// Bits of the flags holding the checksum algorithm
+	private static final int	CHECKSUM_MASK	= 0x3;
+	// Flag of the final segment of a stream
+	private static final int	FINAL_FLAG		= 0x4;
+	// Flag of a segment the sender wants acknowledged without delay
+	private static final int	ACK_NOW_FLAG	= 0x8;
+	// Flag of an ACK offering to resume a stream, and of the segment of the
+	// sender answering the offer
+	private static final int	RESUME_FLAG		= 0x10;
+	// Flag of the first segment of a stream asking for a delta transfer, of
+	// the ACK answering it with a basis, and of the segments of the delta
+	private static final int	DELTA_FLAG		= 0x20;
+	// Flag of a segment asking for signatures of the basis, and of the ACK
+	// carrying them
+	private static final int	SIGNATURES_FLAG	= 0x40;
+	// Flag of the first segment of a stream protected by parity segments
+	private static final int	FEC_FLAG		= 0x200;
+	// Bits of the flags holding the codec the payload is compressed with
+	private static final int	COMPRESSION_MASK	= 0x180;
+	private static final int	COMPRESSION_SHIFT	= 7;
+
+	// Per thread objects used for checksumming, indexed by algorithm id
+	private static final ThreadLocal<Checksum[]>	CHECKSUMS	= new ThreadLocal<Checksum[]>() {
+		@Override
+		protected Checksum[] initialValue() {
+			Checksum[] checksums = new Checksum[CHECKSUM_MASK + 1];
+			for (ChecksumType type : ChecksumType.values()) {
+				checksums[type.getId()] = type.newChecksum();
+			}
+			return checksums;
+		}
+	};
+	// Checksum.update(ByteBuffer) on JVMs that have it (Java 9 onwards), which
+	// reads direct buffers in place
+	private static final MethodHandle			UPDATE_BUFFER	= findUpdateBuffer();
+	private static final ThreadLocal<byte[]>	SCRATCH	= new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[MAX_SEGMENT_SIZE];
+		}
+	};
 
 	/* Member variables */
-	private int					_seqNum;
-	private long				_checksum;
-	private char				_type;
-	private byte[]				_data;
+	private ByteBuffer			_buffer;
+	private int					_length;
 	private boolean				_ackRcvd;
-	private int					_dataLen;
+	// Time of the last transmission in nsec
+	private long				_sendTime;
+	private boolean				_retransmitted;
+	// Attached data, a view of _dataSource starting at _dataOffset
+	private ByteBuffer			_data;
+	private ByteBuffer			_dataSource;
+	private int					_dataOffset;
+	private ByteBuffer[]		_gather;
 
 	/* Constructors */
 	public UDPSegment() {
-		setSeqNum(0);
-		setChecksum(0);
-		setType(INVALID_TYPE);
-		setData(new byte[DATA_SIZE]);
-		setAckRcvd(false);
-		setDataLen(DATA_SIZE);
+		this(ByteBuffer.allocate(FileSender.MSS));
 	}
 
-	public UDPSegment(int seqNum, long checksum, char type, byte[] data,
-			int dataLen) {
-		assert (dataLen <= FileSender.MSS);
-		setSeqNum(seqNum);
-		setChecksum(checksum);
-		setType(type);
-		setData(data);
-		setAckRcvd(false);
-		setDataLen(dataLen);
+	/**
+	 * Constructor
+	 *
+	 * @param buffer
+	 *            buffer to hold the datagram, at least HEADER_SIZE long
+	 */
+	public UDPSegment(ByteBuffer buffer) {
+		wrap(buffer, HEADER_SIZE);
+		reset(0, 0, INVALID_TYPE);
 	}
 
-	public UDPSegment(int seqNum, char type, byte[] data, int dataLen) {
-		assert (dataLen <= FileSender.MSS);
-		setSeqNum(seqNum);
-		setType(type);
-		setData(data);
-		setAckRcvd(false);
-		setDataLen(dataLen);
+	/* Accessors and Modifiers */
+	public int getSeqNum() {
+		return getBuffer().getInt(SEQ_OFFSET);
 	}
 
-	public UDPSegment(int seqNum, char type) {
-		setSeqNum(seqNum);
-		setType(type);
-		setData(new byte[DATA_SIZE]);
-		setAckRcvd(false);
-		setDataLen(DATA_SIZE);
+	public void setSeqNum(int seqNum) {
+		getBuffer().putInt(SEQ_OFFSET, seqNum);
 	}
 
-	public UDPSegment(DatagramPacket pkt) {
-		setSeqNum(ByteBuffer.wrap(pkt.getData(), SEQ_OFFSET, SEQ_SIZE).getInt());
-		setChecksum(ByteBuffer.wrap(pkt.getData(), CS_OFFSET, CS_SIZE)
-				.getLong());
-		setType(ByteBuffer.wrap(pkt.getData(), TYPE_OFFSET, TYPE_SIZE)
-				.getChar());
+	public int getChecksum() {
+		return getBuffer().getInt(CS_OFFSET);
+	}
 
-		byte[] data = ByteBuffer.wrap(pkt.getData(), DATA_OFFSET,
-				pkt.getLength() - HEADER_SIZE).array();
-		_data = new byte[FileSender.MSS];
-		System.arraycopy(data, DATA_OFFSET, _data, 0, pkt.getLength()
-				- HEADER_SIZE);
-		setDataLen(pkt.getLength() - HEADER_SIZE);
+	public void setChecksum(int checksum) {
+		getBuffer().putInt(CS_OFFSET, checksum);
 	}
 
-	/* Accessors and Modifiers */
-	public int getSeqNum() {
-		return _seqNum;
+	public char getType() {
+		return getBuffer().getChar(TYPE_OFFSET);
 	}
 
-	public void setSeqNum(int seqNum) {
-		_seqNum = seqNum;
+	public void setType(char type) {
+		getBuffer().putChar(TYPE_OFFSET, type);
 	}
 
-	public long getChecksum() {
-		return _checksum;
+	public int getFlags() {
+		return getBuffer().getShort(FLAGS_OFFSET) & 0xFFFF;
 	}
 
-	public void setChecksum(long checksum) {
-		_checksum = checksum;
+	public void setFlags(int flags) {
+		getBuffer().putShort(FLAGS_OFFSET, (short) flags);
 	}
 
-	public char getType() {
-		return _type;
+	public int getTimestamp() {
+		return getBuffer().getInt(TS_OFFSET);
 	}
 
-	public void setType(char type) {
-		_type = type;
+	public void setTimestamp(int timestamp) {
+		getBuffer().putInt(TS_OFFSET, timestamp);
 	}
 
-	public byte[] getData() {
-		return _data;
+	public int getStreamId() {
+		return getBuffer().getInt(STREAM_OFFSET);
+	}
+
+	public void setStreamId(int streamId) {
+		getBuffer().putInt(STREAM_OFFSET, streamId);
+	}
+
+	/**
+	 * Gets the checksum algorithm of the segment
+	 * 
+	 * @return the algorithm, or null if the flags name an unknown one
+	 */
+	public ChecksumType getChecksumType() {
+		return ChecksumType.fromId(getFlags() & CHECKSUM_MASK);
+	}
+
+	public void setChecksumType(ChecksumType checksumType) {
+		setFlags((getFlags() & ~CHECKSUM_MASK) | checksumType.getId());
+	}
+
+	public boolean isFinal() {
+		return (getFlags() & FINAL_FLAG) != 0;
+	}
+
+	public boolean isAckNow() {
+		return (getFlags() & ACK_NOW_FLAG) != 0;
+	}
+
+	/**
+	 * Asks the receiver to acknowledge this segment at once instead of
+	 * holding its ACK back, such as when the sender cannot send more until
+	 * it is acknowledged
+	 */
+	public void setAckNow() {
+		setFlags(getFlags() | ACK_NOW_FLAG);
 	}
 
-	public void setData(byte[] data) {
-		_data = data;
+	public boolean isResume() {
+		return (getFlags() & RESUME_FLAG) != 0;
+	}
+
+	public boolean isDelta() {
+		return (getFlags() & DELTA_FLAG) != 0;
+	}
+
+	/**
+	 * Flags the first segment of a stream as asking for a delta transfer
+	 */
+	public void setDelta() {
+		setFlags(getFlags() | DELTA_FLAG);
+	}
+
+	public boolean isSignatures() {
+		return (getFlags() & SIGNATURES_FLAG) != 0;
+	}
+
+	public boolean isFec() {
+		return (getFlags() & FEC_FLAG) != 0;
+	}
+
+	/**
+	 * Flags the first segment of a stream as announcing that its data
+	 * segments are protected by parity segments
+	 */
+	public void setFec() {
+		setFlags(getFlags() | FEC_FLAG);
+	}
+
+	/**
+	 * Gets the codec the payload of the segment is compressed with
+	 *
+	 * @return the codec, NONE if the payload is sent as it is, or null if
+	 *         the id is unknown
+	 */
+	public CompressionType getCompressionType() {
+		return CompressionType.fromId((getFlags() & COMPRESSION_MASK)
+				>> COMPRESSION_SHIFT);
+	}
+
+	public void setCompressionType(CompressionType compressionType) {
+		setFlags((getFlags() & ~COMPRESSION_MASK)
+				| (compressionType.getId() << COMPRESSION_SHIFT));
+	}
+
+	public boolean isCompressed() {
+		return (getFlags() & COMPRESSION_MASK) != 0;
+	}
+
+	public ByteBuffer getBuffer() {
+		return _buffer;
+	}
+
+	/**
+	 * Gets the length of the datagram. Datagram is made up of header and
+	 * data. Therefore, this is the same as the length of the sequence number +
+	 * checksum + type + flags + data.
+	 *
+	 * @return length of datagram
+	 */
+	public int getLength() {
+		return _length;
+	}
+
+	/**
+	 * Sets the length of the datagram, such as after a datagram has been
+	 * received into the buffer
+	 *
+	 * @param length
+	 *            length of datagram, including the header
+	 */
+	public void setLength(int length) {
+		assert (length <= getBuffer().capacity());
+		_length = Math.max(length, HEADER_SIZE);
 	}
 
 	public boolean isAckRcvd() {
@@ -125,46 +436,599 @@ public class UDPSegment {
 	}
 
 	public int getDataLen() {
-		return _dataLen;
+		return getLength() - HEADER_SIZE;
 	}
 
 	public void setDataLen(int dataLen) {
-		_dataLen = dataLen;
+		setLength(HEADER_SIZE + dataLen);
+	}
+
+	public long getSendTime() {
+		return _sendTime;
+	}
+
+	public void setSendTime(long sendTime) {
+		_sendTime = sendTime;
+	}
+
+	public boolean isRetransmitted() {
+		return _retransmitted;
+	}
+
+	public void setRetransmitted(boolean retransmitted) {
+		_retransmitted = retransmitted;
+	}
+
+	/**
+	 * Checks if the data of the segment is attached from another buffer
+	 * instead of following the header
+	 *
+	 * @return true if the data is attached
+	 */
+	public boolean hasAttachedData() {
+		return _dataSource != null && _dataOffset >= 0;
 	}
 
 	/* Public methods */
 
 	/**
-	 * Sets the checksum for the current segment using the payload and header
-	 * contents
+	 * Makes this segment a view over another buffer
+	 *
+	 * @param buffer
+	 *            buffer holding the datagram
+	 * @param length
+	 *            length of the datagram in the buffer
+	 * @return this segment
+	 */
+	public UDPSegment wrap(ByteBuffer buffer, int length) {
+		_buffer = buffer;
+		setLength(length);
+		return this;
+	}
+
+	/**
+	 * Prepares this segment to be reused for a new datagram without data. The
+	 * checksum algorithm is kept, all other flags are cleared.
+	 *
+	 * @param streamId
+	 *            stream the new segment belongs to
+	 * @param seqNum
+	 *            sequence number of the new segment
+	 * @param type
+	 *            type of the new segment
+	 */
+	public void reset(int streamId, int seqNum, char type) {
+		setSeqNum(seqNum);
+		setChecksum(0);
+		setType(type);
+		setFlags(getFlags() & CHECKSUM_MASK);
+		setTimestamp(0);
+		setStreamId(streamId);
+		setDataLen(0);
+		setAckRcvd(false);
+		setRetransmitted(false);
+		_dataOffset = -1;
+	}
+
+	/**
+	 * Copies data into the segment
+	 *
+	 * @param src
+	 *            array holding the data
+	 * @param offset
+	 *            offset of the data in src
+	 * @param length
+	 *            length of the data
+	 */
+	public void putData(byte[] src, int offset, int length) {
+		assert (length <= getBuffer().capacity() - HEADER_SIZE);
+		for (int i = 0; i < length; i++) {
+			getBuffer().put(DATA_OFFSET + i, src[offset + i]);
+		}
+		setDataLen(length);
+	}
+
+	/**
+	 * Replaces the data of the segment, attached or not, with its compressed
+	 * form
+	 *
+	 * @param src
+	 *            array holding the compressed data from its start
+	 * @param length
+	 *            length of the compressed data
+	 * @param compressionType
+	 *            codec the data was compressed with
+	 */
+	public void putCompressedData(byte[] src, int length,
+			CompressionType compressionType) {
+		_dataOffset = -1;
+		putData(src, 0, length);
+		setCompressionType(compressionType);
+	}
+
+	/**
+	 * Copies the data of the segment, attached or not, into an array
+	 *
+	 * @param dst
+	 *            array to copy the data to the start of, at least the length
+	 *            of the data
+	 * @return length of the data
+	 */
+	public int getData(byte[] dst) {
+		return getData(dst, 0);
+	}
+
+	/**
+	 * Copies the data of the segment, attached or not, into an array
+	 *
+	 * @param dst
+	 *            array to copy the data to
+	 * @param offset
+	 *            offset in dst to copy the data to
+	 * @return length of the data
+	 */
+	public int getData(byte[] dst, int offset) {
+		if (hasAttachedData()) {
+			attachedData().get(dst, offset, getDataLen());
+		} else {
+			ByteBuffer buffer = getBuffer();
+			buffer.position(DATA_OFFSET);
+			buffer.get(dst, offset, getDataLen());
+			buffer.clear();
+		}
+		return getDataLen();
+	}
+
+	/**
+	 * Copies the symbol of a data segment, its length and flags followed by
+	 * its data, into an array
+	 *
+	 * @param dst
+	 *            array to copy the symbol to the start of, at least
+	 *            SYMBOL_DATA_OFFSET longer than the data
+	 * @return length of the symbol
+	 */
+	public int getSymbol(byte[] dst) {
+		putShort(dst, SYMBOL_LEN_OFFSET, getDataLen());
+		putShort(dst, SYMBOL_FLAGS_OFFSET, getFlags());
+		return SYMBOL_DATA_OFFSET + getData(dst, SYMBOL_DATA_OFFSET);
+	}
+
+	/**
+	 * Turns this segment into the data segment a symbol was taken from, save
+	 * for its header other than the flags
+	 *
+	 * @param src
+	 *            array holding the symbol from its start
+	 * @param maxDataLen
+	 *            largest data length a segment of the stream holds
+	 * @return false if the length held by the symbol is out of range
+	 */
+	public boolean putSymbol(byte[] src, int maxDataLen) {
+		int length = getShort(src, SYMBOL_LEN_OFFSET);
+		if (length > maxDataLen) {
+			return false;
+		}
+		_dataOffset = -1;
+		putData(src, SYMBOL_DATA_OFFSET, length);
+		setFlags(getShort(src, SYMBOL_FLAGS_OFFSET));
+		return true;
+	}
+
+	/**
+	 * Turns this segment into a parity segment
+	 *
+	 * @param groupCount
+	 *            number of segments in the group
+	 * @param row
+	 *            index of the parity row
+	 * @param symbols
+	 *            array holding the row from its start
+	 * @param length
+	 *            length of the row, that of the longest symbol of the group
+	 */
+	public void putParity(int groupCount, int row, byte[] symbols, int length) {
+		getBuffer().putShort(DATA_OFFSET + GROUP_COUNT_OFFSET,
+				(short) groupCount);
+		getBuffer().putShort(DATA_OFFSET + ROW_OFFSET, (short) row);
+		ByteBuffer buffer = getBuffer();
+		buffer.position(DATA_OFFSET + ROW_DATA_OFFSET);
+		buffer.put(symbols, 0, length);
+		buffer.clear();
+		setDataLen(ROW_DATA_OFFSET + length);
+	}
+
+	public boolean isParity() {
+		return getType() == PARITY_TYPE;
+	}
+
+	/**
+	 * Gets the number of segments in the group of a parity segment, which
+	 * starts at its sequence number
+	 *
+	 * @return number of segments in the group
+	 */
+	public int getGroupCount() {
+		return getBuffer().getShort(DATA_OFFSET + GROUP_COUNT_OFFSET) & 0xFFFF;
+	}
+
+	/**
+	 * Gets the index of the parity row carried by a parity segment
+	 *
+	 * @return index of the row
+	 */
+	public int getParityRow() {
+		return getBuffer().getShort(DATA_OFFSET + ROW_OFFSET) & 0xFFFF;
+	}
+
+	/**
+	 * Gets the length of the parity row carried by a parity segment
+	 *
+	 * @return length of the longest symbol of the group
+	 */
+	public int getRowLength() {
+		return Math.max(0, getDataLen() - ROW_DATA_OFFSET);
+	}
+
+	/**
+	 * Copies the parity row carried by a parity segment into an array
+	 *
+	 * @param dst
+	 *            array to copy the row to the start of
+	 */
+	public void getRow(byte[] dst) {
+		ByteBuffer buffer = getBuffer();
+		buffer.position(DATA_OFFSET + ROW_DATA_OFFSET);
+		buffer.get(dst, 0, getRowLength());
+		buffer.clear();
+	}
+
+	/**
+	 * Attaches data held in another buffer to the segment, without copying
+	 * it. The view used to reach the data is kept across segments, so
+	 * attaching more data from the same source does not allocate. The data
+	 * must not change until the segment is reset.
+	 *
+	 * @param source
+	 *            buffer holding the data
+	 * @param offset
+	 *            offset of the data in source
+	 * @param length
+	 *            length of the data
+	 */
+	public void attachData(ByteBuffer source, int offset, int length) {
+		assert (length <= getBuffer().capacity() - HEADER_SIZE);
+		if (_dataSource != source) {
+			_dataSource = source;
+			_data = source.duplicate();
+		}
+		_dataOffset = offset;
+		setDataLen(length);
+	}
+
+	/**
+	 * Reads data directly from a stream into the segment
+	 *
+	 * @param in
+	 *            stream to read from
+	 * @param length
+	 *            largest number of bytes to read, at most the capacity of the
+	 *            buffer less the header
+	 * @return number of bytes read, or -1 at the end of the stream
+	 * @throws IOException
+	 *             if the stream could not be read
+	 */
+	public int readData(InputStream in, int length) throws IOException {
+		assert (getBuffer().hasArray());
+		assert (length <= getBuffer().capacity() - HEADER_SIZE);
+		int lengthRead = in.read(getBuffer().array(), getBuffer()
+				.arrayOffset() + DATA_OFFSET, length);
+		setDataLen(Math.max(lengthRead, 0));
+		return lengthRead;
+	}
+
+	/**
+	 * Writes the data of the segment directly to a file at the given
+	 * position, without moving the position of the channel
+	 *
+	 * @param channel
+	 *            file to write to
+	 * @param position
+	 *            position in the file of the first byte of data
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public void writeData(FileChannel channel, long position)
+			throws IOException {
+		ByteBuffer buffer = getBuffer();
+		buffer.limit(getLength());
+		buffer.position(DATA_OFFSET);
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer, position + buffer.position()
+						- DATA_OFFSET);
+			}
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Turns this segment into the first segment of a stream, announcing the
+	 * file to be sent
+	 *
+	 * @param fileSize
+	 *            size of the file in bytes
+	 * @param streamCount
+	 *            number of streams in the session
+	 * @param stripeOffset
+	 *            offset in the file of the first byte sent by the stream
+	 * @param stripeCount
+	 *            number of streams the file is split into
+	 * @param segmentSize
+	 *            size of the segments the sender proposes for the stream
+	 * @param filename
+	 *            name to save the file under, at most MAX_FILENAME_SIZE long
+	 */
+	public void putFileInfo(long fileSize, int streamCount, long stripeOffset,
+			int stripeCount, int segmentSize, byte[] filename) {
+		assert (filename.length <= MAX_FILENAME_SIZE);
+		getBuffer().putLong(DATA_OFFSET + FILE_SIZE_OFFSET, fileSize);
+		getBuffer().putInt(DATA_OFFSET + COUNT_OFFSET, streamCount);
+		getBuffer().putLong(DATA_OFFSET + STRIPE_OFFSET, stripeOffset);
+		getBuffer().putInt(DATA_OFFSET + STRIPES_OFFSET, stripeCount);
+		getBuffer().putInt(DATA_OFFSET + PROPOSED_OFFSET, segmentSize);
+		for (int i = 0; i < filename.length; i++) {
+			getBuffer().put(DATA_OFFSET + FILENAME_OFFSET + i, filename[i]);
+		}
+		setDataLen(FILENAME_OFFSET + filename.length);
+	}
+
+	/**
+	 * Checks if the data is long enough to be the first segment of a stream
+	 *
+	 * @return true if the data holds the size of the file and of the session
+	 */
+	public boolean containsFileInfo() {
+		return getDataLen() >= FILENAME_OFFSET;
+	}
+
+	/**
+	 * Checks if the first segment of a stream announces a file that can be
+	 * received: a name, a size, at least one stream in the session and a
+	 * stripe starting within the file, out of at most MAX_STRIPE_COUNT
+	 *
+	 * @return true if the file info makes sense
+	 */
+	public boolean containsValidFileInfo() {
+		return getDataLen() > FILENAME_OFFSET && getFileSize() >= 0
+				&& getStreamCount() > 0 && getStripeCount() > 0
+				&& getStripeCount() <= MAX_STRIPE_COUNT
+				&& getStripeOffset() >= 0
+				&& getStripeOffset() <= getFileSize();
+	}
+
+	/**
+	 * Gets the size of the file announced by the first segment of a stream
+	 *
+	 * @return size of the file in bytes
+	 */
+	public long getFileSize() {
+		return getBuffer().getLong(DATA_OFFSET + FILE_SIZE_OFFSET);
+	}
+
+	/**
+	 * Gets the number of streams announced by the first segment of a stream
+	 *
+	 * @return number of streams in the session
+	 */
+	public int getStreamCount() {
+		return getBuffer().getInt(DATA_OFFSET + COUNT_OFFSET);
+	}
+
+	/**
+	 * Gets the offset of the stripe announced by the first segment of a
+	 * stream
+	 *
+	 * @return offset in the file of the first byte sent by the stream
+	 */
+	public long getStripeOffset() {
+		return getBuffer().getLong(DATA_OFFSET + STRIPE_OFFSET);
+	}
+
+	/**
+	 * Gets the number of stripes announced by the first segment of a stream
+	 *
+	 * @return number of streams the file is split into
+	 */
+	public int getStripeCount() {
+		return getBuffer().getInt(DATA_OFFSET + STRIPES_OFFSET);
+	}
+
+	/**
+	 * Gets the segment size proposed by the first segment of a stream
+	 *
+	 * @return largest segment the sender would send in bytes
 	 */
-	public long calculateChecksum() {
-		CRC32 crc = new CRC32();
-		byte[] seqNum = ByteBuffer.allocate(SEQ_SIZE).putInt(getSeqNum())
-				.array();
-		byte[] type = ByteBuffer.allocate(TYPE_SIZE).putChar(getType()).array();
+	public int getProposedSegmentSize() {
+		return getBuffer().getInt(DATA_OFFSET + PROPOSED_OFFSET);
+	}
+
+	/**
+	 * Turns this segment into the final segment of a stream, carrying the
+	 * length and checksum of every byte sent by the stream
+	 *
+	 * @param length
+	 *            number of bytes sent by the stream
+	 * @param digest
+	 *            checksum of those bytes, with the algorithm of the segment
+	 */
+	public void putDigest(long length, int digest) {
+		setFlags(getFlags() | FINAL_FLAG);
+		getBuffer().putLong(DATA_OFFSET + DIGEST_LEN_OFFSET, length);
+		getBuffer().putInt(DATA_OFFSET + DIGEST_OFFSET, digest);
+		setDataLen(DIGEST_OFFSET + DIGEST_SIZE);
+	}
+
+	/**
+	 * Gets the number of bytes sent by a stream, from its final segment
+	 *
+	 * @return length of the stream in bytes
+	 */
+	public long getDigestLength() {
+		assert (isFinal());
+		return getBuffer().getLong(DATA_OFFSET + DIGEST_LEN_OFFSET);
+	}
+
+	/**
+	 * Gets the checksum of the bytes sent by a stream, from its final segment
+	 *
+	 * @return checksum of the stream
+	 */
+	public int getDigest() {
+		assert (isFinal());
+		return getBuffer().getInt(DATA_OFFSET + DIGEST_OFFSET);
+	}
 
-		byte[] buffer = new byte[FileSender.MSS];
-		System.arraycopy(seqNum, 0, buffer, SEQ_OFFSET, SEQ_SIZE);
-		System.arraycopy(type, 0, buffer, SEQ_SIZE, TYPE_SIZE);
-		System.arraycopy(getData(), 0, buffer, SEQ_SIZE + TYPE_SIZE,
-				getDataLen());
+	/**
+	 * Adds the data of the segment to a checksum kept outside of it, such as
+	 * that of a whole stream
+	 *
+	 * @param checksum
+	 *            checksum to update
+	 */
+	public void updateDataChecksum(Checksum checksum) {
+		if (hasAttachedData()) {
+			updateChecksum(checksum, attachedData());
+		} else {
+			updateChecksum(checksum, DATA_OFFSET, getDataLen());
+		}
+	}
 
-		crc.update(buffer);
+	/**
+	 * Gets the name announced by the first segment of a stream
+	 *
+	 * @return name to save the file under, decoded with the platform charset
+	 */
+	public String getFilename() {
+		byte[] filename = new byte[getDataLen() - FILENAME_OFFSET];
+		for (int i = 0; i < filename.length; i++) {
+			filename[i] = getBuffer().get(DATA_OFFSET + FILENAME_OFFSET + i);
+		}
+		return new String(filename);
+	}
 
-		return crc.getValue();d
+	/**
+	 * Sends the datagram through a channel straight from the buffer of the
+	 * segment. A segment with attached data can only be sent through a
+	 * connected channel, which gathers the header and the data into one
+	 * datagram.
+	 *
+	 * @param channel
+	 *            channel to send through
+	 * @param target
+	 *            address to send to
+	 * @return true if the datagram was sent, false if the channel is
+	 *         non-blocking and had no room for it
+	 * @throws IOException
+	 *             if the channel failed to send
+	 */
+	public boolean send(DatagramChannel channel, SocketAddress target)
+			throws IOException {
+		if (hasAttachedData()) {
+			return sendAttached(channel);
+		}
+		ByteBuffer buffer = getBuffer();
+		buffer.limit(getLength());
+		buffer.position(0);
+		try {
+			return channel.send(buffer, target) > 0;
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Receives a datagram through a channel straight into the buffer of the
+	 * segment
+	 *
+	 * @param channel
+	 *            channel to receive from
+	 * @return address of the sender, or null if the channel is non-blocking
+	 *         and no datagram was waiting
+	 * @throws IOException
+	 *             if the channel failed to receive
+	 */
+	public SocketAddress receive(DatagramChannel channel) throws IOException {
+		ByteBuffer buffer = getBuffer();
+		buffer.clear();
+		SocketAddress source = channel.receive(buffer);
+		if (source != null) {
+			setLength(buffer.position());
+		}
+		buffer.clear();
+		return source;
+	}
+
+	/**
+	 * Gets the data of the segment as a String
+	 *
+	 * @return data decoded with the platform charset
+	 */
+	public String getDataAsString() {
+		byte[] data = new byte[getDataLen()];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = hasAttachedData() ? _dataSource.get(_dataOffset + i)
+					: getBuffer().get(DATA_OFFSET + i);
+		}
+		return new String(data);
+	}
+
+	/**
+	 * Calculates the checksum for the current segment using the payload and
+	 * header contents, with the algorithm named in its flags. The fields are
+	 * checksummed in place: the sequence number, then the type, flags,
+	 * timestamp, stream id and data, which directly follow each other in the
+	 * buffer.
+	 * 
+	 * @return the checksum
+	 * @throws IllegalStateException
+	 *             if the flags name an unknown algorithm
+	 */
+	public int calculateChecksum() {
+		ChecksumType type = getChecksumType();
+		if (type == null) {
+			throw new IllegalStateException("Unknown checksum algorithm");
+		}
+		Checksum checksum = CHECKSUMS.get()[type.getId()];
+		checksum.reset();
+
+		updateChecksum(checksum, SEQ_OFFSET, SEQ_SIZE);
+		if (hasAttachedData()) {
+			updateChecksum(checksum, TYPE_OFFSET, TYPE_SIZE + FLAGS_SIZE
+					+ TS_SIZE + STREAM_SIZE);
+			updateChecksum(checksum, attachedData());
+		} else {
+			updateChecksum(checksum, TYPE_OFFSET, TYPE_SIZE + FLAGS_SIZE
+					+ TS_SIZE + STREAM_SIZE + getDataLen());
+		}
+
+		return (int) checksum.getValue();
 	}
 
 	/**
 	 * Checks if the segment is a valid segment or if it has been corrupted
 	 * during transmission. This is done by calculating the checksum and
 	 * comparing it to the value received.
-	 * 
+	 *
 	 * @return true if the checksum received and calculated are the same, false
 	 *         otherwise.
 	 */
 	public boolean isValid() {
 
+		if (getLength() > MAX_SEGMENT_SIZE || getChecksumType() == null) {
+			return false;
+		}
 		if (calculateChecksum() == getChecksum()) {
 			return true;
 		}
@@ -173,77 +1037,502 @@ public class UDPSegment {
 
 	/**
 	 * Checks if this is an ACK segment
-	 * 
+	 *
 	 * @return true if the type of segment is 'A'. False otherwise
 	 */
 	public boolean isAck() {
-		return getType() == 'A';
+		return getType() == ACK_TYPE;
 	}
 
 	/**
 	 * Checks if the segment contains payload
-	 * 
+	 *
 	 * @return true if the payload length is not 0. False otherwise
 	 */
 	public boolean containsData() {
-		return getData().length != 0;
+		return getDataLen() != 0;
 	}
 
 	/**
-	 * Converts this segment into a series of byte to be transmitted
-	 * 
-	 * @param payload
-	 *            the byte array to store the contents of this segment
+	 * Turns this segment into an ACK. The sequence number of an ACK is a
+	 * cumulative ACK: every segment of the stream up to and including it has
+	 * been received.
+	 * Its data holds the sequence number of the segment that caused the ACK to
+	 * be sent, the number of corrupted segments received so far and the
+	 * segment size accepted for the stream, followed by up to MAX_SACK_BLOCKS
+	 * ranges of segments received beyond the cumulative ACK.
+	 *
+	 * <pre>
+	 * | echo seqNum | corrupted | accepted size | start 1 | end 1 | ... |
+	 * | start n | end n |
+	 * </pre>
+	 *
+	 * @param streamId
+	 *            stream being acknowledged
+	 * @param cumulativeAck
+	 *            highest sequence number received in order
+	 * @param echoSeqNum
+	 *            sequence number of the segment that caused this ACK
+	 * @param delay
+	 *            one-way delay of that segment in usec, carried as the
+	 *            timestamp of the ACK
+	 * @param corruptedCount
+	 *            number of corrupted segments the receiver has discarded in
+	 *            the whole session
+	 * @param segmentSize
+	 *            segment size accepted by the receiver for the stream
+	 * @param sackBlocks
+	 *            start and end (inclusive) of each block, one after another
+	 * @param blockCount
+	 *            number of blocks in sackBlocks
 	 */
-	public void makePayload(byte[] payload) {
-		assert (payload != null);
-		assert (payload.length == FileSender.MSS);
-		assert (getDataLen() <= FileSender.MSS);
+	public void makeAck(int streamId, int cumulativeAck, int echoSeqNum,
+			int delay, int corruptedCount, int segmentSize, int[] sackBlocks,
+			int blockCount) {
+		assert (blockCount <= MAX_SACK_BLOCKS);
 
-		// Converting fields into byte arrays
-		byte[] seqNum = ByteBuffer.allocate(SEQ_SIZE).putInt(getSeqNum())
-				.array();
-		byte[] type = ByteBuffer.allocate(TYPE_SIZE).putChar(getType()).array();
-		byte[] checksum = ByteBuffer.allocate(CS_SIZE).putLong(getChecksum())
-				.array();
+		reset(streamId, cumulativeAck, ACK_TYPE);
+		setTimestamp(delay);
+		getBuffer().putInt(DATA_OFFSET + ECHO_OFFSET, echoSeqNum);
+		getBuffer().putInt(DATA_OFFSET + CORRUPT_OFFSET, corruptedCount);
+		getBuffer().putInt(DATA_OFFSET + ACCEPTED_OFFSET, segmentSize);
+		for (int i = 0; i < blockCount * 2; i++) {
+			getBuffer().putInt(DATA_OFFSET + SACK_OFFSET + i * SEQ_SIZE,
+					sackBlocks[i]);
+		}
+		setDataLen(SACK_OFFSET + blockCount * SACK_BLOCK_SIZE);
+		setChecksum(calculateChecksum());
+	}
 
-		// Copying into destination array
-		System.arraycopy(seqNum, 0, payload, SEQ_OFFSET, SEQ_SIZE);
-		System.arraycopy(checksum, 0, payload, CS_OFFSET, CS_SIZE);
-		System.arraycopy(type, 0, payload, TYPE_OFFSET, TYPE_SIZE);
-		System.arraycopy(getData(), 0, payload, DATA_OFFSET, getDataLen());
+	/**
+	 * Gets the cumulative ACK carried by an ACK
+	 *
+	 * @return highest sequence number the receiver has received in order
+	 */
+	public int getCumulativeAck() {
+		assert (isAck());
+		return getSeqNum();
 	}
 
 	/**
-	 * Gets the length of the payload. Paylaod is made up of header and data.
-	 * Therefore, this is the same as the length of the sequence number +
-	 * checksum + type + data.
-	 * 
-	 * @return length of payload
+	 * Gets the sequence number of the segment that caused an ACK to be sent
+	 *
+	 * @return echoed sequence number
 	 */
-	public int getLength() {
-		return SEQ_SIZE + CS_SIZE + TYPE_SIZE + getDataLen();
+	public int getEchoSeqNum() {
+		assert (isAck());
+		return getBuffer().getInt(DATA_OFFSET + ECHO_OFFSET);
 	}
 
-	public void convertToAck() {
-		setType(ACK_TYPE);
-		setData(new byte[DATA_SIZE]);
-		setDataLen(0);
+	/**
+	 * Gets the one-way delay reported by an ACK
+	 *
+	 * @return delay of the echoed segment in usec, relative to an unknown
+	 *         offset between the clocks of sender and receiver
+	 */
+	public int getDelay() {
+		assert (isAck());
+		return getTimestamp();
+	}
+
+	/**
+	 * Gets the current time in the unit and width of a timestamp
+	 *
+	 * @return time in usec, wrapping around every 71 minutes or so
+	 */
+	public static int currentTimestamp() {
+		return (int) (System.nanoTime() / 1000);
+	}
+
+	/**
+	 * Gets the number of corrupted segments reported by an ACK
+	 *
+	 * @return number of corrupted segments the receiver has discarded since
+	 *         the start of the session
+	 */
+	public int getCorruptedCount() {
+		assert (isAck());
+		return getBuffer().getInt(DATA_OFFSET + CORRUPT_OFFSET);
+	}
+
+	/**
+	 * Gets the segment size accepted by the receiver, reported by an ACK
+	 *
+	 * @return largest segment the receiver accepts for the stream in bytes
+	 */
+	public int getAcceptedSegmentSize() {
+		assert (isAck());
+		return getBuffer().getInt(DATA_OFFSET + ACCEPTED_OFFSET);
+	}
+
+	/**
+	 * Turns an ACK without SACK blocks into an offer to resume the stream
+	 * from part of its stripe already held by the receiver
+	 *
+	 * @param offset
+	 *            length of the part of the stripe held, from its start
+	 * @param digest
+	 *            checksum of that part, with the algorithm of the segment
+	 */
+	public void putResumeOffer(long offset, int digest) {
+		assert (isAck() && getSackBlockCount() == 0);
+		setFlags(getFlags() | RESUME_FLAG);
+		getBuffer().putLong(DATA_OFFSET + SACK_OFFSET, offset);
+		getBuffer().putInt(DATA_OFFSET + SACK_OFFSET + RESUME_OFFSET_SIZE,
+				digest);
+		setDataLen(SACK_OFFSET + RESUME_OFFSET_SIZE + RESUME_DIGEST_SIZE);
+		setChecksum(calculateChecksum());
+	}
+
+	/**
+	 * Turns this segment into the answer of the sender to a resume offer
+	 *
+	 * @param offset
+	 *            offset in the stripe the data segments that follow start
+	 *            from, 0 if the offer is declined
+	 */
+	public void putResume(long offset) {
+		setFlags(getFlags() | RESUME_FLAG);
+		getBuffer().putLong(DATA_OFFSET, offset);
+		setDataLen(RESUME_OFFSET_SIZE);
+	}
+
+	/**
+	 * Gets the offset in the stripe carried by a resume offer or its answer
+	 *
+	 * @return length of the part of the stripe held by the receiver for an
+	 *         offer, offset the sender resumes from for an answer
+	 */
+	public long getResumeOffset() {
+		assert (isResume());
+		return getBuffer().getLong(DATA_OFFSET + (isAck() ? SACK_OFFSET : 0));
+	}
+
+	/**
+	 * Gets the checksum of the part of the stripe held by the receiver, from
+	 * a resume offer
+	 *
+	 * @return checksum of the part of the stripe offered
+	 */
+	public int getResumeDigest() {
+		assert (isAck() && isResume());
+		return getBuffer().getInt(
+				DATA_OFFSET + SACK_OFFSET + RESUME_OFFSET_SIZE);
+	}
+
+	/**
+	 * Turns an ACK into the answer to a first segment asking for a delta
+	 * transfer, offering the copy of the file held by the receiver as basis
+	 *
+	 * @param basisLength
+	 *            length of the basis in bytes
+	 * @param blockSize
+	 *            size of the blocks the basis is cut into in bytes
+	 */
+	public void putBasis(long basisLength, int blockSize) {
+		assert (isAck());
+		setFlags(getFlags() | DELTA_FLAG);
+		getBuffer().putLong(DATA_OFFSET + SACK_OFFSET, basisLength);
+		getBuffer().putInt(DATA_OFFSET + SACK_OFFSET + BASIS_LENGTH_SIZE,
+				blockSize);
+		setDataLen(SACK_OFFSET + BASIS_LENGTH_SIZE + BLOCK_SIZE_SIZE);
+		setChecksum(calculateChecksum());
+	}
+
+	/**
+	 * Gets the length of the basis offered by an ACK
+	 *
+	 * @return length of the copy of the file held by the receiver in bytes
+	 */
+	public long getBasisLength() {
+		assert (isAck() && isDelta());
+		return getBuffer().getLong(DATA_OFFSET + SACK_OFFSET);
+	}
+
+	/**
+	 * Gets the size of the blocks of the basis offered by an ACK
+	 *
+	 * @return block size in bytes
+	 */
+	public int getBlockSize() {
+		assert (isAck() && isDelta());
+		return getBuffer().getInt(
+				DATA_OFFSET + SACK_OFFSET + BASIS_LENGTH_SIZE);
+	}
+
+	/**
+	 * Turns this segment into a request for the signatures of blocks of the
+	 * basis
+	 *
+	 * @param firstBlock
+	 *            index of the first block wanted
+	 */
+	public void putSignatureRequest(int firstBlock) {
+		setFlags(getFlags() | SIGNATURES_FLAG);
+		getBuffer().putInt(DATA_OFFSET, firstBlock);
+		setDataLen(FIRST_BLOCK_SIZE);
+	}
+
+	/**
+	 * Turns an ACK into the answer to a signature request, in place of its
+	 * SACK blocks
+	 *
+	 * @param firstBlock
+	 *            index of the first block
+	 * @param signatures
+	 *            weak and strong checksum of each block, one after another
+	 * @param count
+	 *            number of blocks, at most MAX_SIGNATURES
+	 */
+	public void putSignatures(int firstBlock, int[] signatures, int count) {
+		assert (isAck() && count <= MAX_SIGNATURES);
+		setFlags(getFlags() | SIGNATURES_FLAG);
+		int offset = DATA_OFFSET + SACK_OFFSET;
+		getBuffer().putInt(offset, firstBlock);
+		offset += FIRST_BLOCK_SIZE;
+		for (int i = 0; i < count * 2; i++) {
+			getBuffer().putInt(offset + i * (SIGNATURE_SIZE / 2),
+					signatures[i]);
+		}
+		setDataLen(SACK_OFFSET + FIRST_BLOCK_SIZE + count * SIGNATURE_SIZE);
 		setChecksum(calculateChecksum());
 	}
 
+	/**
+	 * Gets the index of the first block of a signature request or of its
+	 * answer
+	 *
+	 * @return index of the block in the basis
+	 */
+	public int getFirstBlock() {
+		assert (isSignatures());
+		return getBuffer().getInt(DATA_OFFSET + (isAck() ? SACK_OFFSET : 0));
+	}
+
+	/**
+	 * Gets the number of blocks whose signatures an ACK carries
+	 *
+	 * @return number of signatures
+	 */
+	public int getSignatureCount() {
+		assert (isAck() && isSignatures());
+		return Math.max(0, (getDataLen() - SACK_OFFSET - FIRST_BLOCK_SIZE)
+				/ SIGNATURE_SIZE);
+	}
+
+	/**
+	 * Gets the weak checksum of a block from the signatures of an ACK
+	 *
+	 * @param index
+	 *            index of the signature in the ACK
+	 * @return weak checksum of the block (see RollingChecksum)
+	 */
+	public int getWeakSignature(int index) {
+		return getBuffer().getInt(DATA_OFFSET + SACK_OFFSET + FIRST_BLOCK_SIZE
+				+ index * SIGNATURE_SIZE);
+	}
+
+	/**
+	 * Gets the strong checksum of a block from the signatures of an ACK
+	 *
+	 * @param index
+	 *            index of the signature in the ACK
+	 * @return checksum of the block, with the algorithm of the segment
+	 */
+	public int getStrongSignature(int index) {
+		return getBuffer().getInt(DATA_OFFSET + SACK_OFFSET + FIRST_BLOCK_SIZE
+				+ index * SIGNATURE_SIZE + SIGNATURE_SIZE / 2);
+	}
+
+	/**
+	 * Turns this segment into an empty delta segment, whose operations are
+	 * then appended with putLiteral and putCopy
+	 *
+	 * @param position
+	 *            position in the file of the first byte covered
+	 */
+	public void startDelta(long position) {
+		setFlags(getFlags() | DELTA_FLAG);
+		getBuffer().putLong(DATA_OFFSET + POSITION_OFFSET, position);
+		setDataLen(OPS_OFFSET);
+	}
+
+	/**
+	 * Appends literal bytes to a delta segment
+	 *
+	 * @param src
+	 *            array holding the bytes
+	 * @param offset
+	 *            offset of the bytes in src
+	 * @param length
+	 *            number of bytes, more than 0
+	 */
+	public void putLiteral(byte[] src, int offset, int length) {
+		assert (length > 0);
+		ByteBuffer buffer = getBuffer();
+		int start = getLength();
+		buffer.putInt(start, length);
+		buffer.position(start + OP_SIZE);
+		buffer.put(src, offset, length);
+		buffer.clear();
+		setLength(start + literalSize(length));
+	}
+
+	/**
+	 * Appends a copy of consecutive blocks of the basis to a delta segment
+	 *
+	 * @param firstBlock
+	 *            index of the first block
+	 * @param count
+	 *            number of blocks, more than 0
+	 */
+	public void putCopy(int firstBlock, int count) {
+		assert (count > 0);
+		int start = getLength();
+		getBuffer().putInt(start, -count);
+		getBuffer().putInt(start + OP_SIZE, firstBlock);
+		setLength(start + copySize());
+	}
+
+	/**
+	 * Gets the room taken in a delta segment by a literal
+	 *
+	 * @param length
+	 *            number of literal bytes
+	 * @return bytes taken in the data of the segment
+	 */
+	public static int literalSize(int length) {
+		return OP_SIZE + length;
+	}
+
+	/**
+	 * Gets the room taken in a delta segment by a copy
+	 *
+	 * @return bytes taken in the data of the segment
+	 */
+	public static int copySize() {
+		return 2 * OP_SIZE;
+	}
+
+	/**
+	 * Applies the operations of a delta segment, writing the literal bytes
+	 * and the blocks copied from the basis at their place in the file. Unlike
+	 * writeData, this moves the position of the channel of the file.
+	 *
+	 * @param target
+	 *            file being written
+	 * @param basis
+	 *            copy of the file the blocks are copied from
+	 * @param blockSize
+	 *            size of the blocks of the basis in bytes
+	 * @return false if the operations are malformed or copy blocks beyond the
+	 *         end of the basis
+	 * @throws IOException
+	 *             if either file could not be read or written
+	 */
+	public boolean applyDelta(FileChannel target, FileChannel basis,
+			int blockSize) throws IOException {
+		ByteBuffer buffer = getBuffer();
+		long position = buffer.getLong(DATA_OFFSET + POSITION_OFFSET);
+		int offset = DATA_OFFSET + OPS_OFFSET;
+		long basisLength = basis.size();
+
+		try {
+			while (offset + OP_SIZE <= getLength()) {
+				int op = buffer.getInt(offset);
+				offset += OP_SIZE;
+				if (op > 0 && op <= getLength() - offset) {
+					// Literal bytes
+					buffer.limit(offset + op);
+					buffer.position(offset);
+					while (buffer.hasRemaining()) {
+						target.write(buffer, position + buffer.position()
+								- offset);
+					}
+					buffer.clear();
+					position += op;
+					offset += op;
+				} else if (op < 0 && offset + OP_SIZE <= getLength()) {
+					// Blocks of the basis
+					long start = (long) buffer.getInt(offset) * blockSize;
+					long length = -(long) op * blockSize;
+					offset += OP_SIZE;
+					if (start < 0 || start > basisLength - length) {
+						return false;
+					}
+					target.position(position);
+					while (length > 0) {
+						long copied = basis.transferTo(start, length, target);
+						if (copied <= 0) {
+							return false;
+						}
+						start += copied;
+						length -= copied;
+						position += copied;
+					}
+				} else {
+					return false;
+				}
+			}
+		} finally {
+			buffer.clear();
+		}
+		return offset == getLength();
+	}
+
+	/**
+	 * Gets the number of SACK blocks carried by an ACK
+	 *
+	 * @return number of blocks, none for an ACK carrying a resume offer, a
+	 *         basis or signatures in their place
+	 */
+	public int getSackBlockCount() {
+		assert (isAck());
+		if (isResume() || isDelta() || isSignatures()) {
+			return 0;
+		}
+		return Math.max(0, (getDataLen() - SACK_OFFSET) / SACK_BLOCK_SIZE);
+	}
+
+	/**
+	 * Gets the first sequence number of a SACK block
+	 *
+	 * @param block
+	 *            index of the block
+	 * @return first sequence number received in the block
+	 */
+	public int getSackStart(int block) {
+		return getBuffer().getInt(
+				DATA_OFFSET + SACK_OFFSET + block * SACK_BLOCK_SIZE);
+	}
+
+	/**
+	 * Gets the last sequence number of a SACK block
+	 *
+	 * @param block
+	 *            index of the block
+	 * @return last sequence number received in the block
+	 */
+	public int getSackEnd(int block) {
+		return getBuffer().getInt(
+				DATA_OFFSET + SACK_OFFSET + block * SACK_BLOCK_SIZE + SEQ_SIZE);
+	}
+
 	public String headerContents() {
 		StringBuilder result = new StringBuilder();
 		result.append("seqNum: " + getSeqNum() + "\n");
 		result.append("Checksum: " + getChecksum() + "\n");
 		result.append("Type: " + getType() + "\n");
+		result.append("Flags: " + getFlags() + "\n");
+		result.append("Timestamp: " + getTimestamp() + "\n");
+		result.append("Stream: " + getStreamId() + "\n");
 		result.append("Length: " + getLength() + "\n");
 		return result.toString();
 	}
 
 	public String dataContents() {
 		StringBuilder result = new StringBuilder();
-		result.append("Data: " + new String(getData()) + "\n");
+		result.append("Data: " + getDataAsString() + "\n");
 		return result.toString();
 	}
 
@@ -288,4 +1577,120 @@ public class UDPSegment {
 		return false;
 	}
 
+	/* Private methods */
+
+	/**
+	 * Writes the low 16 bits of a value into an array, most significant byte
+	 * first like the fields of the header
+	 */
+	private static void putShort(byte[] dst, int offset, int value) {
+		dst[offset] = (byte) (value >>> 8);
+		dst[offset + 1] = (byte) value;
+	}
+
+	/**
+	 * Reads an unsigned 16 bit value from an array, most significant byte
+	 * first
+	 */
+	private static int getShort(byte[] src, int offset) {
+		return ((src[offset] & 0xFF) << 8) | (src[offset + 1] & 0xFF);
+	}
+
+	/**
+	 * Positions the view of the attached data over it
+	 *
+	 * @return the view, from the first to the last byte of the data
+	 */
+	private ByteBuffer attachedData() {
+		_data.limit(_dataOffset + getDataLen());
+		_data.position(_dataOffset);
+		return _data;
+	}
+
+	/**
+	 * Sends the header and the attached data as one datagram
+	 *
+	 * @param channel
+	 *            connected channel to send through
+	 * @return true if the datagram was sent, false if the channel had no room
+	 *         for it
+	 * @throws IOException
+	 *             if the channel failed to send
+	 */
+	private boolean sendAttached(DatagramChannel channel) throws IOException {
+		if (_gather == null) {
+			_gather = new ByteBuffer[2];
+		}
+		ByteBuffer header = getBuffer();
+		header.limit(HEADER_SIZE);
+		header.position(0);
+		_gather[0] = header;
+		_gather[1] = attachedData();
+		try {
+			return channel.write(_gather) > 0;
+		} finally {
+			header.clear();
+		}
+	}
+
+	/**
+	 * Adds the remaining bytes of a buffer to a checksum, in place if the JVM
+	 * supports it and through the scratch array otherwise
+	 *
+	 * @param checksum
+	 *            checksum to update
+	 * @param data
+	 *            buffer holding the bytes to add
+	 */
+	private static void updateChecksum(Checksum checksum, ByteBuffer data) {
+		if (UPDATE_BUFFER != null) {
+			try {
+				UPDATE_BUFFER.invokeExact(checksum, data);
+				return;
+			} catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		byte[] scratch = SCRATCH.get();
+		int length = data.remaining();
+		data.get(scratch, 0, length);
+		checksum.update(scratch, 0, length);
+	}
+
+	private static MethodHandle findUpdateBuffer() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(Checksum.class,
+					"update",
+					MethodType.methodType(void.class, ByteBuffer.class));
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Adds a region of the buffer to a checksum without copying it, unless
+	 * the buffer is direct and has no backing array
+	 *
+	 * @param checksum
+	 *            checksum to update
+	 * @param offset
+	 *            offset of the region in the buffer
+	 * @param length
+	 *            length of the region
+	 */
+	private void updateChecksum(Checksum checksum, int offset, int length) {
+		if (getBuffer().hasArray()) {
+			checksum.update(getBuffer().array(), getBuffer().arrayOffset()
+					+ offset, length);
+			return;
+		}
+
+		byte[] scratch = SCRATCH.get();
+		for (int i = 0; i < length; i++) {
+			scratch[i] = getBuffer().get(offset + i);
+		}
+		checksum.update(scratch, 0, length);
+	}
+
 }
@@ -8,11 +8,17 @@ import java.util.*;
 
 public class UnreliNET {
     
-    static int buf_size = 1500;
-    int returnPort_sk1;
-    private DatagramSocket sk1, sk2;
+    // largest packet let through, 1000 bytes unless given on the command line;
+    // the buffer is one byte larger so that longer packets can be told apart
+    static int max_pkt_size = 1000;
+    static int buf_size = max_pkt_size + 1;
+    private DatagramSocket sk1;
     int port_sk1, port_sk2;
     
+    // one socket towards the receiver per sender port, so that ACKs sent back
+    // through it find the sender they are meant for
+    private Map<Integer, DatagramSocket> sk2_by_port = new HashMap<Integer, DatagramSocket>();
+    
     // corruption/loss rate
     static float data_loss_pct;
     static float ack_loss_pct;
@@ -36,18 +42,26 @@ public class UnreliNET {
                 while (true) {
                     // read data from the incoming socket
                     sk1.receive(in_pkt);
-                    returnPort_sk1 = in_pkt.getPort();
+                    DatagramSocket sk2 = sk2_by_port.get(in_pkt.getPort());
+                    if (sk2 == null) {
+                        // first packet from a new sender
+                        sk2 = new DatagramSocket();
+                        sk2_by_port.put(in_pkt.getPort(), sk2);
+                        UnreliThreadProcessAck th2 = new UnreliThreadProcessAck(sk2, in_pkt.getPort());
+                        th2.setDaemon(true);
+                        th2.start();
+                    }
                     
                     // check the length of the packet
-                    if (in_pkt.getLength() > 1000) {
-                        System.err.println("Error: packet length is more than 1000 bytes");
+                    if (in_pkt.getLength() > max_pkt_size) {
+                        System.err.println("Error: packet length is more than " + max_pkt_size + " bytes");
                         System.exit(-1);
                     }
                     
                     // decide if to drop the packet or not
                     if (rnd.nextFloat() <= data_loss_pct) {
                         dropCounter++;
-                        System.out.println(dropCounter + " Packet dropped");
+                        Log.log(LogLevel.INFO, "{} Packet dropped", dropCounter);
                         continue;
                     }
                     
@@ -57,7 +71,7 @@ public class UnreliNET {
                             if (rnd_byte.nextFloat() <= 0.3)  //decide if to corrupt a byte
                                 in_data[i] = (byte) ((in_data[i] + 1) % 10);
                         corruptionCounter++;
-                        System.out.println(corruptionCounter + " Packet corrupted");
+                        Log.log(LogLevel.INFO, "{} Packet corrupted", corruptionCounter);
                     }
                     
                     // write data to the outgoing socket
@@ -79,6 +93,13 @@ public class UnreliNET {
         private Random rnd_byte = new Random();
         int ackcorruptionCounter = 0;
         int ackdropCounter = 0;
+        private DatagramSocket sk2;
+        private int returnPort_sk1;
+        
+        public UnreliThreadProcessAck(DatagramSocket sk2, int returnPort_sk1) {
+            this.sk2 = sk2;
+            this.returnPort_sk1 = returnPort_sk1;
+        }
         
         public void run() {
             try {
@@ -91,15 +112,15 @@ public class UnreliNET {
                     sk2.receive(in_pkt);
                     
                     // check the length of the packet
-                    if (in_pkt.getLength() > 1000) {
-                        System.err.println("Error: packet length is more than 1000 bytes");
+                    if (in_pkt.getLength() > max_pkt_size) {
+                        System.err.println("Error: packet length is more than " + max_pkt_size + " bytes");
                         System.exit(-1);
                     }
                     
                     // decide if to drop the packet or not
                     if (rnd.nextFloat() <= ack_loss_pct) {
                         ackdropCounter++;
-                        System.out.println(ackdropCounter + " ACK/NAK dropped");
+                        Log.log(LogLevel.INFO, "{} ACK/NAK dropped", ackdropCounter);
                         continue;
                     }
                     
@@ -109,7 +130,7 @@ public class UnreliNET {
                             if (rnd_byte.nextFloat() <= 0.3) //decide if to corrupt a byte
                                 in_data[i] = (byte) ((in_data[i] + 1) % 10);
                         ackcorruptionCounter++;
-                        System.out.println(ackcorruptionCounter + " ACK/NAK corrupted");
+                        Log.log(LogLevel.INFO, "{} ACK/NAK corrupted", ackcorruptionCounter);
                     }
                     
                     // write data to the outgoing socket
@@ -133,7 +154,8 @@ public class UnreliNET {
                                + "\ndata corruption rate = " + data_corrupt_rate
                                + "\nack/nak corruption rate = " + ack_corrupt_rate
                                + "\ndata loss rate = " + data_loss_rate
-                               + "\nack/nak loss rate = " + ack_loss_rate);
+                               + "\nack/nak loss rate = " + ack_loss_rate
+                               + "\nmax packet size = " + max_pkt_size);
         
         try {
             // Create socket sk1 and sk2
@@ -144,18 +166,14 @@ public class UnreliNET {
             ack_loss_pct = ack_loss_rate;
             
             sk1 = new DatagramSocket(unreliNetPort);
-            sk2 = new DatagramSocket();
             
             port_sk1 = unreliNetPort;
             port_sk2 = rcvPort;
             
-            // create threads to process sender's incoming data
+            // create threads to process sender's incoming data; a thread to
+            // process receiver's incoming data is created for each sender
             UnreliThreadProcessData th1 = new UnreliThreadProcessData();
             th1.start();
-            
-            // create threads to process receiver's incoming data
-            UnreliThreadProcessAck th2 = new UnreliThreadProcessAck();
-            th2.start();
         } catch (Exception e) {
             e.printStackTrace();
             System.exit(-1);
@@ -164,11 +182,15 @@ public class UnreliNET {
     
     public static void main(String[] args) {
         // parse parameters
-        if (args.length != 6) {
+        if (args.length != 6 && args.length != 7) {
             System.err.println("Usage: java UnreliNET <P_DATA_CORRUPT> <P_ACK_CORRUPT> " +
-                               "<P_DATA_LOSS> <P_ACK_LOSS> <unreliNetPort> <rcvPort>");
+                               "<P_DATA_LOSS> <P_ACK_LOSS> <unreliNetPort> <rcvPort> [maxPacketSize]");
             System.exit(-1);
         } else {
+            if (args.length == 7) {
+                max_pkt_size = Integer.parseInt(args[6]);
+                buf_size = max_pkt_size + 1;
+            }
             new UnreliNET(Float.parseFloat(args[0]), Float.parseFloat(args[1]),
                           Float.parseFloat(args[2]), Float.parseFloat(args[3]),
                           Integer.parseInt(args[4]), Integer.parseInt(args[5]) );
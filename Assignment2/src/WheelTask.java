@@ -0,0 +1,87 @@
+/**
+ *
+ * A task that can be scheduled on a TimingWheel, either once or repeatedly.
+ * This plays the same role as a TimerTask does for a Timer. The links used by
+ * the wheel to chain the tasks of a slot are kept in the task itself, so that
+ * scheduling and cancelling never allocate.
+ *
+ * @author Victor Hazali A0110741X
+ *
+ */
+public abstract class WheelTask implements Runnable {
+
+	/* Member Variables */
+	private volatile TimingWheel	_wheel;
+	private volatile boolean		_cancelled;
+	private long					_deadline;
+	private long					_period;
+	private WheelTask				_next;
+	private WheelTask				_prev;
+
+	/* Accessors and Modifiers */
+
+	public TimingWheel getWheel() {
+		return _wheel;
+	}
+
+	public void setWheel(TimingWheel wheel) {
+		_wheel = wheel;
+	}
+
+	public boolean isCancelled() {
+		return _cancelled;
+	}
+
+	public void setCancelled(boolean cancelled) {
+		_cancelled = cancelled;
+	}
+
+	public long getDeadline() {
+		return _deadline;
+	}
+
+	public void setDeadline(long deadline) {
+		_deadline = deadline;
+	}
+
+	public long getPeriod() {
+		return _period;
+	}
+
+	public void setPeriod(long period) {
+		_period = period;
+	}
+
+	public WheelTask getNext() {
+		return _next;
+	}
+
+	public void setNext(WheelTask next) {
+		_next = next;
+	}
+
+	public WheelTask getPrev() {
+		return _prev;
+	}
+
+	public void setPrev(WheelTask prev) {
+		_prev = prev;
+	}
+
+	/* Public methods */
+
+	/**
+	 * Cancels this task. A task that is currently running will complete its
+	 * run but will not be run again.
+	 *
+	 * @return true if the task was still scheduled, false otherwise
+	 */
+	public boolean cancel() {
+		setCancelled(true);
+		TimingWheel wheel = getWheel();
+		if (wheel == null) {
+			return false;
+		}
+		return wheel.cancel(this);
+	}
+}